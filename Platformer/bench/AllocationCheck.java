@@ -0,0 +1,159 @@
+import java.awt.event.KeyEvent;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * AllocationCheck class:
+ * Checks that the steady state Player.update() path allocates nothing. A world is
+ * built, the player is warmed up walking back and forth along the floor, and then
+ * the thread allocation counter is read across a run of updates. A collision query
+ * against a dense pile of overlapping objects is checked the same way. Exits with a
+ * non-zero status if any bytes were allocated, so it can be run as a build check.
+ */
+public class AllocationCheck {
+    /**
+     * Number of updates run before measuring so the JIT has compiled the hot path.
+     */
+    private static final int WARMUP_UPDATES = 50_000;
+    /**
+     * Number of updates measured.
+     */
+    private static final int MEASURED_UPDATES = 10_000;
+    /**
+     * Number of updates between the player turning around.
+     */
+    private static final int TURN_INTERVAL = 100;
+    /**
+     * Width and height of the tiles in the floor the player walks along.
+     */
+    private static final int TILE_SIZE = 40;
+    /**
+     * Number of tiles in each row of the floor.
+     */
+    private static final int TILES_PER_ROW = 500;
+    /**
+     * Y coordinate of the top of the floor.
+     */
+    private static final int FLOOR_Y = 560;
+    /**
+     * Number of overlapping objects in the dense query check. More than the 32 where List.sort() starts allocating.
+     */
+    private static final int DENSE_OBJECT_COUNT = 48;
+
+    /**
+     * Runs the check for each world size and exits with status 1 if any allocated.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        boolean failed = false;
+        for(int objectCount : new int[]{100, 10_000}) {
+            ObjectManager objectManager = createFloorWorld(objectCount);
+            Player player = objectManager.getPlayer();
+            runUpdates(player, WARMUP_UPDATES);
+            long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+            runUpdates(player, MEASURED_UPDATES);
+            long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+            System.out.println("Player.update " + objectCount + ": " + allocatedBytes + " bytes allocated over "
+                    + MEASURED_UPDATES + " updates");
+            if(allocatedBytes != 0) {
+                failed = true;
+            }
+        }
+        for(boolean useSpatialHash : new boolean[]{true, false}) {
+            ObjectManager objectManager = createDenseWorld();
+            objectManager.setUseSpatialHash(useSpatialHash);
+            GameObject area = new Block(new Position(0, 0), 200, 200);
+            List<GameObject> result = new ArrayList<>();
+            runQueries(objectManager, area, result, WARMUP_UPDATES);
+            long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+            runQueries(objectManager, area, result, MEASURED_UPDATES);
+            long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+            String mode = useSpatialHash ? "hash" : "linear";
+            System.out.println("getObjectsCollidedWith " + mode + " " + result.size() + " results: " + allocatedBytes
+                    + " bytes allocated over " + MEASURED_UPDATES + " queries");
+            if(result.size() != DENSE_OBJECT_COUNT || allocatedBytes != 0) {
+                failed = true;
+            }
+        }
+        if(failed) {
+            System.out.println("FAILED: the steady state update or query allocated");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    /**
+     * Updates the player while holding a direction key, turning around regularly so it
+     * stays on the floor.
+     *
+     * @param player The player to update.
+     * @param updates Number of updates to run.
+     */
+    private static void runUpdates(Player player, int updates) {
+        for(int i = 1; i <= updates; i++) {
+            if(i % TURN_INTERVAL == 0) {
+                boolean right = (i / TURN_INTERVAL) % 2 == 0;
+                player.handleInput(KeyEvent.VK_RIGHT, right);
+                player.handleInput(KeyEvent.VK_LEFT, !right);
+            }
+            player.update(GamePanel.TIME_INTERVAL);
+        }
+    }
+
+    /**
+     * Creates a world with a floor made of the specified number of tiles and a player standing on it.
+     *
+     * @param objectCount Number of tiles to create.
+     * @return The world.
+     */
+    private static ObjectManager createFloorWorld(int objectCount) {
+        ObjectManager objectManager = new ObjectManager();
+        for(int i = 0; i < objectCount; i++) {
+            Position position = new Position((i % TILES_PER_ROW) * TILE_SIZE, FLOOR_Y + (i / TILES_PER_ROW) * TILE_SIZE);
+            objectManager.addObject(new Block(position, TILE_SIZE, TILE_SIZE));
+        }
+        objectManager.addObject(new Player(new Position(100, FLOOR_Y - 50), objectManager));
+        return objectManager;
+    }
+
+    /**
+     * Creates a world where every object overlaps the area 0,0 to 200,200. The objects are
+     * added spread across several cells of the spatial hash, so a query finds them out of id
+     * order and has to sort them.
+     *
+     * @return The world.
+     */
+    private static ObjectManager createDenseWorld() {
+        ObjectManager objectManager = new ObjectManager();
+        for(int i = 0; i < DENSE_OBJECT_COUNT; i++) {
+            int corner = i % 4;
+            Position position = new Position(corner % 2 * 150, corner / 2 * 150);
+            objectManager.addObject(new Block(position, 40, 40));
+        }
+        return objectManager;
+    }
+
+    /**
+     * Repeats the same collision query into a reused list.
+     *
+     * @param objectManager The world to query.
+     * @param area An object covering the area to find objects in. It is not in the world.
+     * @param result List filled with the objects found.
+     * @param queries Number of queries to run.
+     */
+    private static void runQueries(ObjectManager objectManager, GameObject area, List<GameObject> result, int queries) {
+        for(int i = 0; i < queries; i++) {
+            objectManager.getObjectsCollidedWith(area, result);
+        }
+    }
+}
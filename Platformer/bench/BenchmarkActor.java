@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * BenchmarkActor class:
+ * A simple enemy that walks back and forth along the floor used to benchmark
+ * the two phase update. The integrate phase looks ahead for walls and edges
+ * using its own probe and list, and the resolve phase applies the step.
+ */
+public class BenchmarkActor extends GameObject {
+    /**
+     * Distance moved each tick.
+     */
+    private static final int SPEED = 2;
+
+    /**
+     * Reference to the ObjectManager used to look ahead.
+     */
+    private final ObjectManager objectManager;
+    /**
+     * Bounds tested for the step being considered.
+     */
+    private final Rectangle probe;
+    /**
+     * Reusable buffer for the objects found by the probe.
+     */
+    private final List<GameObject> probeResult;
+    /**
+     * Direction of travel, either 1 or -1.
+     */
+    private int direction;
+    /**
+     * The x coordinate calculated by integrate() to move to in resolve().
+     */
+    private int proposedX;
+    /**
+     * Direction calculated by integrate() to use from resolve().
+     */
+    private int proposedDirection;
+
+    /**
+     * Creates an actor walking right.
+     *
+     * @param position Top left corner of the actor.
+     * @param objectManager Reference to the ObjectManager used to look ahead.
+     */
+    public BenchmarkActor(Position position, ObjectManager objectManager) {
+        super(position, 20, 20);
+        setCanEnter(true);
+        this.objectManager = objectManager;
+        probe = new Rectangle(0, 0, 0, 0);
+        probeResult = new ArrayList<>();
+        direction = 1;
+    }
+
+    /**
+     * Turns around when the next step would walk into a solid object or off the floor.
+     *
+     * @param deltaTime Time since last update.
+     */
+    @Override
+    public void integrate(int deltaTime) {
+        int nextX = position.getX() + direction * SPEED;
+        // Look for walls at the next step, stopping just above the floor
+        probe.position.setPosition(nextX, position.getY());
+        probe.setSize(getWidth(), getHeight() - 1);
+        objectManager.getObjectsCollidedWith(probe, probeResult);
+        boolean blocked = nextX < 0 || nextX + getWidth() > objectManager.getWorldWidth();
+        for(int i = 0; i < probeResult.size() && !blocked; i++) {
+            blocked = !probeResult.get(i).canEnter();
+        }
+        // Look for ground under the leading edge
+        probe.position.setPosition(direction > 0 ? nextX + getWidth() : nextX, position.getY() + getHeight());
+        probe.setSize(0, 1);
+        objectManager.getObjectsCollidedWith(probe, probeResult);
+        boolean hasGround = false;
+        for(int i = 0; i < probeResult.size() && !hasGround; i++) {
+            hasGround = probeResult.get(i).isGround();
+        }
+        if(blocked || !hasGround) {
+            proposedDirection = -direction;
+            proposedX = position.getX();
+        } else {
+            proposedDirection = direction;
+            proposedX = nextX;
+        }
+        probeResult.clear();
+    }
+
+    /**
+     * Applies the step calculated by integrate().
+     *
+     * @param deltaTime Time since last update.
+     */
+    @Override
+    public void resolve(int deltaTime) {
+        direction = proposedDirection;
+        position.setX(proposedX);
+    }
+}
@@ -0,0 +1,115 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * MicroBenchmark class:
+ * A small benchmark harness that repeatedly runs an operation for a fixed time
+ * after a warm up and reports the average time per operation along with the
+ * bytes allocated per operation and the allocation rate. Allocation is measured
+ * with the thread allocation counter so regressions in the hot paths show up
+ * as numbers.
+ */
+public class MicroBenchmark {
+    /**
+     * An operation to measure.
+     */
+    public interface Operation {
+        /**
+         * Runs the operation once.
+         *
+         * @return Any value produced so the work can't be optimised away.
+         */
+        Object run();
+    }
+
+    /**
+     * Number of warm up iterations run before measuring.
+     */
+    private static final int WARMUP_ITERATIONS = 3;
+    /**
+     * Number of measured iterations.
+     */
+    private static final int MEASURE_ITERATIONS = 5;
+    /**
+     * Length of each iteration in ms.
+     */
+    private static final long ITERATION_MILLIS = 500;
+
+    /**
+     * Values returned by operations are stored here so they are not removed as dead code.
+     */
+    private static volatile Object sink;
+
+    /**
+     * Used to read the number of bytes allocated by the current thread.
+     */
+    private final com.sun.management.ThreadMXBean threadBean;
+    /**
+     * Only benchmarks with names containing this are run. Empty runs all of them.
+     */
+    private final String filter;
+
+    /**
+     * Creates the harness and prints the header for the results.
+     *
+     * @param filter Only benchmarks with names containing this are run. Empty runs all of them.
+     */
+    public MicroBenchmark(String filter) {
+        this.filter = filter;
+        threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        System.out.printf("%-50s %14s %14s %16s%n", "Benchmark", "ns/op", "B/op", "gc.alloc.rate");
+    }
+
+    /**
+     * Warms up then measures the operation and prints a line of results.
+     *
+     * @param name Name to report the results under.
+     * @param operation The operation to measure.
+     */
+    public void run(String name, Operation operation) {
+        if(!name.contains(filter)) return;
+
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(operation);
+        }
+        long totalOps = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for(int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long threadId = Thread.currentThread().getId();
+            long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+            long startTime = System.nanoTime();
+            totalOps += runIteration(operation);
+            totalNanos += System.nanoTime() - startTime;
+            totalBytes += threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        }
+        double nanosPerOp = (double)totalNanos / totalOps;
+        double bytesPerOp = (double)totalBytes / totalOps;
+        double megabytesPerSecond = totalBytes / (1024.0 * 1024.0) / (totalNanos / 1_000_000_000.0);
+        System.out.printf("%-50s %14.1f %14.1f %11.1f MB/s%n", name, nanosPerOp, bytesPerOp, megabytesPerSecond);
+    }
+
+    /**
+     * Runs the operation repeatedly until the iteration time has passed.
+     * The clock is only checked every batch of operations to keep the overhead low.
+     *
+     * @param operation The operation to run.
+     * @return The number of times the operation was run.
+     */
+    private long runIteration(Operation operation) {
+        long endTime = System.nanoTime() + ITERATION_MILLIS * 1_000_000L;
+        long ops = 0;
+        int batchSize = 1;
+        do {
+            for(int i = 0; i < batchSize; i++) {
+                sink = operation.run();
+            }
+            ops += batchSize;
+            if(batchSize < 1024) batchSize *= 2;
+        } while(System.nanoTime() < endTime);
+        return ops;
+    }
+}
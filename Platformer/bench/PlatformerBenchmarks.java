@@ -0,0 +1,273 @@
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * PlatformerBenchmarks class:
+ * Benchmarks for the hot paths of the game: collision tests and queries,
+ * player and actor updates, actor pair finding, map loading, world
+ * snapshots, and painting. Worlds of different sizes are
+ * generated as a wide floor of tiles with the player standing on top.
+ */
+public class PlatformerBenchmarks {
+    /**
+     * Size of each generated tile.
+     */
+    private static final int TILE_SIZE = 40;
+    /**
+     * Number of tiles in each row of a generated world.
+     */
+    private static final int TILES_PER_ROW = 500;
+    /**
+     * Y coordinate of the top of the generated floor.
+     */
+    private static final int FLOOR_Y = 560;
+    /**
+     * World sizes to run the size dependent benchmarks at.
+     */
+    private static final int[] OBJECT_COUNTS = {100, 1_000, 10_000, 100_000};
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args Optional text that benchmark names must contain to be run.
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        MicroBenchmark benchmark = new MicroBenchmark(args.length > 0 ? args[0] : "");
+
+        Rectangle rectA = new Rectangle(0, 0, 40, 40);
+        Rectangle rectB = new Rectangle(20, 20, 40, 40);
+        benchmark.run("Rectangle.isIntersecting", () -> rectA.isIntersecting(rectB));
+
+        for(int objectCount : OBJECT_COUNTS) {
+            ObjectManager objectManager = createWorld(objectCount);
+            Player player = objectManager.getPlayer();
+            List<GameObject> buffer = new ArrayList<>();
+            objectManager.setUseSpatialHash(false);
+            benchmark.run("getObjectsCollidedWith linear " + objectCount,
+                    () -> objectManager.getObjectsCollidedWith(player));
+            objectManager.setUseSpatialHash(true);
+            benchmark.run("getObjectsCollidedWith hash " + objectCount,
+                    () -> objectManager.getObjectsCollidedWith(player));
+            benchmark.run("getObjectsCollidedWith hash buffer " + objectCount, () -> {
+                objectManager.getObjectsCollidedWith(player, buffer);
+                return buffer;
+            });
+            benchmark.run("isClearOfSolids " + objectCount, () -> objectManager.isClearOfSolids(player));
+        }
+
+        for(int objectCount : OBJECT_COUNTS) {
+            ObjectManager objectManager = createWorld(objectCount);
+            Player player = objectManager.getPlayer();
+            player.handleInput(KeyEvent.VK_RIGHT, true);
+            int[] ticks = {0};
+            benchmark.run("Player.update keys held " + objectCount, () -> {
+                // Turn around regularly so the player stays on the floor near the start
+                if(++ticks[0] % 100 == 0) {
+                    boolean right = (ticks[0] / 100) % 2 == 0;
+                    player.handleInput(KeyEvent.VK_RIGHT, right);
+                    player.handleInput(KeyEvent.VK_LEFT, !right);
+                }
+                player.update(GamePanel.TIME_INTERVAL);
+                return player;
+            });
+        }
+
+        for(int objectCount : OBJECT_COUNTS) {
+            ObjectManager objectManager = createWorld(objectCount);
+            Player player = objectManager.getPlayer();
+            benchmark.run("Player.update keys held just above floor " + objectCount, () -> {
+                // Start each update a little above the floor, close enough to share cells of the
+                // spatial hash with it but not touching it
+                player.reset(100, FLOOR_Y - 60);
+                player.handleInput(KeyEvent.VK_RIGHT, true);
+                player.update(GamePanel.TIME_INTERVAL);
+                return player;
+            });
+        }
+
+        for(int objectCount : OBJECT_COUNTS) {
+            ObjectManager objectManager = createWorld(objectCount);
+            benchmark.run("ObjectManager.update " + objectCount, () -> {
+                objectManager.update(GamePanel.TIME_INTERVAL);
+                return objectManager;
+            });
+        }
+
+        for(int actorCount : new int[]{1_000, 10_000}) {
+            for(boolean parallel : new boolean[]{false, true}) {
+                ObjectManager objectManager = createWorld(10_000);
+                for(int i = 0; i < actorCount; i++) {
+                    Position position = new Position((i * 37) % (TILES_PER_ROW * TILE_SIZE - 20), FLOOR_Y - 20);
+                    objectManager.addObject(new BenchmarkActor(position, objectManager));
+                }
+                objectManager.setUseParallelUpdate(parallel);
+                String mode = parallel ? "parallel " : "serial ";
+                benchmark.run("ObjectManager.update actors " + mode + actorCount, () -> {
+                    objectManager.update(GamePanel.TIME_INTERVAL);
+                    return objectManager;
+                });
+            }
+        }
+
+        for(int actorCount : new int[]{1_000, 10_000}) {
+            ObjectManager objectManager = createWorld(10_000);
+            List<GameObject> actors = new ArrayList<>();
+            for(int i = 0; i < actorCount; i++) {
+                Position position = new Position((i * 37) % (TILES_PER_ROW * TILE_SIZE - 20), FLOOR_Y - 20);
+                BenchmarkActor actor = new BenchmarkActor(position, objectManager);
+                actors.add(actor);
+                objectManager.addObject(actor);
+            }
+            int[] pairCount = new int[1];
+            SweepAndPrune.PairVisitor countPairs = (first, second) -> pairCount[0]++;
+            benchmark.run("update + forEachDynamicPair sweep and prune " + actorCount, () -> {
+                objectManager.update(GamePanel.TIME_INTERVAL);
+                pairCount[0] = 0;
+                objectManager.forEachDynamicPair(countPairs);
+                return pairCount[0];
+            });
+            if(actorCount <= 1_000) {
+                benchmark.run("update + all pairs " + actorCount, () -> {
+                    objectManager.update(GamePanel.TIME_INTERVAL);
+                    pairCount[0] = 0;
+                    for(int i = 0; i < actors.size(); i++) {
+                        for(int j = i + 1; j < actors.size(); j++) {
+                            if(actors.get(i).isIntersecting(actors.get(j))) pairCount[0]++;
+                        }
+                    }
+                    return pairCount[0];
+                });
+            }
+        }
+
+        ObjectManager loadTarget = new ObjectManager();
+        MapLoader mapLoader = new MapLoader(loadTarget);
+        benchmark.run("MapLoader.loadMap small", () -> {
+            mapLoader.loadMap("Map.txt");
+            return loadTarget;
+        });
+        File hugeMap = writeMapFile(100_000);
+        benchmark.run("MapLoader.loadMap huge 100000", () -> {
+            mapLoader.loadMap(hugeMap.getPath());
+            return loadTarget;
+        });
+        List<GameObject> hugeMapObjects = mapLoader.parseMap(hugeMap.getPath());
+        benchmark.run("GeometryMerger.merge huge 100000", () -> GeometryMerger.merge(hugeMapObjects));
+        File hugeBinaryMap = File.createTempFile("benchmark", ".bin");
+        MapCompiler.main(new String[]{hugeMap.getPath(), hugeBinaryMap.getPath()});
+        benchmark.run("MapLoader.loadMap huge binary 100000", () -> {
+            mapLoader.loadMap(hugeBinaryMap.getPath());
+            return loadTarget;
+        });
+        for(String mapFileName : new String[]{"Map.txt", hugeMap.getPath()}) {
+            GameSession session = new GameSession(mapFileName);
+            WorldSnapshot snapshot = new WorldSnapshot();
+            snapshot.capture(session);
+            String size = mapFileName.equals("Map.txt") ? "small" : "huge 100000";
+            benchmark.run("WorldSnapshot.capture " + size, () -> {
+                snapshot.capture(session);
+                return snapshot;
+            });
+            benchmark.run("WorldSnapshot.restore " + size, () -> snapshot.restore(session));
+        }
+        hugeMap.delete();
+        hugeBinaryMap.delete();
+
+        BufferedImage image = new BufferedImage(GamePanel.PANEL_WIDTH, GamePanel.PANEL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        ObjectManager smallMap = new ObjectManager();
+        new MapLoader(smallMap).loadMap("Map.txt");
+        for(String mode : new String[]{"direct ", "batched ", "cached "}) {
+            smallMap.setUseStaticLayerCache(mode.equals("cached "));
+            smallMap.setUseRenderBatches(mode.equals("batched "));
+            benchmark.run("ObjectManager.paint " + mode + "small", () -> {
+                smallMap.paint(g);
+                return image;
+            });
+            for(int objectCount : OBJECT_COUNTS) {
+                ObjectManager objectManager = createWorld(objectCount);
+                objectManager.setUseStaticLayerCache(mode.equals("cached "));
+                objectManager.setUseRenderBatches(mode.equals("batched "));
+                benchmark.run("ObjectManager.paint " + mode + objectCount, () -> {
+                    objectManager.paint(g);
+                    return image;
+                });
+            }
+        }
+
+        // Clip to the visible area so only the objects the camera can see are queried and drawn
+        g.setClip(0, 0, GamePanel.PANEL_WIDTH, GamePanel.PANEL_HEIGHT);
+        for(int objectCount : OBJECT_COUNTS) {
+            ObjectManager objectManager = createWorld(objectCount);
+            objectManager.setUseStaticLayerCache(false);
+            objectManager.setUseRenderBatches(false);
+            benchmark.run("ObjectManager.paint culled " + objectCount, () -> {
+                objectManager.paint(g);
+                return image;
+            });
+            objectManager.setUseRenderBatches(true);
+            benchmark.run("ObjectManager.paint culled batched " + objectCount, () -> {
+                objectManager.paint(g);
+                return image;
+            });
+            // Moving a tile in place only rebuilds the batches of the squares it touches
+            GameObject tile = objectManager.getObjects().get(objectCount / 2);
+            benchmark.run("moveObject + paint culled batched " + objectCount, () -> {
+                objectManager.moveObject(tile, tile.position.getX(), tile.position.getY(), TILE_SIZE, TILE_SIZE);
+                objectManager.paint(g);
+                return image;
+            });
+        }
+        g.dispose();
+    }
+
+    /**
+     * Creates a world with a floor made of the specified number of tiles and a player standing on it.
+     *
+     * @param objectCount Number of tiles to create.
+     * @return An ObjectManager containing the world.
+     */
+    private static ObjectManager createWorld(int objectCount) {
+        ObjectManager objectManager = new ObjectManager();
+        for(int i = 0; i < objectCount; i++) {
+            Position position = new Position((i % TILES_PER_ROW) * TILE_SIZE, FLOOR_Y + (i / TILES_PER_ROW) * TILE_SIZE);
+            objectManager.addObject(new Block(position, TILE_SIZE, TILE_SIZE));
+        }
+        objectManager.addObject(new Player(new Position(100, FLOOR_Y - 50), objectManager));
+        return objectManager;
+    }
+
+    /**
+     * Writes a map file with a floor made of the specified number of objects in a mix of types.
+     *
+     * @param objectCount Number of objects to write.
+     * @return The temporary file that was written.
+     */
+    private static File writeMapFile(int objectCount) throws IOException {
+        File file = File.createTempFile("benchmark", ".txt");
+        try(PrintWriter writer = new PrintWriter(file)) {
+            writer.println("Player 100 " + (FLOOR_Y - 50) + " 40 40");
+            for(int i = 0; i < objectCount; i++) {
+                int x = (i % TILES_PER_ROW) * TILE_SIZE;
+                int y = FLOOR_Y + (i / TILES_PER_ROW) * TILE_SIZE;
+                switch(i % 4) {
+                    case 0: writer.println("GrassBlock " + x + " " + y + " " + TILE_SIZE + " " + TILE_SIZE); break;
+                    case 1: writer.println("Block " + x + " " + y + " " + TILE_SIZE + " " + TILE_SIZE); break;
+                    case 2: writer.println("Spikes " + x + " " + y + " " + TILE_SIZE + " 20"); break;
+                    default: writer.println("Collectible " + x + " " + y); break;
+                }
+            }
+        }
+        return file;
+    }
+}
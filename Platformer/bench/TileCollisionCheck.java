@@ -0,0 +1,206 @@
+import java.awt.Graphics2D;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * TileCollisionCheck class:
+ * Checks that maps built from adjacent tiles play the same whether or not the
+ * GeometryMerger has merged the tiles when the map was loaded. A short floor of
+ * four blocks is walked along, and a larger tiled map is played with random input
+ * both with and without batched painting. Text maps are merged as they load, so
+ * each map is also written as a binary map without merging to compare against.
+ * Exits with a non-zero status on any difference.
+ */
+public class TileCollisionCheck {
+    /**
+     * Number of ticks the player is left to land on the four block floor before moving.
+     */
+    private static final int SETTLE_TICKS = 100;
+    /**
+     * Number of ticks right is held for on the four block floor.
+     */
+    private static final int FLOOR_TICKS = 60;
+    /**
+     * Seed used to generate the tiled map and the random input.
+     */
+    private static final long SEED = 23;
+    /**
+     * Number of ticks the tiled map is played for.
+     */
+    private static final int TILED_MAP_TICKS = 20_000;
+    /**
+     * Number of ticks between changes to the random input.
+     */
+    private static final int INPUT_INTERVAL = 15;
+    /**
+     * Number of ticks between each batched paint of the tiled map.
+     */
+    private static final int PAINT_INTERVAL = 10;
+
+    /**
+     * Runs the checks and exits with status 1 if any of them fail.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        boolean failed = false;
+
+        File floorMap = File.createTempFile("floor", ".txt");
+        try(PrintWriter writer = new PrintWriter(floorMap)) {
+            writer.println("Player 0 400 40 40");
+            for(int i = 0; i < 4; i++) {
+                writer.println("Block " + (i * 40) + " 500 40 40");
+            }
+        }
+        File floorTiles = writeUnmerged(floorMap);
+        int mergedX = walkFloor(floorMap);
+        int tiledX = walkFloor(floorTiles);
+        System.out.println("Four block floor: player ended at x=" + mergedX + " merged and x=" + tiledX + " as tiles");
+        // The player must walk over the seams rather than stopping at the first one
+        failed |= mergedX != tiledX || tiledX <= 40;
+        floorMap.delete();
+        floorTiles.delete();
+
+        File tiledMap = writeTiledMap(new Random(SEED));
+        File tiledMapTiles = writeUnmerged(tiledMap);
+        for(boolean paint : new boolean[]{false, true}) {
+            String mode = paint ? " with batched painting" : "";
+            long merged = play(new GameSession(tiledMap.getPath()), new Random(SEED), paint);
+            long tiled = play(new GameSession(tiledMapTiles.getPath()), new Random(SEED), paint);
+            System.out.println("Tiled map" + mode + ": hash " + merged + " merged and " + tiled + " as tiles");
+            failed |= merged != tiled;
+        }
+        tiledMap.delete();
+        tiledMapTiles.delete();
+
+        if(failed) {
+            System.out.println("FAILED: merged maps no longer play the same as their tiles");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    /**
+     * Writes a text map as a binary map without merging any of its geometry.
+     *
+     * @param textMap The text map to convert.
+     * @return The temporary binary map that was written.
+     */
+    private static File writeUnmerged(File textMap) throws IOException {
+        File file = File.createTempFile("tiles", ".bin");
+        List<GameObject> objects = new MapLoader(new ObjectManager()).parseMap(textMap.getPath());
+        BinaryMapFormat.write(objects, file.getPath(), ObjectManager.DEFAULT_CELL_SIZE);
+        return file;
+    }
+
+    /**
+     * Lets the player land on the floor and then holds right.
+     *
+     * @param map The map to play.
+     * @return The x coordinate the player ended at.
+     */
+    private static int walkFloor(File map) {
+        GameSession session = new GameSession(map.getPath());
+        for(int i = 0; i < SETTLE_TICKS; i++) {
+            session.tick(GamePanel.TIME_INTERVAL);
+        }
+        session.handleInput(KeyEvent.VK_RIGHT, true);
+        for(int i = 0; i < FLOOR_TICKS; i++) {
+            session.tick(GamePanel.TIME_INTERVAL);
+        }
+        return session.getObjectManager().getPlayer().getPosition().getX();
+    }
+
+    /**
+     * Plays a session with random input, restarting whenever the game ends.
+     *
+     * @param session The session to play.
+     * @param random Source of the input.
+     * @param paint When true the ObjectManager is painted with render batches as it is played.
+     * @return A hash of the player, the lives left, the deaths and which collectibles were collected.
+     *         The whole state hash can't be compared as it includes every piece of geometry.
+     */
+    private static long play(GameSession session, Random random, boolean paint) {
+        BufferedImage image = new BufferedImage(GamePanel.PANEL_WIDTH, GamePanel.PANEL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        ObjectManager objectManager = session.getObjectManager();
+        objectManager.setUseStaticLayerCache(false);
+        objectManager.setUseRenderBatches(true);
+        int deaths = 0;
+        for(int tick = 0; tick < TILED_MAP_TICKS; tick++) {
+            if(tick % INPUT_INTERVAL == 0) {
+                int direction = random.nextInt(3);
+                session.handleInput(KeyEvent.VK_RIGHT, direction == 1);
+                session.handleInput(KeyEvent.VK_LEFT, direction == 2);
+                session.handleInput(KeyEvent.VK_SPACE, random.nextBoolean());
+            }
+            if(session.isGameOver()) {
+                session.handleInput(KeyEvent.VK_R, true);
+            }
+            int lives = session.getLives();
+            session.tick(GamePanel.TIME_INTERVAL);
+            if(session.getLives() < lives) {
+                deaths++;
+            }
+            if(paint && tick % PAINT_INTERVAL == 0) {
+                objectManager.paint(g);
+            }
+        }
+        g.dispose();
+
+        long hash = ObjectManager.mixHash(ObjectManager.HASH_SEED, objectManager.getPlayer().getStateHash());
+        hash = ObjectManager.mixHash(hash, session.getLives());
+        hash = ObjectManager.mixHash(hash, deaths);
+        for(GameObject object : objectManager.getObjects()) {
+            if(object instanceof Collectible) {
+                hash = ObjectManager.mixHash(hash, ((Collectible)object).isCollected() ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Writes a map made of rows of 40 pixel tiles with gaps, grass along parts of the floor,
+     * spikes on top of it and some floating platforms.
+     *
+     * @param random Source of the layout.
+     * @return The temporary file that was written.
+     */
+    private static File writeTiledMap(Random random) throws IOException {
+        File file = File.createTempFile("tiled", ".txt");
+        try(PrintWriter writer = new PrintWriter(file)) {
+            writer.println("Player 100 400 40 40");
+            for(int column = 0; column < 200; column++) {
+                int x = column * 40;
+                // Keep the start solid and leave occasional gaps further along
+                if(column > 5 && random.nextInt(12) == 0) continue;
+                String type = random.nextInt(3) == 0 ? "GrassBlock" : "Block";
+                writer.println(type + " " + x + " 560 40 40");
+                writer.println("Block " + x + " 600 40 40");
+                if(column > 5 && random.nextInt(4) == 0) {
+                    writer.println("Spikes " + x + " 540 40 20");
+                }
+                if(random.nextInt(6) == 0) {
+                    int y = 360 + random.nextInt(4) * 40;
+                    int length = 1 + random.nextInt(4);
+                    for(int i = 0; i < length; i++) {
+                        writer.println("Block " + (x + i * 40) + " " + y + " 40 40");
+                    }
+                }
+                if(random.nextInt(8) == 0) {
+                    writer.println("Collectible " + (x + 10) + " 520");
+                }
+            }
+        }
+        return file;
+    }
+}
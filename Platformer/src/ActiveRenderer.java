@@ -0,0 +1,163 @@
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * ActiveRenderer class:
+ * Draws frames to a Canvas from a dedicated thread using a BufferStrategy
+ * instead of asking Swing to repaint. Swing coalesces and delays repaint
+ * requests, so the time between frames varies, while here each frame is drawn
+ * into a back buffer and shown as soon as it is finished, and then the thread
+ * sleeps until the next frame is due. The BufferStrategy uses page flipping
+ * when the display supports it and copies the back buffer otherwise. Frames can
+ * be paced at the display refresh rate so each one lines up with a refresh.
+ */
+public class ActiveRenderer implements Runnable {
+    /**
+     * Something that can draw a whole frame.
+     */
+    public interface Scene {
+        /**
+         * Draws the whole frame over whatever the buffer contained before.
+         *
+         * @param g Reference to the Graphics object of the back buffer.
+         */
+        void draw(Graphics g);
+    }
+
+    /**
+     * The canvas to draw to.
+     */
+    private final Canvas canvas;
+    /**
+     * Number of buffers including the one on screen.
+     */
+    private final int bufferCount;
+    /**
+     * Draws each frame.
+     */
+    private final Scene scene;
+    /**
+     * Time between frames in ns.
+     */
+    private final long frameNanos;
+    /**
+     * The buffers drawn to, created once the canvas is on screen.
+     */
+    private BufferStrategy bufferStrategy;
+    /**
+     * The thread drawing the frames.
+     */
+    private Thread thread;
+    /**
+     * When false the thread will stop after the current frame.
+     */
+    private volatile boolean running;
+
+    /**
+     * Creates a renderer for a canvas.
+     *
+     * @param canvas The canvas to draw to.
+     * @param bufferCount Number of buffers including the one on screen, 2 or 3.
+     * @param scene Draws each frame.
+     * @param framesPerSecond Number of frames to draw each second.
+     */
+    public ActiveRenderer(Canvas canvas, int bufferCount, Scene scene, int framesPerSecond) {
+        this.canvas = canvas;
+        this.bufferCount = bufferCount;
+        this.scene = scene;
+        frameNanos = 1_000_000_000L / framesPerSecond;
+        // Everything is drawn by the thread so ignore any repaint requests from the OS
+        canvas.setIgnoreRepaint(true);
+    }
+
+    /**
+     * Starts the thread that draws the frames.
+     */
+    public void start() {
+        if(running) return;
+        running = true;
+        thread = new Thread(this, "Render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops drawing after the current frame.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Draws a frame whenever one is due and then sleeps until the next. Nothing is drawn
+     * until the canvas is on screen.
+     */
+    @Override
+    public void run() {
+        long nextFrameTime = System.nanoTime();
+        while(running) {
+            if(bufferStrategy != null || createBufferStrategy()) {
+                drawFrame();
+            }
+            nextFrameTime += frameNanos;
+            long sleepNanos = nextFrameTime - System.nanoTime();
+            if(sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int)(sleepNanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                // Fell behind so start pacing again from now
+                nextFrameTime = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Draws one frame to the back buffer and shows it. The frame is drawn again if the
+     * buffers are lost or restored while drawing, such as when the display mode changes.
+     */
+    private void drawFrame() {
+        do {
+            do {
+                Graphics g = bufferStrategy.getDrawGraphics();
+                try {
+                    scene.draw(g);
+                } finally {
+                    g.dispose();
+                }
+            } while(bufferStrategy.contentsRestored());
+            bufferStrategy.show();
+        } while(bufferStrategy.contentsLost());
+        // Send the frame to the display now rather than when the window system next flushes
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    /**
+     * Creates the buffers on the EDT once the canvas is on screen.
+     *
+     * @return True if the buffers were created.
+     */
+    private boolean createBufferStrategy() {
+        if(!canvas.isDisplayable()) return false;
+        try {
+            EventQueue.invokeAndWait(() -> {
+                if(canvas.isDisplayable() && canvas.getWidth() > 0 && canvas.getHeight() > 0) {
+                    canvas.createBufferStrategy(bufferCount);
+                    bufferStrategy = canvas.getBufferStrategy();
+                }
+            });
+        } catch (InterruptedException e) {
+            running = false;
+        } catch (InvocationTargetException e) {
+            System.out.println("Failed to create buffers for active rendering: " + e.getCause().getMessage());
+            running = false;
+        }
+        return bufferStrategy != null;
+    }
+}
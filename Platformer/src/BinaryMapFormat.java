@@ -0,0 +1,332 @@
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * BinaryMapFormat class:
+ * Reads and writes maps in a compact binary form that can be loaded without
+ * parsing any text. The file starts with a header of the magic number, version,
+ * flags and object count. Each object follows as a one byte type tag and its
+ * int fields (x, y and for blocks and spikes the width and height). An optional
+ * section at the end lists the objects in each spatial hash cell so the index
+ * does not need to be rebuilt on load. Files are memory mapped when loading.
+ */
+public class BinaryMapFormat {
+    /**
+     * First four bytes of every binary map ("PLMB").
+     */
+    public static final int MAGIC = 0x504C4D42;
+    /**
+     * Version of the format written by this class.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Flag set in the header when the file ends with a spatial index section.
+     */
+    public static final int FLAG_HAS_INDEX = 1;
+
+    /**
+     * Type tags used for each kind of GameObject.
+     */
+    public static final byte TYPE_BLOCK = 1, TYPE_GRASS_BLOCK = 2, TYPE_SPIKES = 3,
+            TYPE_PLAYER = 4, TYPE_VICTORY_FLAG = 5, TYPE_COLLECTIBLE = 6;
+
+    /**
+     * Tests whether the file starts with the binary map magic number.
+     *
+     * @param fileName File to test.
+     * @return True if the file is a binary map, false if it is not or can't be read.
+     */
+    public static boolean isBinaryMap(String fileName) {
+        try(RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            return file.length() >= 4 && file.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the objects to a binary map file.
+     *
+     * @param objects Objects to write in the order they should be loaded.
+     * @param fileName File to write to.
+     * @param cellSize Cell size to build the spatial index section for, or 0 to leave it out.
+     * @throws IOException If the file can't be written.
+     */
+    public static void write(List<GameObject> objects, String fileName, int cellSize) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cellSize > 0 ? FLAG_HAS_INDEX : 0);
+            out.writeInt(objects.size());
+            for(GameObject object : objects) {
+                writeObject(out, object);
+            }
+            if(cellSize > 0) {
+                writeIndex(out, objects, cellSize);
+            }
+        }
+    }
+
+    /**
+     * Clears the ObjectManager and loads the objects from a binary map file into it.
+     * Any errors will be reported.
+     *
+     * @param fileName File to load.
+     * @param objectManager The ObjectManager to add the objects to.
+     * @return True if the map was loaded.
+     */
+    public static boolean load(String fileName, ObjectManager objectManager) {
+        MappedByteBuffer buffer;
+        try(RandomAccessFile file = new RandomAccessFile(fileName, "r");
+            FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            System.out.println("Failed to open file: " + fileName);
+            return false;
+        }
+
+        try {
+            if(buffer.getInt() != MAGIC) {
+                System.out.println("ERROR not a binary map: " + fileName);
+                return false;
+            }
+            int version = buffer.getInt();
+            if(version != VERSION) {
+                System.out.println("ERROR unsupported binary map version " + version + ": " + fileName);
+                return false;
+            }
+            int flags = buffer.getInt();
+            int objectCount = buffer.getInt();
+
+            GameObject[] objects = new GameObject[objectCount];
+            for(int i = 0; i < objectCount; i++) {
+                objects[i] = readObject(buffer, objectManager);
+                if(objects[i] == null) {
+                    System.out.println("ERROR invalid object type at object " + i + ": " + fileName);
+                    return false;
+                }
+            }
+
+            objectManager.clearObjects();
+            // The index can only be used if it was built for the same cells
+            boolean useIndex = (flags & FLAG_HAS_INDEX) != 0 && buffer.getInt() == objectManager.getCellSize();
+            for(GameObject object : objects) {
+                objectManager.addObject(object, !useIndex);
+            }
+            if(useIndex) {
+                int[] entries = readIndex(buffer, objects.length);
+                if(isIndexValid(entries, objects, objectManager.getCellSize())) {
+                    for(int i = 0; i < entries.length; i += 3) {
+                        objectManager.addToSpatialHashCell(entries[i], entries[i + 1], objects[entries[i + 2]]);
+                    }
+                } else {
+                    System.out.println("WARNING spatial index does not match the objects, rebuilding it: " + fileName);
+                    for(GameObject object : objects) {
+                        if(!(object instanceof Player)) {
+                            objectManager.addToSpatialHash(object);
+                        }
+                    }
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.out.println("ERROR binary map is truncated or corrupt: " + fileName);
+            objectManager.clearObjects();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the cells of the spatial index section.
+     *
+     * @param buffer Buffer positioned after the cell size of the section.
+     * @param objectCount Number of objects in the map, used to size the result.
+     * @return The cell x, cell y and object index of every entry, three ints per entry.
+     */
+    private static int[] readIndex(MappedByteBuffer buffer, int objectCount) {
+        int[] entries = new int[Math.max(objectCount, 1) * 3];
+        int size = 0;
+        int cellCount = buffer.getInt();
+        for(int i = 0; i < cellCount; i++) {
+            int cellX = buffer.getInt();
+            int cellY = buffer.getInt();
+            int count = buffer.getInt();
+            for(int j = 0; j < count; j++) {
+                if(size == entries.length) {
+                    entries = Arrays.copyOf(entries, size * 2);
+                }
+                entries[size++] = cellX;
+                entries[size++] = cellY;
+                entries[size++] = buffer.getInt();
+            }
+        }
+        return Arrays.copyOf(entries, size);
+    }
+
+    /**
+     * Tests that the spatial index lists every object in the spatial hash in exactly the
+     * cells its bounds overlap. Entries for the Player, for objects that don't exist, or for
+     * cells away from the object would put bad indices in the spatial hash.
+     *
+     * @param entries Entries read by readIndex().
+     * @param objects Objects in the order they were loaded, already added to the ObjectManager.
+     * @param cellSize Width and height of each cell.
+     * @return True if the entries can be added to the spatial hash as they are.
+     */
+    private static boolean isIndexValid(int[] entries, GameObject[] objects, int cellSize) {
+        int[] cellsLeft = new int[objects.length];
+        for(int i = 0; i < objects.length; i++) {
+            GameObject object = objects[i];
+            if(object instanceof Player) continue;
+            long cellsWide = Math.floorDiv(object.position.getX() + object.getWidth(), cellSize) - Math.floorDiv(object.position.getX(), cellSize) + 1L;
+            long cellsHigh = Math.floorDiv(object.position.getY() + object.getHeight(), cellSize) - Math.floorDiv(object.position.getY(), cellSize) + 1L;
+            cellsLeft[i] = (int)Math.min(cellsWide * cellsHigh, Integer.MAX_VALUE);
+        }
+        for(int i = 0; i < entries.length; i += 3) {
+            int index = entries[i + 2];
+            if(index < 0 || index >= objects.length) return false;
+            GameObject object = objects[index];
+            if(object instanceof Player || cellsLeft[index] == 0) return false;
+            if(entries[i] < Math.floorDiv(object.position.getX(), cellSize)
+                    || entries[i] > Math.floorDiv(object.position.getX() + object.getWidth(), cellSize)
+                    || entries[i + 1] < Math.floorDiv(object.position.getY(), cellSize)
+                    || entries[i + 1] > Math.floorDiv(object.position.getY() + object.getHeight(), cellSize)) {
+                return false;
+            }
+            cellsLeft[index]--;
+        }
+        for(int cells : cellsLeft) {
+            if(cells != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes a single object record.
+     *
+     * @param out Stream to write to.
+     * @param object The object to write.
+     * @throws IOException If the record can't be written.
+     */
+    static void writeObject(DataOutputStream out, GameObject object) throws IOException {
+        byte type = getTypeTag(object);
+        out.writeByte(type);
+        out.writeInt(object.position.getX());
+        out.writeInt(object.position.getY());
+        if(hasSize(type)) {
+            out.writeInt(object.getWidth());
+            out.writeInt(object.getHeight());
+        }
+    }
+
+    /**
+     * Reads a single object record.
+     *
+     * @param buffer Buffer positioned at the start of the record.
+     * @param objectManager Reference to the ObjectManager needed to create the Player.
+     * @return The object, or null if the type tag is not valid.
+     */
+    static GameObject readObject(ByteBuffer buffer, ObjectManager objectManager) {
+        byte type = buffer.get();
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        switch(type) {
+            case TYPE_BLOCK:
+                return new Block(new Position(x, y), buffer.getInt(), buffer.getInt());
+            case TYPE_GRASS_BLOCK:
+                return new GrassBlock(new Position(x, y), buffer.getInt(), buffer.getInt());
+            case TYPE_SPIKES:
+                return new Spikes(new Position(x, y), buffer.getInt(), buffer.getInt());
+            case TYPE_PLAYER:
+                return new Player(new Position(x, y), objectManager);
+            case TYPE_VICTORY_FLAG:
+                return new VictoryFlag(new Position(x, y));
+            case TYPE_COLLECTIBLE:
+                return new Collectible(new Position(x, y));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the type tag used to store an object. Classes are compared exactly, so a
+     * subclass of a stored type is not written as its parent.
+     *
+     * @param object The object to get the tag for.
+     * @return The type tag.
+     * @throws IllegalArgumentException If the object's class has no type tag.
+     */
+    private static byte getTypeTag(GameObject object) {
+        Class<?> type = object.getClass();
+        if(type == Block.class) return TYPE_BLOCK;
+        if(type == GrassBlock.class) return TYPE_GRASS_BLOCK;
+        if(type == Spikes.class) return TYPE_SPIKES;
+        if(type == Player.class) return TYPE_PLAYER;
+        if(type == VictoryFlag.class) return TYPE_VICTORY_FLAG;
+        if(type == Collectible.class) return TYPE_COLLECTIBLE;
+        throw new IllegalArgumentException("Binary maps can't store objects of type " + type.getName()
+                + ", only Block, GrassBlock, Spikes, Player, VictoryFlag and Collectible");
+    }
+
+    /**
+     * Gets whether objects of a type store their width and height.
+     *
+     * @param type The type tag.
+     * @return True if the width and height follow the position.
+     */
+    private static boolean hasSize(byte type) {
+        return type == TYPE_BLOCK || type == TYPE_GRASS_BLOCK || type == TYPE_SPIKES;
+    }
+
+    /**
+     * Writes the spatial index section listing the index of every object in each cell.
+     * The Player is not included as it is not stored in the spatial hash.
+     *
+     * @param out Stream to write to.
+     * @param objects Objects in the order they were written.
+     * @param cellSize Width and height of each cell.
+     * @throws IOException If the section can't be written.
+     */
+    private static void writeIndex(DataOutputStream out, List<GameObject> objects, int cellSize) throws IOException {
+        Map<Long, List<Integer>> cells = new TreeMap<>();
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(object instanceof Player) continue;
+            int minCellX = Math.floorDiv(object.position.getX(), cellSize);
+            int minCellY = Math.floorDiv(object.position.getY(), cellSize);
+            int maxCellX = Math.floorDiv(object.position.getX() + object.getWidth(), cellSize);
+            int maxCellY = Math.floorDiv(object.position.getY() + object.getHeight(), cellSize);
+            for(int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                for(int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                    long key = ((long)cellX << 32) | (cellY & 0xFFFFFFFFL);
+                    cells.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        out.writeInt(cellSize);
+        out.writeInt(cells.size());
+        for(Map.Entry<Long, List<Integer>> cell : cells.entrySet()) {
+            out.writeInt((int)(cell.getKey() >> 32));
+            out.writeInt((int)(long)cell.getKey());
+            out.writeInt(cell.getValue().size());
+            for(int index : cell.getValue()) {
+                out.writeInt(index);
+            }
+        }
+    }
+}
@@ -8,6 +8,11 @@ import java.awt.*;
  * A simple ground block with a brown colour.
  */
 public class Block extends GameObject {
+    /**
+     * Colour the block is filled with.
+     */
+    private static final Color FILL_COLOR = new Color(101, 75, 37);
+
     /**
      * Initialises the block ready to be drawn and interacted with.
      *
@@ -17,7 +22,8 @@ public class Block extends GameObject {
      */
     public Block(Position position, int width, int height) {
         super(position, width, height);
-        isGround = true;
+        setGround(true);
+        setStaticGeometry(true);
     }
 
     /**
@@ -28,7 +34,19 @@ public class Block extends GameObject {
     @Override
     public void paint(Graphics g) {
         super.paint(g);
-        g.setColor(new Color(101, 75, 37));
-        g.fillRect(position.x, position.y, width, height);
+        g.setColor(FILL_COLOR);
+        g.fillRect(position.getX(), position.getY(), getWidth(), getHeight());
+    }
+
+    /**
+     * Adds the brown rectangle to the render batches.
+     *
+     * @param batches The batches to add the shapes drawn to.
+     * @return True as the block is drawn entirely by the batches.
+     */
+    @Override
+    public boolean addToBatches(RenderBatches batches) {
+        batches.fillRect(FILL_COLOR, position.getX(), position.getY(), getWidth(), getHeight());
+        return true;
     }
 }
@@ -0,0 +1,69 @@
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * Camera class:
+ * Defines the part of the world that is visible on the panel. The camera
+ * follows a point, normally the centre of the player, while staying inside
+ * the bounds of the world so levels can be larger than a single screen.
+ */
+public class Camera {
+    /**
+     * The visible part of the world. The position is the top left corner in world coordinates.
+     */
+    private Rectangle visibleBounds;
+
+    /**
+     * Creates a camera looking at the top left of the world.
+     *
+     * @param viewWidth Width of the visible area.
+     * @param viewHeight Height of the visible area.
+     */
+    public Camera(int viewWidth, int viewHeight) {
+        visibleBounds = new Rectangle(0, 0, viewWidth, viewHeight);
+    }
+
+    /**
+     * Moves the camera to centre on a point, keeping the visible area inside the world.
+     * When the world is smaller than the visible area the camera stays at the origin.
+     *
+     * @param centreX X coordinate to centre on.
+     * @param centreY Y coordinate to centre on.
+     * @param worldWidth Width of the world.
+     * @param worldHeight Height of the world.
+     */
+    public void follow(int centreX, int centreY, int worldWidth, int worldHeight) {
+        int x = centreX - visibleBounds.getWidth()/2;
+        int y = centreY - visibleBounds.getHeight()/2;
+        x = Math.max(0, Math.min(x, worldWidth - visibleBounds.getWidth()));
+        y = Math.max(0, Math.min(y, worldHeight - visibleBounds.getHeight()));
+        visibleBounds.position.setPosition(x, y);
+    }
+
+    /**
+     * Gets the x coordinate of the left edge of the visible area.
+     *
+     * @return Left edge of the visible area in world coordinates.
+     */
+    public int getX() {
+        return visibleBounds.position.getX();
+    }
+
+    /**
+     * Gets the y coordinate of the top edge of the visible area.
+     *
+     * @return Top edge of the visible area in world coordinates.
+     */
+    public int getY() {
+        return visibleBounds.position.getY();
+    }
+
+    /**
+     * Gets the visible part of the world. The returned rectangle is updated as the camera moves.
+     *
+     * @return The visible area in world coordinates.
+     */
+    public Rectangle getVisibleBounds() {
+        return visibleBounds;
+    }
+}
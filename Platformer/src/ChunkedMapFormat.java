@@ -0,0 +1,171 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * ChunkedMapFormat class:
+ * Writes maps split into square chunks so they can be streamed in around the
+ * player by the StreamingMapLoader. The file starts with a header of the magic
+ * number, version, chunk size, global object count and chunk count. A table
+ * follows with the chunk coordinates, object count, offset and length of every
+ * chunk. The global objects (the Player) are stored next and are always loaded.
+ * The remaining objects are stored in every chunk their bounds overlap, so an
+ * object stays loaded while the player is near any part of it. Each chunk record
+ * is the object's index in the map followed by the same record as BinaryMapFormat.
+ * The StreamingMapLoader uses the index to only add each object once.
+ */
+public class ChunkedMapFormat {
+    /**
+     * First four bytes of every chunked map ("PLMC").
+     */
+    public static final int MAGIC = 0x504C4D43;
+    /**
+     * Version of the format written by this class.
+     */
+    public static final int VERSION = 2;
+    /**
+     * Size of the header in bytes.
+     */
+    static final int HEADER_BYTES = 5 * 4;
+    /**
+     * Size of each entry in the chunk table in bytes.
+     */
+    static final int TABLE_ENTRY_BYTES = 4 + 4 + 4 + 8 + 4;
+
+    /**
+     * Tests whether the file starts with the chunked map magic number.
+     *
+     * @param fileName File to test.
+     * @return True if the file is a chunked map, false if it is not or can't be read.
+     */
+    public static boolean isChunkedMap(String fileName) {
+        try(RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            return file.length() >= 4 && file.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the objects to a chunked map file.
+     *
+     * @param objects Objects to write in the order they should be loaded.
+     * @param fileName File to write to.
+     * @param chunkSize Width and height of each chunk in pixels.
+     * @throws IOException If the file can't be written.
+     */
+    public static void write(List<GameObject> objects, String fileName, int chunkSize) throws IOException {
+        List<GameObject> globals = new ArrayList<>();
+        Map<Long, List<Integer>> chunks = new TreeMap<>();
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(object instanceof Player) {
+                globals.add(object);
+                continue;
+            }
+            int minChunkX = Math.floorDiv(object.position.getX(), chunkSize);
+            int minChunkY = Math.floorDiv(object.position.getY(), chunkSize);
+            int maxChunkX = Math.floorDiv(object.position.getX() + object.getWidth(), chunkSize);
+            int maxChunkY = Math.floorDiv(object.position.getY() + object.getHeight(), chunkSize);
+            for(int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+                for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                    chunks.computeIfAbsent(toKey(chunkX, chunkY), k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        ByteArrayOutputStream globalBytes = new ByteArrayOutputStream();
+        DataOutputStream globalOut = new DataOutputStream(globalBytes);
+        for(GameObject object : globals) {
+            BinaryMapFormat.writeObject(globalOut, object);
+        }
+        globalOut.flush();
+        List<byte[]> chunkBytes = new ArrayList<>();
+        for(List<Integer> chunk : chunks.values()) {
+            chunkBytes.add(encode(objects, chunk));
+        }
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(chunkSize);
+            out.writeInt(globals.size());
+            out.writeInt(chunks.size());
+            long offset = HEADER_BYTES + (long)TABLE_ENTRY_BYTES * chunks.size() + globalBytes.size();
+            int index = 0;
+            for(Map.Entry<Long, List<Integer>> chunk : chunks.entrySet()) {
+                out.writeInt(getChunkX(chunk.getKey()));
+                out.writeInt(getChunkY(chunk.getKey()));
+                out.writeInt(chunk.getValue().size());
+                out.writeLong(offset);
+                out.writeInt(chunkBytes.get(index).length);
+                offset += chunkBytes.get(index).length;
+                index++;
+            }
+            globalBytes.writeTo(out);
+            for(byte[] bytes : chunkBytes) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Encodes the objects in a chunk as their index in the map followed by their BinaryMapFormat record.
+     *
+     * @param objects Every object in the map.
+     * @param indices Indices of the objects in the chunk.
+     * @return The encoded records.
+     * @throws IOException If the records can't be written.
+     */
+    private static byte[] encode(List<GameObject> objects, List<Integer> indices) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int index : indices) {
+            out.writeInt(index);
+            BinaryMapFormat.writeObject(out, objects.get(index));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Combines the two chunk indices into a single key.
+     *
+     * @param chunkX Chunk index along the x axis.
+     * @param chunkY Chunk index along the y axis.
+     * @return A key unique to the chunk.
+     */
+    static long toKey(int chunkX, int chunkY) {
+        return ((long)chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the chunk index along the x axis from a key.
+     *
+     * @param key Key made by toKey().
+     * @return Chunk index along the x axis.
+     */
+    static int getChunkX(long key) {
+        return (int)(key >> 32);
+    }
+
+    /**
+     * Gets the chunk index along the y axis from a key.
+     *
+     * @param key Key made by toKey().
+     * @return Chunk index along the y axis.
+     */
+    static int getChunkY(long key) {
+        return (int)key;
+    }
+}
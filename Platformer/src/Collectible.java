@@ -1,4 +1,5 @@
 import java.awt.*;
+import java.nio.ByteBuffer;
 
 /**
  * Platformer
@@ -7,7 +8,7 @@ import java.awt.*;
  * Collectible class:
  * Defines an object that can be collected once by the player for score.
  */
-public class Collectible extends GameObject implements CollisionTrigger {
+public class Collectible extends GameObject {
     /**
      * Width of the object.
      */
@@ -31,8 +32,8 @@ public class Collectible extends GameObject implements CollisionTrigger {
     public Collectible(Position position) {
         super(position, WIDTH, HEIGHT);
 
-        canEnter = true;
-        isGround = false;
+        setCanEnter(true);
+        setGround(false);
         collected = false;
     }
 
@@ -46,24 +47,61 @@ public class Collectible extends GameObject implements CollisionTrigger {
         if(collected) return;
 
         g.setColor(Color.YELLOW);
-        g.fillOval(position.x, position.y, width, height);
+        g.fillOval(position.getX(), position.getY(), getWidth(), getHeight());
         g.setColor(Color.BLACK);
-        g.drawOval(position.x, position.y, width, height);
+        g.drawOval(position.getX(), position.getY(), getWidth(), getHeight());
     }
 
     /**
-     * Called when the object is collided with. Does nothing if already
-     * collected. If the player collides with it they gain 5 score.
+     * Called when the player touches the object. Does nothing if already
+     * collected, otherwise the player gains 5 score.
      *
-     * @param object The object that was collided with.
+     * @param player The player that touched the object.
+     * @return True if the object was collected by this call.
+     */
+    public boolean collect(Player player) {
+        if(collected) return false;
+
+        player.addScore(5);
+        collected = true;
+        return true;
+    }
+
+    /**
+     * Gets whether the object has been collected.
+     *
+     * @return True if the object has been collected and is hidden.
+     */
+    public boolean isCollected() {
+        return collected;
+    }
+
+    /**
+     * Sets whether the object has been collected, such as when restoring the state of a level.
+     *
+     * @param collected True to hide the object, false to make it available to collect again.
+     */
+    public void setCollected(boolean collected) {
+        this.collected = collected;
+    }
+
+    /**
+     * Writes whether the object has been collected. Collectibles never move.
+     *
+     * @param buffer Buffer to write the state to.
      */
     @Override
-    public void collideWith(GameObject object) {
-        if(collected) return;
+    public void writeState(ByteBuffer buffer) {
+        buffer.put((byte)(collected ? 1 : 0));
+    }
 
-        if(object instanceof  Player) {
-            ((Player)object).addScore(5);
-            collected = true;
-        }
+    /**
+     * Restores whether the object has been collected.
+     *
+     * @param buffer Buffer to read the state from.
+     */
+    @Override
+    public void readState(ByteBuffer buffer) {
+        collected = buffer.get() != 0;
     }
 }
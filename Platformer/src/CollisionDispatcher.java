@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * CollisionDispatcher class:
+ * Routes collisions to handlers registered once for each pair of types, such as
+ * Player with Collectible. Contacts are remembered between ticks so a handler is
+ * told when a contact starts, continues, and ends. Pairs without a handler are
+ * skipped without any further work. The handler for each pair of classes is looked
+ * up once and cached, searching superclasses so a handler for Block also handles GrassBlock.
+ */
+public class CollisionDispatcher {
+    /**
+     * Receives the collision events for one pair of types. Only the events that
+     * are needed have to be implemented.
+     *
+     * @param <A> Type of the object that collided.
+     * @param <B> Type of the object that was collided with.
+     */
+    public interface CollisionHandler<A extends GameObject, B extends GameObject> {
+        /**
+         * Called on the first tick the two objects are in contact.
+         *
+         * @param object The object that collided.
+         * @param other The object that was collided with.
+         */
+        default void onEnter(A object, B other) {
+
+        }
+
+        /**
+         * Called on each later tick the two objects are still in contact.
+         *
+         * @param object The object that collided.
+         * @param other The object that was collided with.
+         */
+        default void onStay(A object, B other) {
+
+        }
+
+        /**
+         * Called on the first tick the two objects are no longer in contact.
+         *
+         * @param object The object that collided.
+         * @param other The object that was collided with.
+         */
+        default void onExit(A object, B other) {
+
+        }
+    }
+
+    /**
+     * Cached in place of a handler for pairs of classes that have no handler.
+     */
+    private static final CollisionHandler<GameObject, GameObject> NO_HANDLER = new CollisionHandler<>() {};
+
+    /**
+     * Handlers registered for each pair of types, keyed by the first type and then the second.
+     */
+    private final Map<Class<?>, Map<Class<?>, CollisionHandler<?, ?>>> registeredHandlers;
+    /**
+     * The handler found for each pair of classes seen, or NO_HANDLER.
+     */
+    private final Map<Class<?>, Map<Class<?>, CollisionHandler<?, ?>>> resolvedHandlers;
+    /**
+     * Handler used for objects implementing CollisionTrigger that have no registered handler.
+     */
+    private CollisionHandler<GameObject, GameObject> triggerHandler;
+    /**
+     * For each object that has dispatched collisions the objects with a handler it was in contact with on the last tick.
+     */
+    private final Map<GameObject, List<GameObject>> contacts;
+    /**
+     * Reusable list that is swapped with the previous contacts of an object on each dispatch.
+     */
+    private List<GameObject> spareContacts;
+    /**
+     * For each object id the last mark value it was given by dispatch().
+     */
+    private int[] contactMarks;
+    /**
+     * Mark given to the previous contacts during the current dispatch. The next value marks those still in contact.
+     */
+    private int currentMark;
+
+    /**
+     * Creates a dispatcher with no handlers.
+     */
+    public CollisionDispatcher() {
+        registeredHandlers = new HashMap<>();
+        resolvedHandlers = new HashMap<>();
+        triggerHandler = null;
+        contacts = new IdentityHashMap<>();
+        spareContacts = new ArrayList<>();
+        contactMarks = new int[64];
+        currentMark = 0;
+    }
+
+    /**
+     * Registers the handler for collisions between two types, replacing any handler already
+     * registered for the same pair. The handler is also used for subclasses of either type
+     * unless a more specific handler is registered.
+     *
+     * @param typeA Type of the object that collides.
+     * @param typeB Type of the object that is collided with.
+     * @param handler Handler to receive the events.
+     * @param <A> Type of the object that collides.
+     * @param <B> Type of the object that is collided with.
+     */
+    public <A extends GameObject, B extends GameObject> void register(Class<A> typeA, Class<B> typeB,
+                                                                      CollisionHandler<? super A, ? super B> handler) {
+        registeredHandlers.computeIfAbsent(typeA, type -> new HashMap<>()).put(typeB, handler);
+        resolvedHandlers.clear();
+    }
+
+    /**
+     * Sets the handler used when the object collided with implements CollisionTrigger
+     * and no handler is registered for the pair.
+     *
+     * @param triggerHandler Handler to use, or null to ignore CollisionTriggers without a handler.
+     */
+    public void setTriggerHandler(CollisionHandler<GameObject, GameObject> triggerHandler) {
+        this.triggerHandler = triggerHandler;
+        resolvedHandlers.clear();
+    }
+
+    /**
+     * Sends the enter, stay and exit events for an object's contacts this tick. Enter and stay
+     * events are sent in the order of the list, followed by exit events in the order the
+     * contacts were made.
+     *
+     * @param object The object that collided.
+     * @param collidedWith Every object it is currently colliding with.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void dispatch(GameObject object, List<GameObject> collidedWith) {
+        List<GameObject> previous = contacts.get(object);
+        if(previous == null) {
+            previous = new ArrayList<>();
+            contacts.put(object, previous);
+        }
+        // Start the marks again from scratch if the counter would overflow
+        if(currentMark >= Integer.MAX_VALUE - 2) {
+            Arrays.fill(contactMarks, 0);
+            currentMark = 0;
+        }
+        currentMark += 2;
+        int previousMark = currentMark;
+        int stayMark = currentMark + 1;
+        for(int i = 0; i < previous.size(); i++) {
+            markContact(previous.get(i), previousMark);
+        }
+
+        List<GameObject> current = spareContacts;
+        current.clear();
+        Class<?> typeA = object.getClass();
+        for(int i = 0; i < collidedWith.size(); i++) {
+            GameObject other = collidedWith.get(i);
+            CollisionHandler handler = getHandler(typeA, other.getClass());
+            if(handler == NO_HANDLER) continue;
+            current.add(other);
+            if(markContact(other, stayMark) == previousMark) {
+                handler.onStay(object, other);
+            } else {
+                handler.onEnter(object, other);
+            }
+        }
+        for(int i = 0; i < previous.size(); i++) {
+            GameObject other = previous.get(i);
+            if(contactMarks[other.getId()] == previousMark) {
+                ((CollisionHandler)getHandler(typeA, other.getClass())).onExit(object, other);
+            }
+        }
+        previous.clear();
+        spareContacts = previous;
+        contacts.put(object, current);
+    }
+
+    /**
+     * Forgets the contacts of an object without sending exit events, for example when
+     * it is moved back to the start of the level. Its next contacts will all be new.
+     *
+     * @param object The object that collided.
+     */
+    public void clearContacts(GameObject object) {
+        List<GameObject> previous = contacts.get(object);
+        if(previous != null) {
+            previous.clear();
+        }
+    }
+
+    /**
+     * Forgets every contact involving an object that has been removed from the world.
+     *
+     * @param object The removed object.
+     */
+    public void removeObject(GameObject object) {
+        contacts.remove(object);
+        for(List<GameObject> objectContacts : contacts.values()) {
+            objectContacts.remove(object);
+        }
+    }
+
+    /**
+     * Forgets every contact without sending exit events.
+     */
+    public void clearContacts() {
+        contacts.clear();
+    }
+
+    /**
+     * Gives an object a new mark value.
+     *
+     * @param object The object to mark.
+     * @param mark The new mark value.
+     * @return The mark the object had before.
+     */
+    private int markContact(GameObject object, int mark) {
+        int id = object.getId();
+        if(id >= contactMarks.length) {
+            contactMarks = Arrays.copyOf(contactMarks, Math.max(id + 1, contactMarks.length * 2));
+        }
+        int oldMark = contactMarks[id];
+        contactMarks[id] = mark;
+        return oldMark;
+    }
+
+    /**
+     * Gets the handler for a pair of classes, finding and caching it the first time the pair is seen.
+     *
+     * @param typeA Class of the object that collided.
+     * @param typeB Class of the object that was collided with.
+     * @return The handler to use, or NO_HANDLER.
+     */
+    private CollisionHandler<?, ?> getHandler(Class<?> typeA, Class<?> typeB) {
+        Map<Class<?>, CollisionHandler<?, ?>> handlersForA = resolvedHandlers.get(typeA);
+        if(handlersForA == null) {
+            handlersForA = new HashMap<>();
+            resolvedHandlers.put(typeA, handlersForA);
+        }
+        CollisionHandler<?, ?> handler = handlersForA.get(typeB);
+        if(handler == null) {
+            handler = findHandler(typeA, typeB);
+            handlersForA.put(typeB, handler);
+        }
+        return handler;
+    }
+
+    /**
+     * Searches the registered handlers for the most specific match for a pair of classes.
+     * The first class is matched as closely as possible before the second.
+     *
+     * @param typeA Class of the object that collided.
+     * @param typeB Class of the object that was collided with.
+     * @return The handler to use, or NO_HANDLER.
+     */
+    private CollisionHandler<?, ?> findHandler(Class<?> typeA, Class<?> typeB) {
+        for(Class<?> a = typeA; a != null; a = a.getSuperclass()) {
+            Map<Class<?>, CollisionHandler<?, ?>> handlersForA = registeredHandlers.get(a);
+            if(handlersForA == null) continue;
+            for(Class<?> b = typeB; b != null; b = b.getSuperclass()) {
+                CollisionHandler<?, ?> handler = handlersForA.get(b);
+                if(handler != null) {
+                    return handler;
+                }
+            }
+        }
+        if(triggerHandler != null && CollisionTrigger.class.isAssignableFrom(typeB)) {
+            return triggerHandler;
+        }
+        return NO_HANDLER;
+    }
+}
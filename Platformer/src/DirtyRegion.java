@@ -0,0 +1,122 @@
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * DirtyRegion class:
+ * Accumulates the areas of the screen that have changed since the last paint
+ * as a single bounding rectangle so only that part needs to be repainted.
+ */
+public class DirtyRegion {
+    /**
+     * Bounds of the changed area. Empty when minX > maxX.
+     */
+    private int minX, minY, maxX, maxY;
+    /**
+     * When true everything should be repainted regardless of the bounds.
+     */
+    private boolean all;
+
+    /**
+     * Creates an empty region.
+     */
+    public DirtyRegion() {
+        clear();
+    }
+
+    /**
+     * Adds an area that has changed.
+     *
+     * @param x X coordinate of the top left corner.
+     * @param y Y coordinate of the top left corner.
+     * @param width Width of the area.
+     * @param height Height of the area.
+     */
+    public void add(int x, int y, int width, int height) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x + width);
+        maxY = Math.max(maxY, y + height);
+    }
+
+    /**
+     * Adds the area covered by a rectangle.
+     *
+     * @param rectangle The rectangle that has changed.
+     */
+    public void add(Rectangle rectangle) {
+        // Include the right/bottom edge pixel that outlines are drawn on
+        add(rectangle.position.getX(), rectangle.position.getY(), rectangle.getWidth() + 1, rectangle.getHeight() + 1);
+    }
+
+    /**
+     * Marks everything as needing to be repainted.
+     */
+    public void markAll() {
+        all = true;
+    }
+
+    /**
+     * Gets whether everything needs to be repainted.
+     *
+     * @return True if markAll() has been called since the last clear().
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Gets whether nothing has changed.
+     *
+     * @return True if there is nothing to repaint.
+     */
+    public boolean isEmpty() {
+        return !all && minX > maxX;
+    }
+
+    /**
+     * Gets the x coordinate of the left edge of the changed area.
+     *
+     * @return Left edge of the changed area.
+     */
+    public int getX() {
+        return minX;
+    }
+
+    /**
+     * Gets the y coordinate of the top edge of the changed area.
+     *
+     * @return Top edge of the changed area.
+     */
+    public int getY() {
+        return minY;
+    }
+
+    /**
+     * Gets the width of the changed area.
+     *
+     * @return Width of the changed area.
+     */
+    public int getWidth() {
+        return maxX - minX;
+    }
+
+    /**
+     * Gets the height of the changed area.
+     *
+     * @return Height of the changed area.
+     */
+    public int getHeight() {
+        return maxY - minY;
+    }
+
+    /**
+     * Empties the region after it has been repainted.
+     */
+    public void clear() {
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+        all = false;
+    }
+}
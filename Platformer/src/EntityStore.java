@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * EntityStore class:
+ * Holds the bounds and flags of every GameObject in the map in parallel arrays
+ * indexed by the object's entity index, so the spatial hash, sweep and prune
+ * and culling loops can scan the arrays instead of following each object to
+ * its Position. While an object is in the store the arrays are the only copy:
+ * the object's Position, size and flag accessors read and write them by entity
+ * index. Entity indices of removed objects are reused.
+ */
+public class EntityStore {
+    /**
+     * Initial number of entities that can be stored before the arrays grow.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+    /**
+     * Bits in flags for each property of an entity.
+     */
+    static final int FLAG_STATIC = 1, FLAG_SOLID = 2, FLAG_GROUND = 4, FLAG_SLEEPING = 8;
+
+    /**
+     * Interface for being told when an object changes a flag that other structures depend on.
+     */
+    public interface FlagListener {
+        /**
+         * Called after the flags of a stored object have changed.
+         *
+         * @param gameObject The object that changed.
+         * @param oldFlags The flags the object had before the change.
+         */
+        void flagsChanged(GameObject gameObject, int oldFlags);
+    }
+
+    /**
+     * Top left corner of each entity.
+     */
+    int[] x, y;
+    /**
+     * Size of each entity.
+     */
+    int[] width, height;
+    /**
+     * Combination of the FLAG_ bits for each entity.
+     */
+    int[] flags;
+    /**
+     * The object stored at each entity index, or null for unused indices.
+     */
+    GameObject[] objects;
+    /**
+     * One more than the highest entity index in use.
+     */
+    private int size;
+    /**
+     * Indices that were used by removed entities and can be reused.
+     */
+    private int[] freeIndices;
+    /**
+     * Number of values in freeIndices.
+     */
+    private int freeCount;
+    /**
+     * Told when an object changes a flag with changeFlag(), or null.
+     */
+    private final FlagListener flagListener;
+
+    /**
+     * Creates an empty store.
+     */
+    public EntityStore() {
+        this(null);
+    }
+
+    /**
+     * Creates an empty store that tells a listener when objects change their flags.
+     *
+     * @param flagListener Told when an object changes a flag with changeFlag(), or null.
+     */
+    public EntityStore(FlagListener flagListener) {
+        this.flagListener = flagListener;
+        x = new int[INITIAL_CAPACITY];
+        y = new int[INITIAL_CAPACITY];
+        width = new int[INITIAL_CAPACITY];
+        height = new int[INITIAL_CAPACITY];
+        flags = new int[INITIAL_CAPACITY];
+        objects = new GameObject[INITIAL_CAPACITY];
+        freeIndices = new int[INITIAL_CAPACITY];
+        size = 0;
+        freeCount = 0;
+    }
+
+    /**
+     * Adds the object to the store and gives it an entity index. Its bounds and flags
+     * are moved into the store.
+     *
+     * @param gameObject Object to add.
+     */
+    public void add(GameObject gameObject) {
+        int index;
+        if(freeCount > 0) {
+            index = freeIndices[--freeCount];
+        } else {
+            if(size == objects.length) {
+                grow();
+            }
+            index = size++;
+        }
+        objects[index] = gameObject;
+        gameObject.attach(this, index);
+    }
+
+    /**
+     * Removes the object from the store so its entity index can be reused.
+     * Its bounds and flags are copied back into the object.
+     *
+     * @param gameObject Object to remove.
+     */
+    public void remove(GameObject gameObject) {
+        int index = gameObject.getEntityIndex();
+        if(index < 0 || objects[index] != gameObject) return;
+        objects[index] = null;
+        gameObject.detach();
+        if(freeCount == freeIndices.length) {
+            freeIndices = Arrays.copyOf(freeIndices, freeCount * 2);
+        }
+        freeIndices[freeCount++] = index;
+    }
+
+    /**
+     * Tests if an entity has a flag set.
+     *
+     * @param index Entity index to test.
+     * @param flag One of the FLAG_ bits.
+     * @return True if the flag is set.
+     */
+    public boolean hasFlag(int index, int flag) {
+        return (flags[index] & flag) != 0;
+    }
+
+    /**
+     * Sets or clears a flag of an entity.
+     *
+     * @param index Entity index to change.
+     * @param flag One of the FLAG_ bits.
+     * @param value True to set the flag, false to clear it.
+     */
+    public void setFlag(int index, int flag, boolean value) {
+        if(value) {
+            flags[index] |= flag;
+        } else {
+            flags[index] &= ~flag;
+        }
+    }
+
+    /**
+     * Sets or clears a flag of an entity and tells the listener if the flags changed.
+     * Used by objects changing their own properties after they have been added.
+     *
+     * @param index Entity index to change.
+     * @param flag One of the FLAG_ bits.
+     * @param value True to set the flag, false to clear it.
+     */
+    public void changeFlag(int index, int flag, boolean value) {
+        int oldFlags = flags[index];
+        setFlag(index, flag, value);
+        if(flags[index] != oldFlags && flagListener != null) {
+            flagListener.flagsChanged(objects[index], oldFlags);
+        }
+    }
+
+    /**
+     * Tests if a stored entity intersects the rectangle using the same rules as Rectangle.isIntersecting().
+     *
+     * @param index Entity index to test.
+     * @param rectX X coordinate of the rectangle.
+     * @param rectY Y coordinate of the rectangle.
+     * @param rectWidth Width of the rectangle.
+     * @param rectHeight Height of the rectangle.
+     * @return True if they intersect.
+     */
+    public boolean isIntersecting(int index, int rectX, int rectY, int rectWidth, int rectHeight) {
+        return rectY + rectHeight >= y[index] && rectY <= y[index] + height[index]
+                && rectX + rectWidth >= x[index] && rectX <= x[index] + width[index];
+    }
+
+    /**
+     * Gets one more than the highest entity index in use, for looping over every entity.
+     * Unused indices within this range have a null object.
+     *
+     * @return The number of indices to loop over.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the object stored at an entity index.
+     *
+     * @param index The entity index.
+     * @return The object, or null if the index is not in use.
+     */
+    public GameObject getObject(int index) {
+        return objects[index];
+    }
+
+    /**
+     * Removes every entity.
+     */
+    public void clear() {
+        for(int i = 0; i < size; i++) {
+            if(objects[i] != null) {
+                objects[i].detach();
+                objects[i] = null;
+            }
+        }
+        size = 0;
+        freeCount = 0;
+    }
+
+    /**
+     * Doubles the capacity of every array.
+     */
+    private void grow() {
+        int capacity = objects.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        objects = Arrays.copyOf(objects, capacity);
+    }
+}
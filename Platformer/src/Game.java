@@ -2,6 +2,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
  * Platformer
@@ -15,10 +17,39 @@ public class Game implements KeyListener {
     /**
      * Entry point for the application to create an instance of the Game class.
      *
-     * @param args Not used.
+     * @param args Pass -fixedstep to use the fixed step game loop instead of the Swing Timer,
+     *             -simthread to simulate on a separate thread from the EDT,
+     *             -active to draw from a render thread with a BufferStrategy instead of Swing repaints,
+     *             -vsync to pace active rendering at the display refresh rate,
+     *             -watch to apply changes saved to the map file while playing,
+     *             and -record followed by a file name to record the input for InputReplayer.
      */
     public static void main(String[] args) {
-        Game game = new Game();
+        boolean useFixedStepLoop = false;
+        boolean useSimulationThread = false;
+        boolean useActiveRendering = false;
+        boolean paceToRefreshRate = false;
+        boolean watchMap = false;
+        String recordFileName = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-fixedstep")) {
+                useFixedStepLoop = true;
+            } else if(args[i].equals("-simthread")) {
+                useSimulationThread = true;
+            } else if(args[i].equals("-active")) {
+                useActiveRendering = true;
+            } else if(args[i].equals("-vsync")) {
+                paceToRefreshRate = true;
+            } else if(args[i].equals("-watch")) {
+                watchMap = true;
+            } else if(args[i].equals("-record") && i + 1 < args.length) {
+                recordFileName = args[++i];
+            }
+        }
+        Game game = new Game(useFixedStepLoop, useSimulationThread, useActiveRendering, paceToRefreshRate, recordFileName);
+        if(watchMap) {
+            game.gamePanel.watchMap();
+        }
     }
 
     /**
@@ -28,20 +59,83 @@ public class Game implements KeyListener {
 
     /**
      * Creates the JFrame with a GamePanel inside it, attaches a key listener,
-     * and makes everything visible.
+     * and makes everything visible. Updates are driven by a Swing Timer.
      */
     public Game() {
+        this(false);
+    }
+
+    /**
+     * Creates the JFrame with a GamePanel inside it, attaches a key listener,
+     * and makes everything visible.
+     *
+     * @param useFixedStepLoop When true the GamePanel uses the fixed step game loop.
+     */
+    public Game(boolean useFixedStepLoop) {
+        this(useFixedStepLoop, null);
+    }
+
+    /**
+     * Creates the JFrame with a GamePanel inside it, attaches a key listener,
+     * and makes everything visible.
+     *
+     * @param useFixedStepLoop When true the GamePanel uses the fixed step game loop.
+     * @param recordFileName File to record the input to, or null to not record.
+     */
+    public Game(boolean useFixedStepLoop, String recordFileName) {
+        this(useFixedStepLoop, false, recordFileName);
+    }
+
+    /**
+     * Creates the JFrame with a GamePanel inside it, attaches a key listener,
+     * and makes everything visible.
+     *
+     * @param useFixedStepLoop When true the GamePanel uses the fixed step game loop.
+     * @param useSimulationThread When true the GamePanel simulates on a separate thread from the EDT.
+     * @param recordFileName File to record the input to, or null to not record.
+     */
+    public Game(boolean useFixedStepLoop, boolean useSimulationThread, String recordFileName) {
+        this(useFixedStepLoop, useSimulationThread, false, false, recordFileName);
+    }
+
+    /**
+     * Creates the JFrame with a GamePanel inside it, attaches a key listener,
+     * and makes everything visible.
+     *
+     * @param useFixedStepLoop When true the GamePanel uses the fixed step game loop.
+     * @param useSimulationThread When true the GamePanel simulates on a separate thread from the EDT.
+     * @param useActiveRendering When true the GamePanel draws from a render thread with a BufferStrategy.
+     * @param paceToRefreshRate When true active rendering draws a frame for every display refresh.
+     * @param recordFileName File to record the input to, or null to not record.
+     */
+    public Game(boolean useFixedStepLoop, boolean useSimulationThread, boolean useActiveRendering,
+                boolean paceToRefreshRate, String recordFileName) {
         JFrame frame = new JFrame("Platformer");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setResizable(false);
 
-        gamePanel = new GamePanel();
+        gamePanel = new GamePanel(useFixedStepLoop, useSimulationThread, useActiveRendering,
+                paceToRefreshRate, recordFileName);
         frame.getContentPane().add(gamePanel);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                gamePanel.stopRecording();
+            }
+        });
 
 
         frame.addKeyListener(this);
+        // The canvas used for active rendering takes the focus from the frame
+        Canvas renderCanvas = gamePanel.getRenderCanvas();
+        if(renderCanvas != null) {
+            renderCanvas.addKeyListener(this);
+        }
         frame.pack();
         frame.setVisible(true);
+        if(renderCanvas != null) {
+            renderCanvas.requestFocus();
+        }
     }
 
     /**
@@ -51,7 +145,7 @@ public class Game implements KeyListener {
      */
     @Override
     public void keyPressed(KeyEvent e) {
-        gamePanel.handleInput(e.getKeyCode(), true);
+        gamePanel.handleInput(e.getKeyCode(), true, e.getWhen());
     }
 
     /**
@@ -61,7 +155,7 @@ public class Game implements KeyListener {
      */
     @Override
     public void keyReleased(KeyEvent e) {
-        gamePanel.handleInput(e.getKeyCode(), false);
+        gamePanel.handleInput(e.getKeyCode(), false, e.getWhen());
     }
 
     /**
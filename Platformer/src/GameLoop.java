@@ -0,0 +1,189 @@
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * GameLoop class:
+ * Runs the simulation with a fixed time step separately from rendering.
+ * A dedicated thread paces frames at the display refresh rate. Each frame
+ * the real time that has passed is added to an accumulator and as many fixed
+ * steps as fit are simulated on the EDT, so late dispatches are caught up
+ * rather than slowing the game down. The remaining fraction of a step is
+ * passed to rendering so it can interpolate between the previous and current state.
+ */
+public class GameLoop implements Runnable {
+    /**
+     * Refresh rate to use when the display doesn't report one.
+     */
+    private static final int DEFAULT_REFRESH_RATE = 60;
+    /**
+     * Maximum number of steps simulated in one frame. Any more time than this is
+     * dropped so a long stall doesn't leave the game permanently behind.
+     */
+    private static final int MAX_STEPS_PER_FRAME = 10;
+
+    /**
+     * Something that can be simulated and rendered by the GameLoop.
+     */
+    public interface Simulation {
+        /**
+         * Advances the simulation by a single fixed step.
+         *
+         * @param deltaTime The fixed step in ms.
+         */
+        void tick(int deltaTime);
+
+        /**
+         * Draws the current state.
+         *
+         * @param alpha Fraction of a step between the previous state (0) and current state (1).
+         */
+        void render(double alpha);
+    }
+
+    /**
+     * The simulation to step and render.
+     */
+    private final Simulation simulation;
+    /**
+     * Length of a single simulation step in ms.
+     */
+    private final int stepMillis;
+    /**
+     * Length of a single simulation step in ns.
+     */
+    private final long stepNanos;
+    /**
+     * Time between rendered frames in ns.
+     */
+    private final long frameNanos;
+    /**
+     * Real time that has passed but has not been simulated yet in ns.
+     */
+    private long accumulator;
+    /**
+     * Time the previous frame started in ns.
+     */
+    private long lastFrameTime;
+    /**
+     * The thread pacing frames.
+     */
+    private Thread thread;
+    /**
+     * When false the thread will stop after the current frame.
+     */
+    private volatile boolean running;
+    /**
+     * Runs a single frame on the EDT.
+     */
+    private final Runnable frameTask;
+
+    /**
+     * Creates a loop that renders at the refresh rate of the default screen.
+     *
+     * @param simulation The simulation to step and render.
+     * @param stepMillis Length of a single simulation step in ms.
+     */
+    public GameLoop(Simulation simulation, int stepMillis) {
+        this(simulation, stepMillis, getDisplayRefreshRate());
+    }
+
+    /**
+     * Creates a loop with the specified step and frame rate.
+     *
+     * @param simulation The simulation to step and render.
+     * @param stepMillis Length of a single simulation step in ms.
+     * @param framesPerSecond Number of frames to render each second.
+     */
+    public GameLoop(Simulation simulation, int stepMillis, int framesPerSecond) {
+        this.simulation = simulation;
+        this.stepMillis = stepMillis;
+        stepNanos = stepMillis * 1_000_000L;
+        frameNanos = 1_000_000_000L / framesPerSecond;
+        frameTask = this::runFrame;
+    }
+
+    /**
+     * Starts the thread that paces the frames.
+     */
+    public void start() {
+        if(running) return;
+        running = true;
+        accumulator = 0;
+        lastFrameTime = System.nanoTime();
+        thread = new Thread(this, "GameLoop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop after the current frame.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Runs one frame on the EDT at a time and then sleeps until the next frame is due.
+     */
+    @Override
+    public void run() {
+        long nextFrameTime = System.nanoTime();
+        while(running) {
+            try {
+                SwingUtilities.invokeAndWait(frameTask);
+            } catch (InterruptedException e) {
+                return;
+            } catch (InvocationTargetException e) {
+                e.getCause().printStackTrace();
+            }
+            nextFrameTime += frameNanos;
+            long sleepNanos = nextFrameTime - System.nanoTime();
+            if(sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int)(sleepNanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                // Fell behind so start pacing again from now
+                nextFrameTime = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Simulates all the whole steps that have built up since the last frame and then renders.
+     */
+    private void runFrame() {
+        long now = System.nanoTime();
+        accumulator += now - lastFrameTime;
+        lastFrameTime = now;
+
+        int steps = 0;
+        while(accumulator >= stepNanos && steps < MAX_STEPS_PER_FRAME) {
+            simulation.tick(stepMillis);
+            accumulator -= stepNanos;
+            steps++;
+        }
+        if(accumulator >= stepNanos) {
+            accumulator = 0;
+        }
+        simulation.render((double)accumulator / stepNanos);
+    }
+
+    /**
+     * Gets the refresh rate of the default screen.
+     *
+     * @return The refresh rate in Hz, or a default if it is not known.
+     */
+    public static int getDisplayRefreshRate() {
+        if(GraphicsEnvironment.isHeadless()) return DEFAULT_REFRESH_RATE;
+        int refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        return refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : refreshRate;
+    }
+}
@@ -1,4 +1,7 @@
 import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Platformer
@@ -6,16 +9,59 @@ import java.awt.*;
  *
  * GameObject class:
  * Defines a simple game object template that can be used for other objects.
+ * Once added to an ObjectManager the object's bounds and flags are held in its
+ * EntityStore, and the accessors read and write them there by entity index.
  */
 public abstract class GameObject extends Rectangle {
+    /**
+     * Cache of whether each class overrides update(), integrate() or resolve().
+     */
+    private static final Map<Class<?>, Boolean> OVERRIDES_UPDATE = new ConcurrentHashMap<>();
+
     /**
      * Defines how the object behaves for the player falling onto it.
+     * Only used while the object is not in a store.
      */
-    protected boolean isGround;
+    private boolean isGround;
     /**
      * Defines whether the player should fall/move through the object.
+     * Only used while the object is not in a store.
+     */
+    private boolean canEnter;
+    /**
+     * Defines whether the object never moves or changes appearance so it can be drawn once and cached.
+     * Only used while the object is not in a store.
+     */
+    private boolean isStaticGeometry;
+    /**
+     * Defines whether the ObjectManager needs to call update() every tick. Defaults to true
+     * only for classes that override update(), integrate() or resolve(), and can be changed
+     * in a subclass constructor.
+     */
+    protected boolean needsUpdate;
+    /**
+     * When true the ObjectManager does not call update() until the object is woken.
+     * Only used while the object is not in a store.
+     */
+    private boolean sleeping;
+    /**
+     * True while the object is in the ObjectManager's list of objects to update.
+     */
+    private boolean inActiveList;
+    /**
+     * Identifier assigned by the ObjectManager in the order objects are added.
+     * -1 until the object has been added.
+     */
+    private int id;
+    /**
+     * The store holding the object's bounds and flags, or null while it is not in a store.
+     */
+    private EntityStore store;
+    /**
+     * Index of the object's bounds in the ObjectManager's EntityStore.
+     * -1 while the object is not in a store. Indices are reused after removal.
      */
-    protected  boolean canEnter;
+    private int entityIndex;
 
     /**
      * Defines the object with provided properties and defaults to
@@ -29,6 +75,11 @@ public abstract class GameObject extends Rectangle {
         super(position, width, height);
         isGround = false;
         canEnter = false;
+        isStaticGeometry = false;
+        needsUpdate = overridesUpdate(getClass());
+        sleeping = false;
+        id = -1;
+        entityIndex = -1;
     }
 
     /**
@@ -40,6 +91,18 @@ public abstract class GameObject extends Rectangle {
 
     }
 
+    /**
+     * Adds the shapes this object draws to the render batches so static geometry can be drawn
+     * a material at a time. Must draw exactly what paint() does, using colour constants.
+     * Objects that don't override this are drawn with paint() between the batches.
+     *
+     * @param batches The batches to add the shapes drawn to.
+     * @return True if the object is drawn entirely by the batches, false to draw it with paint().
+     */
+    public boolean addToBatches(RenderBatches batches) {
+        return false;
+    }
+
     /**
      * Empty update method to be overloaded by classes extending from this class.
      *
@@ -49,13 +112,108 @@ public abstract class GameObject extends Rectangle {
 
     }
 
+    /**
+     * Gets the width of the object.
+     *
+     * @return Width of the object.
+     */
+    @Override
+    public int getWidth() {
+        return store != null ? store.width[entityIndex] : super.getWidth();
+    }
+
+    /**
+     * Gets the height of the object.
+     *
+     * @return Height of the object.
+     */
+    @Override
+    public int getHeight() {
+        return store != null ? store.height[entityIndex] : super.getHeight();
+    }
+
+    /**
+     * Changes the width and height of the object. Objects added to an ObjectManager
+     * must be resized with ObjectManager.moveObject() so it can update its indices.
+     *
+     * @param width Width of the object.
+     * @param height Height of the object.
+     */
+    @Override
+    public void setSize(int width, int height) {
+        if(store != null) {
+            store.width[entityIndex] = width;
+            store.height[entityIndex] = height;
+        } else {
+            super.setSize(width, height);
+        }
+    }
+
+    /**
+     * First phase of a tick. Calculates the move the object would like to make and stores
+     * it in the object's own fields. The ObjectManager may integrate many objects at the
+     * same time on different threads, so this must not change the position or size of any
+     * object, must not change other objects, and may only query the world with
+     * ObjectManager.getObjectsCollidedWith(Rectangle, List) using its own list.
+     *
+     * @param deltaTime Time since last update.
+     */
+    public void integrate(int deltaTime) {
+
+    }
+
+    /**
+     * Second phase of a tick. Applies the move calculated in integrate(), handling collisions
+     * and triggers. Objects are resolved one at a time in the order they were added.
+     * By default this calls update() so objects with a single update method still work.
+     *
+     * @param deltaTime Time since last update.
+     */
+    public void resolve(int deltaTime) {
+        update(deltaTime);
+    }
+
+    /**
+     * Writes the parts of the object that can change while the game runs so they can be
+     * restored by readState(). Static geometry is never saved. By default the position is written.
+     *
+     * @param buffer Buffer to write the state to.
+     */
+    public void writeState(ByteBuffer buffer) {
+        buffer.putInt(position.getX());
+        buffer.putInt(position.getY());
+    }
+
+    /**
+     * Restores the state written by writeState().
+     *
+     * @param buffer Buffer to read the state from.
+     */
+    public void readState(ByteBuffer buffer) {
+        position.setPosition(buffer.getInt(), buffer.getInt());
+    }
+
     /**
      * Gets whether the object is considered a surface to walk on.
      *
      * @return True if the object should act as ground.
      */
     public boolean isGround() {
-        return isGround;
+        return store != null ? store.hasFlag(entityIndex, EntityStore.FLAG_GROUND) : isGround;
+    }
+
+    /**
+     * Sets whether the object is considered a surface to walk on. If the object has been
+     * added the ObjectManager is told so it can update the occupancy grid.
+     *
+     * @param isGround True if the object should act as ground.
+     */
+    protected void setGround(boolean isGround) {
+        if(store != null) {
+            store.changeFlag(entityIndex, EntityStore.FLAG_GROUND, isGround);
+        } else {
+            this.isGround = isGround;
+        }
     }
 
     /**
@@ -64,6 +222,173 @@ public abstract class GameObject extends Rectangle {
      * @return True if the object can be walked through.
      */
     public boolean canEnter() {
-        return canEnter;
+        return store != null ? !store.hasFlag(entityIndex, EntityStore.FLAG_SOLID) : canEnter;
+    }
+
+    /**
+     * Sets whether the object can be walked through. If the object has been added the
+     * ObjectManager is told so it can update the occupancy grid.
+     *
+     * @param canEnter True if the object can be walked through.
+     */
+    protected void setCanEnter(boolean canEnter) {
+        if(store != null) {
+            store.changeFlag(entityIndex, EntityStore.FLAG_SOLID, !canEnter);
+        } else {
+            this.canEnter = canEnter;
+        }
+    }
+
+    /**
+     * Gets whether the object never moves or changes appearance.
+     *
+     * @return True if the object can be drawn once into a cached static layer.
+     */
+    public boolean isStaticGeometry() {
+        return store != null ? store.hasFlag(entityIndex, EntityStore.FLAG_STATIC) : isStaticGeometry;
+    }
+
+    /**
+     * Sets whether the object never moves or changes appearance. If the object has been added
+     * the ObjectManager is told so it can move the object into or out of the static layer.
+     *
+     * @param isStaticGeometry True if the object can be drawn once into a cached static layer.
+     */
+    protected void setStaticGeometry(boolean isStaticGeometry) {
+        if(store != null) {
+            store.changeFlag(entityIndex, EntityStore.FLAG_STATIC, isStaticGeometry);
+        } else {
+            this.isStaticGeometry = isStaticGeometry;
+        }
+    }
+
+    /**
+     * Gets whether the object needs update() to be called every tick.
+     *
+     * @return True if the object changes over time.
+     */
+    public boolean needsUpdate() {
+        return needsUpdate;
+    }
+
+    /**
+     * Gets whether the object has been put to sleep so that it is not updated.
+     *
+     * @return True if update() is not being called.
+     */
+    public boolean isSleeping() {
+        return store != null ? store.hasFlag(entityIndex, EntityStore.FLAG_SLEEPING) : sleeping;
+    }
+
+    /**
+     * Sets whether the object is sleeping. Called by the ObjectManager.
+     *
+     * @param sleeping True to stop calling update().
+     */
+    void setSleeping(boolean sleeping) {
+        if(store != null) {
+            store.setFlag(entityIndex, EntityStore.FLAG_SLEEPING, sleeping);
+        } else {
+            this.sleeping = sleeping;
+        }
+    }
+
+    /**
+     * Gets whether the object is in the ObjectManager's list of objects to update.
+     *
+     * @return True if the object is in the list.
+     */
+    boolean isInActiveList() {
+        return inActiveList;
+    }
+
+    /**
+     * Sets whether the object is in the ObjectManager's list of objects to update.
+     *
+     * @param inActiveList True if the object is in the list.
+     */
+    void setInActiveList(boolean inActiveList) {
+        this.inActiveList = inActiveList;
+    }
+
+    /**
+     * Gets the identifier assigned when the object was added to the ObjectManager.
+     * Objects added earlier have lower identifiers.
+     *
+     * @return The identifier, or -1 if the object has not been added.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the identifier. Called by the ObjectManager when the object is added.
+     *
+     * @param id The identifier to use.
+     */
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the index of the object's bounds in the EntityStore.
+     *
+     * @return The entity index, or -1 if the object is not in a store.
+     */
+    public int getEntityIndex() {
+        return entityIndex;
+    }
+
+    /**
+     * Moves the object's bounds and flags into the store so the object becomes a view of them.
+     * Called by the EntityStore when the object is added.
+     *
+     * @param store The store to hold the bounds and flags.
+     * @param entityIndex Index of the entity in the store.
+     */
+    void attach(EntityStore store, int entityIndex) {
+        store.width[entityIndex] = super.getWidth();
+        store.height[entityIndex] = super.getHeight();
+        store.flags[entityIndex] = (isStaticGeometry ? EntityStore.FLAG_STATIC : 0)
+                | (canEnter ? 0 : EntityStore.FLAG_SOLID)
+                | (isGround ? EntityStore.FLAG_GROUND : 0)
+                | (sleeping ? EntityStore.FLAG_SLEEPING : 0);
+        position.attach(store, entityIndex);
+        this.store = store;
+        this.entityIndex = entityIndex;
+    }
+
+    /**
+     * Copies the object's bounds and flags back out of the store.
+     * Called by the EntityStore when the object is removed.
+     */
+    void detach() {
+        super.setSize(store.width[entityIndex], store.height[entityIndex]);
+        isStaticGeometry = store.hasFlag(entityIndex, EntityStore.FLAG_STATIC);
+        canEnter = !store.hasFlag(entityIndex, EntityStore.FLAG_SOLID);
+        isGround = store.hasFlag(entityIndex, EntityStore.FLAG_GROUND);
+        sleeping = store.hasFlag(entityIndex, EntityStore.FLAG_SLEEPING);
+        position.detach();
+        store = null;
+        entityIndex = -1;
+    }
+
+    /**
+     * Tests if a class, or any class between it and GameObject, overrides update(), integrate() or resolve().
+     * The result for each class is cached as objects may be created from several threads.
+     *
+     * @param type The class to test.
+     * @return True if any of the update methods are overridden.
+     */
+    private static boolean overridesUpdate(Class<?> type) {
+        return OVERRIDES_UPDATE.computeIfAbsent(type, t -> {
+            try {
+                return t.getMethod("update", int.class).getDeclaringClass() != GameObject.class
+                        || t.getMethod("integrate", int.class).getDeclaringClass() != GameObject.class
+                        || t.getMethod("resolve", int.class).getDeclaringClass() != GameObject.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        });
     }
 }
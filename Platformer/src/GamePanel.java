@@ -3,15 +3,16 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 
 /**
  * Platformer
  * Author: Peter Mitchell (2021)
  *
  * GamePanel class:
- * Manages the game state and passes information to objects.
+ * Displays a GameSession and drives its updates.
  */
-public class GamePanel extends JPanel implements ActionListener {
+public class GamePanel extends JPanel implements ActionListener, GameLoop.Simulation {
     /**
      * Time between updates in ms.
      */
@@ -24,113 +25,472 @@ public class GamePanel extends JPanel implements ActionListener {
      * Width of the panel.
      */
     public static final int PANEL_WIDTH = 800;
+    /**
+     * Height of the strip at the top of the panel containing the lives and score.
+     */
+    private static final int HUD_HEIGHT = 40;
+    /**
+     * Width of the metrics overlay.
+     */
+    private static final int METRICS_WIDTH = 300;
+    /**
+     * Height of the metrics overlay.
+     */
+    private static final int METRICS_HEIGHT = 150;
+    /**
+     * Left edge of the metrics overlay in the top right corner of the panel.
+     */
+    private static final int METRICS_X = PANEL_WIDTH - METRICS_WIDTH - 5;
+    /**
+     * Top edge of the metrics overlay.
+     */
+    private static final int METRICS_Y = 5;
+    /**
+     * Number of recent ticks drawn in the update time graph of the metrics overlay.
+     */
+    private static final int METRICS_GRAPH_TICKS = 128;
+    /**
+     * Number of key events that can wait for the simulation thread at once.
+     */
+    private static final int INPUT_QUEUE_CAPACITY = 256;
+    /**
+     * Number of buffers used for active rendering including the one on screen.
+     */
+    private static final int BUFFER_COUNT = 3;
 
     /**
-     * Timer to keep regular updates occurring.
+     * Timer to keep regular updates occurring when not using the fixed step game loop.
      */
     private Timer gameTimer;
+    /**
+     * Fixed step game loop used instead of the gameTimer when enabled.
+     */
+    private GameLoop gameLoop;
+    /**
+     * Thread simulating the session off the EDT used instead of the gameTimer when enabled.
+     */
+    private SimulationThread simulationThread;
+    /**
+     * Draws frames to the renderCanvas from its own thread instead of painting the panel when enabled.
+     */
+    private ActiveRenderer activeRenderer;
+    /**
+     * Canvas covering the panel that the activeRenderer draws to, or null when painting the panel.
+     */
+    private Canvas renderCanvas;
+    /**
+     * Carries key events from the EDT to the simulationThread when it is used.
+     */
+    private InputQueue inputQueue;
+    /**
+     * Timestamp of the last key event queued for the simulationThread.
+     */
+    private long lastInputTime;
+    /**
+     * Fraction of a step between the previous and current state to draw objects at.
+     */
+    private double renderAlpha;
+    /**
+     * The game state including lives and the current GameObjects.
+     */
+    private GameSession session;
     /**
      * The object manager containing the current GameObjects.
      */
     private ObjectManager objectManager;
     /**
-     * The map loader that can be used to load a map into the ObjectManager.
+     * Values shown by the most recently requested repaint, used to detect when the HUD changes.
+     */
+    private int shownLives, shownScore;
+    /**
+     * Whether the game over message was shown by the most recently requested repaint.
+     */
+    private boolean shownGameOver;
+    /**
+     * Follows the player to show the part of the world around it.
+     */
+    private Camera camera;
+    /**
+     * Camera position used by the most recently requested repaint.
      */
-    private MapLoader mapLoader;
+    private int shownCameraX, shownCameraY;
     /**
-     * Number of lives remaining. Game over at 0 lives.
+     * Records the input of the session when enabled, otherwise null.
      */
-    private int lives;
+    private InputRecorder inputRecorder;
     /**
-     * When true the game ends.
+     * When true the metrics overlay is drawn. Toggled with F3.
      */
-    private boolean gameOver;
+    private boolean showMetrics;
     /**
-     * A message indicating whether the game over was a win or a loss.
+     * Whether the metrics overlay was shown by the most recently requested repaint.
      */
-    private String gameOverMessage;
+    private boolean shownMetrics;
 
     /**
      * Initialises the game with 3 lives and loads the mpa ready to play.
+     * Updates are driven by a Swing Timer.
      */
     public GamePanel() {
+        this(false);
+    }
+
+    /**
+     * Initialises the game with 3 lives and loads the mpa ready to play.
+     *
+     * @param useFixedStepLoop When true a GameLoop runs fixed steps with interpolated rendering,
+     *                         otherwise updates are driven by a Swing Timer.
+     */
+    public GamePanel(boolean useFixedStepLoop) {
+        this(useFixedStepLoop, null);
+    }
+
+    /**
+     * Initialises the game with 3 lives and loads the mpa ready to play.
+     *
+     * @param useFixedStepLoop When true a GameLoop runs fixed steps with interpolated rendering,
+     *                         otherwise updates are driven by a Swing Timer.
+     * @param recordFileName File to record the input to for replaying with InputReplayer, or null to not record.
+     */
+    public GamePanel(boolean useFixedStepLoop, String recordFileName) {
+        this(useFixedStepLoop, false, recordFileName);
+    }
+
+    /**
+     * Initialises the game with 3 lives and loads the mpa ready to play.
+     *
+     * @param useFixedStepLoop When true a GameLoop runs fixed steps with interpolated rendering.
+     * @param useSimulationThread When true (and not using the GameLoop) a SimulationThread runs
+     *                            the session off the EDT. Otherwise updates are driven by a Swing Timer.
+     * @param recordFileName File to record the input to for replaying with InputReplayer, or null to not record.
+     */
+    public GamePanel(boolean useFixedStepLoop, boolean useSimulationThread, String recordFileName) {
+        this(useFixedStepLoop, useSimulationThread, false, false, recordFileName);
+    }
+
+    /**
+     * Initialises the game with 3 lives and loads the mpa ready to play.
+     *
+     * @param useFixedStepLoop When true a GameLoop runs fixed steps with interpolated rendering.
+     * @param useSimulationThread When true (and not using the GameLoop) a SimulationThread runs
+     *                            the session off the EDT. Otherwise updates are driven by a Swing Timer.
+     * @param useActiveRendering When true (and not using the GameLoop) an ActiveRenderer draws to a Canvas
+     *                           from its own thread, with the session run by a SimulationThread.
+     * @param paceToRefreshRate When true active rendering draws a frame for every display refresh,
+     *                          otherwise a frame for every update.
+     * @param recordFileName File to record the input to for replaying with InputReplayer, or null to not record.
+     */
+    public GamePanel(boolean useFixedStepLoop, boolean useSimulationThread, boolean useActiveRendering,
+                     boolean paceToRefreshRate, String recordFileName) {
         setPreferredSize(new Dimension(PANEL_WIDTH, PANEL_HEIGHT));
         setBackground(new Color(72, 132, 125));
 
-        objectManager = new ObjectManager();
-        mapLoader = new MapLoader(objectManager);
-        restart();
-        lives = 3;
+        session = new GameSession("Map.txt");
+        objectManager = session.getObjectManager();
+        renderAlpha = 1;
+        camera = new Camera(PANEL_WIDTH, PANEL_HEIGHT);
+        if(recordFileName != null) {
+            try {
+                inputRecorder = new InputRecorder(recordFileName, session);
+            } catch (IOException e) {
+                System.out.println("Failed to start recording to " + recordFileName + ": " + e.getMessage());
+            }
+        }
 
-        gameTimer = new Timer(TIME_INTERVAL, this);
-        gameTimer.start();
+        if(useFixedStepLoop) {
+            // Painting is done directly by the loop so ignore any repaint requests from the OS
+            setIgnoreRepaint(true);
+            gameLoop = new GameLoop(this, TIME_INTERVAL);
+            gameLoop.start();
+        } else if(useActiveRendering) {
+            // The render thread draws everything to the canvas, which covers the whole panel
+            setIgnoreRepaint(true);
+            setLayout(new BorderLayout());
+            renderCanvas = new Canvas();
+            renderCanvas.setPreferredSize(new Dimension(PANEL_WIDTH, PANEL_HEIGHT));
+            renderCanvas.setBackground(getBackground());
+            add(renderCanvas);
+            inputQueue = new InputQueue(INPUT_QUEUE_CAPACITY);
+            lastInputTime = System.nanoTime();
+            simulationThread = new SimulationThread(session, inputQueue, TIME_INTERVAL, () -> {});
+            simulationThread.start();
+            int framesPerSecond = paceToRefreshRate ? GameLoop.getDisplayRefreshRate() : 1000 / TIME_INTERVAL;
+            activeRenderer = new ActiveRenderer(renderCanvas, BUFFER_COUNT, this::drawFrame, framesPerSecond);
+            activeRenderer.start();
+        } else if(useSimulationThread) {
+            inputQueue = new InputQueue(INPUT_QUEUE_CAPACITY);
+            lastInputTime = System.nanoTime();
+            simulationThread = new SimulationThread(session, inputQueue, TIME_INTERVAL, () -> repaintDirty(false));
+            simulationThread.start();
+        } else {
+            gameTimer = new Timer(TIME_INTERVAL, this);
+            gameTimer.start();
+        }
     }
 
     /**
-     * Draws all the game objects on along with score and game over message if required.
+     * Draws all the game objects visible to the camera along with score and game over message if required.
      *
      * @param g Reference to the Graphics object for rendering.
      */
     public void paint(Graphics g) {
         super.paint(g);
-        objectManager.paint(g);
+        if(renderCanvas != null) return;
+        lockSession();
+        try {
+            drawScene(g);
+        } finally {
+            unlockSession();
+        }
+    }
+
+    /**
+     * Called by the activeRenderer to draw a whole frame to the back buffer of the renderCanvas.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    private void drawFrame(Graphics g) {
+        lockSession();
+        try {
+            updateCamera();
+            // Every frame is drawn in full so the changed area isn't needed
+            objectManager.getDirtyRegion().clear();
+            // Clip to the panel so only the objects the camera can see are drawn
+            g.setClip(0, 0, PANEL_WIDTH, PANEL_HEIGHT);
+            g.setColor(getBackground());
+            g.fillRect(0, 0, PANEL_WIDTH, PANEL_HEIGHT);
+            drawScene(g);
+        } finally {
+            unlockSession();
+        }
+    }
+
+    /**
+     * Draws all the game objects visible to the camera along with score and game over message if required.
+     * The session must be locked.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    private void drawScene(Graphics g) {
+        g.translate(-camera.getX(), -camera.getY());
+        objectManager.paint(g, renderAlpha);
+        g.translate(camera.getX(), camera.getY());
         drawLives(g);
         drawScore(g);
-        if(gameOver) {
+        if(showMetrics) {
+            drawMetrics(g);
+        }
+        if(session.isGameOver()) {
             drawGameOver(g);
         }
     }
 
     /**
-     * Called at regular intervals by the gameTimer. Does nothing if the game has ended.
-     * Otherwise updates all the objects then checks the player's state for either a
-     * death or victory and changes the state as required.
+     * Gets the canvas drawn to by active rendering, which needs the key listener as it takes the focus.
+     *
+     * @return The canvas, or null when the panel is painted by Swing.
+     */
+    public Canvas getRenderCanvas() {
+        return renderCanvas;
+    }
+
+    /**
+     * Called at regular intervals by the gameTimer. Updates the game by one step and repaints.
      *
      * @param e Information about the event.
      */
     @Override
     public void actionPerformed(ActionEvent e) {
-        if(gameOver) return;
-
-        objectManager.update(TIME_INTERVAL);
-        if(objectManager.getPlayer().isDead()) {
-            lives--;
-            if(lives > 0) {
-                restart();
-            } else {
-                gameOverMessage = "Game Over! No more lives. R to Restart.";
-                gameOver = true;
-            }
-        } else if(objectManager.getPlayer().hasReachedFlag()) {
-            gameOverMessage = "You won! Flag reached! R to Restart.";
-            gameOver = true;
+        tick(TIME_INTERVAL);
+        repaintDirty(false);
+    }
+
+    /**
+     * Updates the session by one step.
+     *
+     * @param deltaTime Time since last update.
+     */
+    @Override
+    public void tick(int deltaTime) {
+        session.tick(deltaTime);
+    }
+
+    /**
+     * Called by the gameLoop each frame to draw immediately with interpolated object positions.
+     *
+     * @param alpha Fraction of a step between the previous state (0) and current state (1).
+     */
+    @Override
+    public void render(double alpha) {
+        renderAlpha = alpha;
+        // The interpolated player moves every frame even when no tick has happened
+        Player player = objectManager.getPlayer();
+        if(player != null) {
+            player.addMovementBounds(objectManager.getDirtyRegion());
+        }
+        repaintDirty(true);
+    }
+
+    /**
+     * Moves the camera to centre on where the player will be drawn.
+     */
+    private void updateCamera() {
+        Player player = objectManager.getPlayer();
+        if(player == null) return;
+        camera.follow(player.getRenderX(renderAlpha) + player.getWidth()/2,
+                player.getRenderY(renderAlpha) + player.getHeight()/2,
+                objectManager.getWorldWidth(), objectManager.getWorldHeight());
+    }
+
+    /**
+     * Repaints only the area that has changed since the last repaint. This includes the
+     * region reported by the ObjectManager along with the HUD and game over message if
+     * their values have changed. Everything is repainted when the camera moves.
+     *
+     * @param immediately When true the area is painted before returning, otherwise a repaint is scheduled.
+     */
+    private void repaintDirty(boolean immediately) {
+        updateCamera();
+        DirtyRegion dirtyRegion = objectManager.getDirtyRegion();
+        if(camera.getX() != shownCameraX || camera.getY() != shownCameraY) {
+            dirtyRegion.markAll();
+            shownCameraX = camera.getX();
+            shownCameraY = camera.getY();
+        }
+        // The dirty region is in world coordinates so offset the screen areas by the camera
+        int lives = session.getLives();
+        int score = objectManager.getPlayer() != null ? objectManager.getPlayer().getScore() : 0;
+        if(lives != shownLives || score != shownScore) {
+            dirtyRegion.add(camera.getX(), camera.getY(), PANEL_WIDTH, HUD_HEIGHT);
+            shownLives = lives;
+            shownScore = score;
+        }
+        // The metrics change every frame while shown
+        if(showMetrics || shownMetrics) {
+            dirtyRegion.add(camera.getX()+METRICS_X, camera.getY()+METRICS_Y, METRICS_WIDTH, METRICS_HEIGHT);
+            shownMetrics = showMetrics;
+        }
+        if(session.isGameOver() != shownGameOver) {
+            dirtyRegion.add(camera.getX(), camera.getY()+PANEL_HEIGHT/2-20, PANEL_WIDTH, 40);
+            shownGameOver = session.isGameOver();
+        }
+        if(dirtyRegion.isEmpty()) return;
+
+        int x = 0, y = 0, width = getWidth(), height = getHeight();
+        if(!dirtyRegion.isAll()) {
+            x = dirtyRegion.getX() - camera.getX();
+            y = dirtyRegion.getY() - camera.getY();
+            width = dirtyRegion.getWidth();
+            height = dirtyRegion.getHeight();
+        }
+        dirtyRegion.clear();
+        if(immediately) {
+            paintImmediately(x, y, width, height);
+        } else {
+            repaint(x, y, width, height);
         }
-        repaint();
     }
 
     /**
-     * Escape to exit, R to restart, and otherwise handled by the player object.
+     * Escape to exit, F3 to toggle the metrics overlay, and otherwise handled by the session.
      *
      * @param keyCode The key that was interacted with.
      * @param isPressed True indicates it was pressed, false means it was released.
      */
     public void handleInput(int keyCode, boolean isPressed) {
+        handleInput(keyCode, isPressed, System.currentTimeMillis());
+    }
+
+    /**
+     * Escape to exit, F3 to toggle the metrics overlay, and otherwise handled by the session.
+     * When the session is run by the simulationThread the input is queued to be applied on
+     * the tick it happened during.
+     *
+     * @param keyCode The key that was interacted with.
+     * @param isPressed True indicates it was pressed, false means it was released.
+     * @param eventTime When the event happened in ms since the epoch, as from KeyEvent.getWhen().
+     */
+    public void handleInput(int keyCode, boolean isPressed, long eventTime) {
         if(keyCode == KeyEvent.VK_ESCAPE) {
+            stopRecording();
             System.exit(0);
-        } else if(keyCode == KeyEvent.VK_R) {
-            lives = 3;
-            restart();
-        } else if(!gameOver) {
-            objectManager.getPlayer().handleInput(keyCode, isPressed);
+        } else if(keyCode == KeyEvent.VK_F3) {
+            if(isPressed) {
+                showMetrics = !showMetrics;
+                lockSession();
+                try {
+                    objectManager.getMetrics().setEnabled(showMetrics);
+                } finally {
+                    unlockSession();
+                }
+            }
+        } else if(inputQueue != null) {
+            // Convert to the nanoTime clock so events delayed on the EDT still land on the right tick
+            long age = Math.max(0, System.currentTimeMillis() - eventTime);
+            lastInputTime = Math.max(lastInputTime, System.nanoTime() - age * 1_000_000L);
+            if(!inputQueue.offer(keyCode, isPressed, lastInputTime)) {
+                System.out.println("Input queue full, dropped key " + keyCode);
+            }
+        } else {
+            session.handleInput(keyCode, isPressed);
+        }
+    }
+
+    /**
+     * Starts watching the map file so changes saved to it appear without restarting.
+     */
+    public void watchMap() {
+        lockSession();
+        try {
+            session.watchMap();
+        } finally {
+            unlockSession();
+        }
+    }
+
+    /**
+     * Finishes the input recording if one is running so it can be replayed.
+     */
+    public void stopRecording() {
+        if(inputRecorder == null) return;
+        lockSession();
+        try {
+            inputRecorder.close();
+            inputRecorder = null;
+        } finally {
+            unlockSession();
+        }
+    }
+
+    /**
+     * Waits until the simulationThread is not using the session if it is running.
+     * Must be paired with unlockSession().
+     */
+    private void lockSession() {
+        if(simulationThread != null) {
+            simulationThread.getLock().lock();
+        }
+    }
+
+    /**
+     * Lets the simulationThread use the session again after lockSession().
+     */
+    private void unlockSession() {
+        if(simulationThread != null) {
+            simulationThread.getLock().unlock();
         }
     }
 
     /**
-     * Restarts the game by wiping the map and reloading it from the Map.txt.
+     * Restarts the game by wiping the map and reloading it.
      */
     public void restart() {
-        gameOver = false;
-        mapLoader.loadMap("Map.txt");
+        lockSession();
+        try {
+            session.restartFromMapFile();
+        } finally {
+            unlockSession();
+        }
     }
 
     /**
@@ -141,7 +501,7 @@ public class GamePanel extends JPanel implements ActionListener {
     private void drawLives(Graphics g) {
         g.setColor(Color.WHITE);
         g.setFont(new Font("Arial", Font.BOLD, 20));
-        String livesStr = "Lives: " + lives;
+        String livesStr = "Lives: " + session.getLives();
         g.drawString(livesStr, 15, 30);
     }
 
@@ -158,6 +518,61 @@ public class GamePanel extends JPanel implements ActionListener {
         g.drawString(scoreStr, PANEL_WIDTH/2-strWidth/2, 30);
     }
 
+    /**
+     * Draws the metrics overlay in the top right corner with the 50th, 99th percentile and
+     * maximum of each measurement over the recent ticks, and a graph of the recent update times.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    private void drawMetrics(Graphics g) {
+        Metrics metrics = objectManager.getMetrics();
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(METRICS_X, METRICS_Y, METRICS_WIDTH, METRICS_HEIGHT);
+        g.setColor(Color.WHITE);
+        g.setFont(new Font("Monospaced", Font.PLAIN, 11));
+        int x = METRICS_X + 5;
+        int y = METRICS_Y + 13;
+        g.drawString(String.format("%-12s%9s%9s%9s", "", "p50", "p99", "max"), x, y);
+        y = drawMetricRow(g, "update ms", metrics.getUpdateTimes(), 1_000_000.0, x, y + 12);
+        y = drawMetricRow(g, "query ms", metrics.getQueryTimes(), 1_000_000.0, x, y);
+        y = drawMetricRow(g, "queries", metrics.getQueryCounts(), 1, x, y);
+        y = drawMetricRow(g, "candidates", metrics.getCandidateCounts(), 1, x, y);
+        if(Metrics.isAllocationSupported()) {
+            y = drawMetricRow(g, "alloc B", metrics.getAllocatedBytes(), 1, x, y);
+        }
+        y = drawMetricRow(g, "paint ms", metrics.getPaintTimes(), 1_000_000.0, x, y);
+        y = drawMetricRow(g, "painted", metrics.getPaintedCounts(), 1, x, y);
+
+        // Graph of the recent update times scaled to the largest shown
+        MetricHistory updateTimes = metrics.getUpdateTimes();
+        int graphHeight = METRICS_Y + METRICS_HEIGHT - 5 - y;
+        long scale = Math.max(1, updateTimes.getMax());
+        g.setColor(new Color(120, 220, 120));
+        for(int i = 0; i < Math.min(METRICS_GRAPH_TICKS, updateTimes.size()); i++) {
+            int barHeight = (int)(updateTimes.get(i) * graphHeight / scale);
+            int barX = METRICS_X + METRICS_WIDTH - 5 - (i + 1) * 2;
+            g.fillRect(barX, y + graphHeight - barHeight, 2, barHeight);
+        }
+    }
+
+    /**
+     * Draws one row of the metrics overlay.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param label Name of the measurement.
+     * @param history Recent values of the measurement.
+     * @param divisor Amount to divide the values by before showing them.
+     * @param x Left edge of the row.
+     * @param y Baseline of the row.
+     * @return Baseline of the next row.
+     */
+    private int drawMetricRow(Graphics g, String label, MetricHistory history, double divisor, int x, int y) {
+        String format = divisor == 1 ? "%-12s%9.0f%9.0f%9.0f" : "%-12s%9.3f%9.3f%9.3f";
+        g.drawString(String.format(format, label, history.getPercentile(0.5) / divisor,
+                history.getPercentile(0.99) / divisor, history.getMax() / divisor), x, y);
+        return y + 12;
+    }
+
     /**
      * Draws a background with game over message centred in the middle of the panel.
      *
@@ -168,6 +583,7 @@ public class GamePanel extends JPanel implements ActionListener {
         g.fillRect(0,PANEL_HEIGHT/2-20, PANEL_WIDTH, 40);
         g.setColor(Color.BLACK);
         g.setFont(new Font("Arial", Font.BOLD, 20));
+        String gameOverMessage = session.getGameOverMessage();
         int strWidth = g.getFontMetrics().stringWidth(gameOverMessage);
         g.drawString(gameOverMessage, PANEL_WIDTH/2-strWidth/2, PANEL_HEIGHT/2+10);
     }
@@ -0,0 +1,385 @@
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * GameSession class:
+ * Manages the state of a game being played independent of how it is displayed.
+ * Tracks the lives, restarts the map on death and ends the game when the player
+ * runs out of lives or reaches the flag. Used by the GamePanel and can also be
+ * stepped directly without any display by the HeadlessRunner.
+ */
+public class GameSession {
+    /**
+     * Number of lives the player starts with.
+     */
+    public static final int STARTING_LIVES = 3;
+    /**
+     * Message shown when the player runs out of lives.
+     */
+    private static final String LOSE_MESSAGE = "Game Over! No more lives. R to Restart.";
+    /**
+     * Message shown when the player reaches the flag.
+     */
+    private static final String WIN_MESSAGE = "You won! Flag reached! R to Restart.";
+
+    /**
+     * The object manager containing the current GameObjects.
+     */
+    private ObjectManager objectManager;
+    /**
+     * The map loader that can be used to load a map into the ObjectManager.
+     */
+    private MapLoader mapLoader;
+    /**
+     * File the map is loaded from on each restart.
+     */
+    private String mapFileName;
+    /**
+     * Number of lives remaining. Game over at 0 lives.
+     */
+    private int lives;
+    /**
+     * When true the game ends.
+     */
+    private boolean gameOver;
+    /**
+     * A message indicating whether the game over was a win or a loss.
+     */
+    private String gameOverMessage;
+    /**
+     * Number of ticks that have been simulated since the session was created.
+     */
+    private long tickCount;
+    /**
+     * State of the level as it was loaded, used to restart without reloading the map.
+     */
+    private LevelSnapshot levelSnapshot;
+    /**
+     * Streams the map in around the player when the map file is a chunked map, otherwise null.
+     */
+    private StreamingMapLoader streamingMapLoader;
+    /**
+     * Records every input handled, or null when not recording.
+     */
+    private InputRecorder inputRecorder;
+    /**
+     * Snapshots of the recent ticks used to rewind, or null when rewinding is disabled.
+     */
+    private SnapshotHistory snapshotHistory;
+    /**
+     * Watches the map file for changes to apply while playing, or null when not watching.
+     */
+    private MapWatcher mapWatcher;
+
+    /**
+     * Initialises the game with 3 lives and loads the map ready to play.
+     * Chunked maps are streamed in around the player as it moves.
+     *
+     * @param mapFileName File to load the map from.
+     */
+    public GameSession(String mapFileName) {
+        this.mapFileName = mapFileName;
+        objectManager = new ObjectManager();
+        mapLoader = new MapLoader(objectManager);
+        restart();
+        lives = STARTING_LIVES;
+        tickCount = 0;
+    }
+
+    /**
+     * Does nothing if the game has ended. Otherwise updates all the objects then checks
+     * the player's state for either a death or victory and changes the state as required.
+     *
+     * @param deltaTime Time since last update.
+     */
+    public void tick(int deltaTime) {
+        tickCount++;
+        if(mapWatcher != null) {
+            List<GameObject> changedMap = mapWatcher.pollChanges();
+            if(changedMap != null) {
+                applyMapChanges(changedMap);
+            }
+        }
+        if(gameOver) return;
+
+        if(streamingMapLoader != null) {
+            streamingMapLoader.update();
+        }
+        objectManager.update(deltaTime);
+        if(objectManager.getPlayer().isDead()) {
+            lives--;
+            if(lives > 0) {
+                restart();
+            } else {
+                gameOverMessage = LOSE_MESSAGE;
+                gameOver = true;
+            }
+        } else if(objectManager.getPlayer().hasReachedFlag()) {
+            gameOverMessage = WIN_MESSAGE;
+            gameOver = true;
+        }
+        if(snapshotHistory != null) {
+            snapshotHistory.capture();
+        }
+    }
+
+    /**
+     * R to restart with full lives from the map file, and otherwise handled by the player object.
+     *
+     * @param keyCode The key that was interacted with.
+     * @param isPressed True indicates it was pressed, false means it was released.
+     */
+    public void handleInput(int keyCode, boolean isPressed) {
+        if(inputRecorder != null) {
+            inputRecorder.record(tickCount, keyCode, isPressed);
+        }
+        if(keyCode == KeyEvent.VK_R) {
+            lives = STARTING_LIVES;
+            restartFromMapFile();
+        } else if(!gameOver) {
+            objectManager.getPlayer().handleInput(keyCode, isPressed);
+        }
+    }
+
+    /**
+     * Restarts the level after a death by putting it back to the state it was loaded in.
+     * The map is only read from the map file the first time.
+     */
+    public void restart() {
+        gameOver = false;
+        if(streamingMapLoader != null) {
+            streamingMapLoader.restart();
+        } else if(levelSnapshot != null && levelSnapshot.isValid()) {
+            levelSnapshot.restore();
+        } else {
+            reloadMap();
+        }
+    }
+
+    /**
+     * Restarts the game by wiping the map and reloading it from the map file, so any
+     * changes saved to the file since it was loaded are played.
+     */
+    public void restartFromMapFile() {
+        gameOver = false;
+        reloadMap();
+    }
+
+    /**
+     * Wipes the map and reloads it from the map file, then records the state of the loaded level.
+     */
+    public void reloadMap() {
+        if(ChunkedMapFormat.isChunkedMap(mapFileName)) {
+            if(streamingMapLoader == null) {
+                streamingMapLoader = new StreamingMapLoader(objectManager);
+            }
+            streamingMapLoader.open(mapFileName);
+            return;
+        }
+        if(streamingMapLoader != null) {
+            streamingMapLoader.close();
+            streamingMapLoader = null;
+        }
+        mapLoader.loadMap(mapFileName);
+        if(mapLoader.getCountAfterMerge() < mapLoader.getCountBeforeMerge()) {
+            System.out.println("Merged map geometry: " + mapLoader.getCountBeforeMerge() + " objects down to "
+                    + mapLoader.getCountAfterMerge());
+        }
+        levelSnapshot = objectManager.getPlayer() != null ? objectManager.createLevelSnapshot() : null;
+    }
+
+    /**
+     * Starts watching the map file so any changes saved to it are applied at the start of
+     * the next tick without restarting. Only text maps can be watched. Sessions that change
+     * this way can't be replayed from an input recording.
+     *
+     * @return True if the map is now being watched.
+     */
+    public boolean watchMap() {
+        if(mapWatcher != null) return true;
+        if(streamingMapLoader != null || BinaryMapFormat.isBinaryMap(mapFileName)) {
+            System.out.println("Only text maps can be watched for changes: " + mapFileName);
+            return false;
+        }
+        mapWatcher = new MapWatcher(mapFileName, new MapLoader(objectManager));
+        try {
+            mapWatcher.start();
+        } catch (IOException e) {
+            System.out.println("Failed to watch " + mapFileName + ": " + e.getMessage());
+            mapWatcher = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Changes the loaded level to match a new version of the map. Only the objects that were
+     * added, removed or moved are changed and the player carries on from where it is. A
+     * restart afterwards starts the new version of the level.
+     *
+     * @param parsed Every object in the new version of the map, as from MapLoader.mergeGeometry().
+     */
+    public void applyMapChanges(List<GameObject> parsed) {
+        if(objectManager.getPlayer() == null) {
+            reloadMap();
+            return;
+        }
+        long startTime = System.nanoTime();
+        MapDiff diff = new MapDiff(objectManager, parsed);
+        diff.apply(objectManager);
+        Position playerStart = diff.getPlayerStart();
+        if(playerStart == null) {
+            playerStart = levelSnapshot != null
+                    ? new Position(levelSnapshot.getPlayerX(), levelSnapshot.getPlayerY())
+                    : new Position(objectManager.getPlayer().position);
+        }
+        levelSnapshot = objectManager.createLevelSnapshot(playerStart.getX(), playerStart.getY());
+        System.out.printf("Map changed: %d added, %d removed, %d moved in %.2f ms%n",
+                diff.getAddedCount(), diff.getRemovedCount(), diff.getMovedCount(),
+                (System.nanoTime() - startTime) / 1_000_000.0);
+    }
+
+    /**
+     * Gets the object manager containing the current GameObjects.
+     *
+     * @return Reference to the ObjectManager.
+     */
+    public ObjectManager getObjectManager() {
+        return objectManager;
+    }
+
+    /**
+     * Gets the loader streaming the map in around the player.
+     *
+     * @return The streaming loader, or null if the map is not a chunked map.
+     */
+    public StreamingMapLoader getStreamingMapLoader() {
+        return streamingMapLoader;
+    }
+
+    /**
+     * Gets the number of lives remaining.
+     *
+     * @return Lives remaining. The game is over at 0 lives.
+     */
+    public int getLives() {
+        return lives;
+    }
+
+    /**
+     * Gets whether the game has ended by either running out of lives or reaching the flag.
+     *
+     * @return True when the game has ended.
+     */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * Gets the message explaining why the game ended.
+     *
+     * @return A message for a win or loss, or null if the game has not ended.
+     */
+    public String getGameOverMessage() {
+        return gameOverMessage;
+    }
+
+    /**
+     * Gets the file the map is loaded from.
+     *
+     * @return The map file name.
+     */
+    public String getMapFileName() {
+        return mapFileName;
+    }
+
+    /**
+     * Sets the recorder that every input handled from now on is passed to.
+     *
+     * @param inputRecorder The recorder to use, or null to stop recording.
+     */
+    public void setInputRecorder(InputRecorder inputRecorder) {
+        this.inputRecorder = inputRecorder;
+    }
+
+    /**
+     * Writes everything about the session that can change while playing so it can be
+     * restored with readState(). The map itself is not written so the state can only be
+     * restored while the same objects are loaded.
+     *
+     * @param buffer Buffer to write the state to.
+     * @throws java.nio.BufferOverflowException If the buffer is too small.
+     */
+    public void writeState(ByteBuffer buffer) {
+        buffer.putLong(tickCount);
+        buffer.putInt(lives);
+        buffer.put((byte)(!gameOver ? 0 : WIN_MESSAGE.equals(gameOverMessage) ? 2 : 1));
+        objectManager.writeState(buffer);
+    }
+
+    /**
+     * Restores a state written by writeState(). Nothing is changed if objects have been
+     * added to or removed from the map since the state was written.
+     *
+     * @param buffer Buffer to read the state from.
+     * @return True if the state was restored.
+     */
+    public boolean readState(ByteBuffer buffer) {
+        long savedTickCount = buffer.getLong();
+        int savedLives = buffer.getInt();
+        int savedGameOver = buffer.get();
+        if(!objectManager.readState(buffer)) return false;
+        tickCount = savedTickCount;
+        lives = savedLives;
+        gameOver = savedGameOver != 0;
+        gameOverMessage = savedGameOver == 2 ? WIN_MESSAGE : savedGameOver == 1 ? LOSE_MESSAGE : null;
+        return true;
+    }
+
+    /**
+     * Starts keeping a snapshot of every tick so the game can be rewound.
+     *
+     * @param seconds How many seconds of snapshots to keep, or 0 to stop keeping snapshots.
+     */
+    public void setRewindHistory(int seconds) {
+        int ticks = seconds * 1000 / GamePanel.TIME_INTERVAL;
+        snapshotHistory = ticks > 0 ? new SnapshotHistory(this, ticks) : null;
+    }
+
+    /**
+     * Gets the snapshots kept for rewinding.
+     *
+     * @return The snapshot history, or null when rewinding is disabled.
+     */
+    public SnapshotHistory getSnapshotHistory() {
+        return snapshotHistory;
+    }
+
+    /**
+     * Gets a hash of the state of the map, player, lives and tick count. A replay of the
+     * same input from the start of a session ends with the same hash.
+     *
+     * @return A hash of the session's state.
+     */
+    public long getStateHash() {
+        long hash = ObjectManager.mixHash(ObjectManager.HASH_SEED, objectManager.getStateHash());
+        hash = ObjectManager.mixHash(hash, lives);
+        hash = ObjectManager.mixHash(hash, gameOver ? 1 : 0);
+        hash = ObjectManager.mixHash(hash, tickCount);
+        return hash;
+    }
+
+    /**
+     * Gets the number of ticks simulated since the session was created.
+     *
+     * @return The current tick number.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+}
@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * GeometryMerger class:
+ * Merges touching static geometry of the same type into fewer, larger objects when
+ * a map is loaded, so there is less to store, query and paint. Plain Blocks are a
+ * single fill, so each connected group of them is redrawn as maximal rectangles
+ * with the greedy meshing in RectangleMesher. GrassBlocks have a
+ * strip along their top and Spikes have a row of 20 pixel spikes, so those are only
+ * joined end to end along a row with the same y and height. Anything overlapping an
+ * object of another type is left alone, because changing where it is in the paint
+ * order could change what is drawn on top. The result looks exactly the same.
+ */
+public class GeometryMerger {
+    /**
+     * Type codes for the objects that can be merged. Anything else is OTHER.
+     */
+    private static final byte OTHER = 0, BLOCK = 1, GRASS_BLOCK = 2, SPIKES = 3;
+    /**
+     * Width of each spike drawn by Spikes.
+     */
+    private static final int SPIKE_WIDTH = 20;
+    /**
+     * Value in replacedBy for objects that are kept as they are.
+     */
+    private static final int KEPT = -1;
+    /**
+     * Value in replacedBy for objects that are covered by objects merged in place of another.
+     */
+    private static final int DROPPED = -2;
+
+    /**
+     * Every object in the map.
+     */
+    private final List<GameObject> objects;
+    /**
+     * Type code of each object.
+     */
+    private final byte[] types;
+    /**
+     * Bounds of each object, including any outline drawn past the right and bottom edges.
+     */
+    private final int[] minX, minY, maxX, maxY;
+    /**
+     * True for each object that can still be merged.
+     */
+    private final boolean[] mergeable;
+    /**
+     * Union-find parents joining touching Blocks into groups.
+     */
+    private final int[] parent;
+    /**
+     * For each object, KEPT, DROPPED, or the index in merged of the first object replacing it.
+     */
+    private final int[] replacedBy;
+    /**
+     * For each object replaced, the number of objects in merged replacing it.
+     */
+    private final int[] replacedCount;
+    /**
+     * The new objects made by merging.
+     */
+    private final List<GameObject> merged;
+
+    /**
+     * Merges the static geometry in a list of objects.
+     *
+     * @param objects Every object in a map in the order they are added.
+     * @return A new list with the merged objects in place of the first object each was made from
+     *         and everything that wasn't merged kept in its original order.
+     */
+    public static List<GameObject> merge(List<GameObject> objects) {
+        GeometryMerger merger = new GeometryMerger(objects);
+        merger.findNeighbours();
+        merger.mergeBlocks();
+        merger.mergeRows(GRASS_BLOCK);
+        merger.mergeRows(SPIKES);
+
+        List<GameObject> result = new ArrayList<>(objects.size());
+        for(int i = 0; i < objects.size(); i++) {
+            if(merger.replacedBy[i] == KEPT) {
+                result.add(objects.get(i));
+            } else if(merger.replacedBy[i] != DROPPED) {
+                int first = merger.replacedBy[i];
+                result.addAll(merger.merged.subList(first, first + merger.replacedCount[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the types and bounds of the objects ready to merge.
+     *
+     * @param objects Every object in a map in the order they are added.
+     */
+    private GeometryMerger(List<GameObject> objects) {
+        this.objects = objects;
+        int count = objects.size();
+        types = new byte[count];
+        minX = new int[count];
+        minY = new int[count];
+        maxX = new int[count];
+        maxY = new int[count];
+        mergeable = new boolean[count];
+        parent = new int[count];
+        replacedBy = new int[count];
+        replacedCount = new int[count];
+        merged = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            GameObject gameObject = objects.get(i);
+            Class<?> type = gameObject.getClass();
+            types[i] = type == Block.class ? BLOCK : type == GrassBlock.class ? GRASS_BLOCK
+                    : type == Spikes.class ? SPIKES : OTHER;
+            minX[i] = gameObject.position.getX();
+            minY[i] = gameObject.position.getY();
+            maxX[i] = minX[i] + gameObject.getWidth();
+            maxY[i] = minY[i] + gameObject.getHeight();
+            mergeable[i] = types[i] != OTHER && gameObject.getWidth() > 0 && gameObject.getHeight() > 0
+                    && (types[i] != SPIKES || gameObject.getWidth() % SPIKE_WIDTH == 0);
+            if(types[i] != BLOCK && types[i] != GRASS_BLOCK) {
+                // Outlines are drawn one pixel past the right and bottom edges
+                maxX[i]++;
+                maxY[i]++;
+            }
+            parent[i] = i;
+            replacedBy[i] = KEPT;
+        }
+    }
+
+    /**
+     * Sweeps along x to find every pair of objects that touch, joining touching Blocks into
+     * groups and ruling out anything overlapping another type. Objects with the same left
+     * edge are sorted by y, so the parts of each run that are too high or low to touch are
+     * skipped over. This keeps columns of tiles from being tested end to end.
+     */
+    private void findNeighbours() {
+        int count = objects.size();
+        int maxHeight = 0;
+        long[] keys = new long[count];
+        for(int i = 0; i < count; i++) {
+            maxHeight = Math.max(maxHeight, maxY[i] - minY[i]);
+            keys[i] = ((long)minX[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for(int i = 0; i < count; i++) {
+            order[i] = (int)keys[i];
+        }
+        int[] runEnd = new int[count];
+        for(int start = 0; start < count; start = runEnd[start]) {
+            int end = start + 1;
+            while(end < count && minX[order[end]] == minX[order[start]]) {
+                end++;
+            }
+            if(end - start > 1) {
+                for(int i = start; i < end; i++) {
+                    keys[i] = ((long)minY[order[i]] << 32) | order[i];
+                }
+                Arrays.sort(keys, start, end);
+                for(int i = start; i < end; i++) {
+                    order[i] = (int)keys[i];
+                }
+            }
+            Arrays.fill(runEnd, start, end, end);
+        }
+        int[] sortedMinX = new int[count], sortedMinY = new int[count];
+        for(int i = 0; i < count; i++) {
+            sortedMinX[i] = minX[order[i]];
+            sortedMinY[i] = minY[order[i]];
+        }
+
+        for(int i = 0; i < count; i++) {
+            int a = order[i];
+            int j = i + 1;
+            while(j < count && sortedMinX[j] <= maxX[a]) {
+                if(sortedMinY[j] > maxY[a]) {
+                    // The rest of this run is lower down
+                    j = runEnd[j];
+                    continue;
+                }
+                if(sortedMinY[j] < minY[a] - maxHeight) {
+                    // Jump to the first object in this run that could reach down to a
+                    j = firstInRunFrom(sortedMinY, j, runEnd[j], minY[a] - maxHeight);
+                    continue;
+                }
+                int b = order[j++];
+                if(minY[a] > maxY[b]) continue;
+                boolean overlapping = minX[b] < maxX[a] && minY[b] < maxY[a] && minY[a] < maxY[b];
+                if(overlapping && !canOverlap(a, b)) {
+                    mergeable[a] = false;
+                    mergeable[b] = false;
+                } else if(types[a] == BLOCK && types[b] == BLOCK) {
+                    parent[find(a)] = find(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests if two objects can overlap and still be merged with the objects they touch.
+     * Blocks are all the same colour, GrassBlocks in the same row draw the same strip,
+     * and the outlines of Spikes end to end in the same row meet where they join.
+     *
+     * @param a Index of the first object.
+     * @param b Index of the second object.
+     * @return True if they can both still be merged.
+     */
+    private boolean canOverlap(int a, int b) {
+        if(types[a] != types[b] || types[a] == OTHER) return false;
+        if(types[a] == BLOCK) return true;
+        if(minY[a] != minY[b] || maxY[a] != maxY[b]) return false;
+        if(types[a] == GRASS_BLOCK) return true;
+        return maxX[a] - 1 == minX[b] || maxX[b] - 1 == minX[a];
+    }
+
+    /**
+     * Meshes each connected group of mergeable Blocks into as few rectangles as greedy
+     * meshing finds, if that is fewer than the group started with.
+     */
+    private void mergeBlocks() {
+        // Sort the Blocks by group so each group is a run, in the order the Blocks were added
+        int blockCount = 0;
+        long[] keys = new long[objects.size()];
+        for(int i = 0; i < objects.size(); i++) {
+            if(mergeable[i] && types[i] == BLOCK) {
+                keys[blockCount++] = ((long)find(i) << 32) | i;
+            }
+        }
+        Arrays.sort(keys, 0, blockCount);
+        int[] group = new int[blockCount];
+        for(int start = 0; start < blockCount; ) {
+            int groupSize = 0;
+            int end = start;
+            while(end < blockCount && (keys[end] >>> 32) == (keys[start] >>> 32)) {
+                group[groupSize++] = (int)keys[end++];
+            }
+            start = end;
+            if(groupSize > 1) {
+                meshGroup(group, groupSize);
+            }
+        }
+    }
+
+    /**
+     * Meshes one connected group of Blocks with greedy meshing, replacing them if it takes fewer Blocks.
+     *
+     * @param group Indices of the Blocks in the group in the order they were added.
+     * @param groupSize Number of Blocks in the group.
+     */
+    private void meshGroup(int[] group, int groupSize) {
+        int[] bounds = new int[groupSize * 4];
+        for(int i = 0; i < groupSize; i++) {
+            int block = group[i];
+            bounds[i * 4] = minX[block];
+            bounds[i * 4 + 1] = minY[block];
+            bounds[i * 4 + 2] = maxX[block];
+            bounds[i * 4 + 3] = maxY[block];
+        }
+        int[] rectangles = RectangleMesher.mesh(bounds, groupSize, groupSize - 1);
+        if(rectangles == null) return;
+
+        int firstMerged = merged.size();
+        for(int i = 0; i < rectangles.length; i += 4) {
+            merged.add(new Block(new Position(rectangles[i], rectangles[i + 1]), rectangles[i + 2], rectangles[i + 3]));
+        }
+        replaceGroup(group, groupSize, firstMerged);
+    }
+
+    /**
+     * Joins mergeable objects of one type that have the same y and height and touch
+     * end to end. GrassBlocks may also overlap along the row.
+     *
+     * @param type GRASS_BLOCK or SPIKES.
+     */
+    private void mergeRows(byte type) {
+        // Sort by row and then by x, keeping the order they were added for ties
+        List<Integer> row = new ArrayList<>();
+        for(int i = 0; i < objects.size(); i++) {
+            if(mergeable[i] && types[i] == type) {
+                row.add(i);
+            }
+        }
+        row.sort((a, b) -> minY[a] != minY[b] ? Integer.compare(minY[a], minY[b])
+                : maxY[a] != maxY[b] ? Integer.compare(maxY[a], maxY[b])
+                : minX[a] != minX[b] ? Integer.compare(minX[a], minX[b]) : Integer.compare(a, b));
+
+        // Spikes bounds include the outline, so the end of one is one pixel past the start of the next
+        int outline = type == SPIKES ? 1 : 0;
+        int[] run = new int[row.size()];
+        int start = 0;
+        while(start < row.size()) {
+            int first = row.get(start);
+            int right = maxX[first] - outline;
+            int runSize = 0;
+            run[runSize++] = first;
+            int end = start + 1;
+            while(end < row.size()) {
+                int next = row.get(end);
+                if(minY[next] != minY[first] || maxY[next] != maxY[first]
+                        || (type == SPIKES ? minX[next] != right : minX[next] > right)) break;
+                right = Math.max(right, maxX[next] - outline);
+                run[runSize++] = next;
+                end++;
+            }
+            start = end;
+            if(runSize < 2) continue;
+
+            GameObject firstObject = objects.get(first);
+            Position position = new Position(firstObject.position.getX(), firstObject.position.getY());
+            int width = right - firstObject.position.getX();
+            int firstMerged = merged.size();
+            merged.add(type == GRASS_BLOCK ? new GrassBlock(position, width, firstObject.getHeight())
+                    : new Spikes(position, width, firstObject.getHeight()));
+            Arrays.sort(run, 0, runSize);
+            replaceGroup(run, runSize, firstMerged);
+        }
+    }
+
+    /**
+     * Records that a group of objects is replaced by the objects merged since firstMerged,
+     * which take the place of whichever object in the group was added first.
+     *
+     * @param group Indices of the objects being replaced in the order they were added.
+     * @param groupSize Number of objects being replaced.
+     * @param firstMerged Index in merged of the first object replacing them.
+     */
+    private void replaceGroup(int[] group, int groupSize, int firstMerged) {
+        replacedBy[group[0]] = firstMerged;
+        replacedCount[group[0]] = merged.size() - firstMerged;
+        for(int i = 1; i < groupSize; i++) {
+            replacedBy[group[i]] = DROPPED;
+        }
+    }
+
+    /**
+     * Binary searches a run of objects with the same left edge for the first with a top edge
+     * at or below a y coordinate.
+     *
+     * @param sortedMinY Top edges in sweep order, ascending within each run.
+     * @param from First index of the range to search.
+     * @param to Index after the end of the run.
+     * @param y The y coordinate to search for.
+     * @return Index of the first object in the range with a top edge at or below y, or to if there is none.
+     */
+    private static int firstInRunFrom(int[] sortedMinY, int from, int to, int y) {
+        while(from < to) {
+            int middle = (from + to) >>> 1;
+            if(sortedMinY[middle] < y) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Finds the root of the group a Block is in, flattening the path as it goes.
+     *
+     * @param index Index of the Block.
+     * @return Index of the root of its group.
+     */
+    private int find(int index) {
+        while(parent[index] != index) {
+            parent[index] = parent[parent[index]];
+            index = parent[index];
+        }
+        return index;
+    }
+}
@@ -9,6 +9,11 @@ import java.awt.*;
  * grass to the top of the block.
  */
 public class GrassBlock extends Block {
+    /**
+     * Colour of the grass along the top.
+     */
+    private static final Color GRASS_COLOR = new Color(45, 95, 23);
+
     /**
      * Initialises the block ready to be drawn and interacted with.
      *
@@ -28,7 +33,20 @@ public class GrassBlock extends Block {
     @Override
     public void paint(Graphics g) {
         super.paint(g);
-        g.setColor(new Color(45, 95, 23));
-        g.fillRect(position.x, position.y, width, 10);
+        g.setColor(GRASS_COLOR);
+        g.fillRect(position.getX(), position.getY(), getWidth(), 10);
+    }
+
+    /**
+     * Adds the brown block and then the line of green along the top to the render batches.
+     *
+     * @param batches The batches to add the shapes drawn to.
+     * @return True as the block is drawn entirely by the batches.
+     */
+    @Override
+    public boolean addToBatches(RenderBatches batches) {
+        super.addToBatches(batches);
+        batches.fillRect(GRASS_COLOR, position.getX(), position.getY(), getWidth(), 10);
+        return true;
     }
 }
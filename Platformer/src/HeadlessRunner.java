@@ -0,0 +1,94 @@
+import java.awt.event.KeyEvent;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * HeadlessRunner class:
+ * Steps a GameSession as fast as possible without any display attached.
+ * Input comes from an InputSource instead of the keyboard. Used for soak
+ * tests and bot runs where the game needs to run faster than real time.
+ */
+public class HeadlessRunner {
+    /**
+     * The session being simulated.
+     */
+    private GameSession session;
+    /**
+     * Supplies the input for each tick.
+     */
+    private InputSource inputSource;
+    /**
+     * When true the session is restarted with full lives whenever the game ends.
+     */
+    private boolean restartOnGameOver;
+
+    /**
+     * Creates a runner for the session.
+     *
+     * @param session The session to simulate.
+     * @param inputSource Supplies the input for each tick.
+     * @param restartOnGameOver When true the game is restarted with full lives whenever it ends.
+     */
+    public HeadlessRunner(GameSession session, InputSource inputSource, boolean restartOnGameOver) {
+        this.session = session;
+        this.inputSource = inputSource;
+        this.restartOnGameOver = restartOnGameOver;
+    }
+
+    /**
+     * Runs the specified number of ticks with the standard time step.
+     * Stops early if the game ends and restartOnGameOver is false.
+     *
+     * @param ticks Number of ticks to run.
+     * @return The number of ticks that were run.
+     */
+    public long run(long ticks) {
+        long ticksRun = 0;
+        while(ticksRun < ticks) {
+            if(session.isGameOver()) {
+                if(!restartOnGameOver) break;
+                session.handleInput(KeyEvent.VK_R, true);
+            }
+            inputSource.applyInput(session.getTickCount(), session);
+            session.tick(GamePanel.TIME_INTERVAL);
+            ticksRun++;
+        }
+        return ticksRun;
+    }
+
+    /**
+     * Gets the session being simulated.
+     *
+     * @return The session.
+     */
+    public GameSession getSession() {
+        return session;
+    }
+
+    /**
+     * Runs a soak test with a bot that runs back and forth jumping periodically,
+     * then reports how fast the ticks were simulated.
+     *
+     * @param args Optional map file name followed by the number of ticks to run.
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        String mapFileName = args.length > 0 ? args[0] : "Map.txt";
+        long ticks = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+
+        ScriptedInput bot = new ScriptedInput(400)
+                .press(0, KeyEvent.VK_RIGHT)
+                .press(30, KeyEvent.VK_SPACE).release(31, KeyEvent.VK_SPACE)
+                .release(200, KeyEvent.VK_RIGHT).press(200, KeyEvent.VK_LEFT)
+                .press(230, KeyEvent.VK_SPACE).release(231, KeyEvent.VK_SPACE)
+                .release(399, KeyEvent.VK_LEFT);
+        HeadlessRunner runner = new HeadlessRunner(new GameSession(mapFileName), bot, true);
+
+        long startTime = System.nanoTime();
+        long ticksRun = runner.run(ticks);
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        System.out.printf("Ran %d ticks in %.2f s (%.0f ticks/s, %.0fx real time)%n", ticksRun, seconds,
+                ticksRun / seconds, ticksRun * GamePanel.TIME_INTERVAL / 1000.0 / seconds);
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * InputQueue class:
+ * A fixed size ring buffer that carries timestamped key events from one producer
+ * thread (the EDT) to one consumer thread (the SimulationThread) without locking.
+ * Each side only ever writes its own index, so publishing an event or freeing a
+ * slot is a single ordered store. Events are kept in parallel arrays so nothing
+ * is allocated per event.
+ */
+public class InputQueue {
+    /**
+     * Timestamp of each queued event from System.nanoTime().
+     */
+    private final long[] timestamps;
+    /**
+     * The key of each queued event.
+     */
+    private final int[] keyCodes;
+    /**
+     * True for each queued event that is a key press, false for a release.
+     */
+    private final boolean[] isPressed;
+    /**
+     * Capacity - 1, used to wrap indices into the arrays.
+     */
+    private final int mask;
+    /**
+     * Total number of events ever written. Only written by the producer.
+     */
+    private final AtomicLong writeIndex;
+    /**
+     * Total number of events ever read. Only written by the consumer.
+     */
+    private final AtomicLong readIndex;
+    /**
+     * The producer's last seen value of readIndex, so it only reads the shared value when the queue looks full.
+     */
+    private long cachedReadIndex;
+    /**
+     * The consumer's last seen value of writeIndex, so it only reads the shared value when the queue looks empty.
+     */
+    private long cachedWriteIndex;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity Maximum number of events waiting at once. Rounded up to a power of 2.
+     */
+    public InputQueue(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) {
+            size <<= 1;
+        }
+        timestamps = new long[size];
+        keyCodes = new int[size];
+        isPressed = new boolean[size];
+        mask = size - 1;
+        writeIndex = new AtomicLong();
+        readIndex = new AtomicLong();
+        cachedReadIndex = 0;
+        cachedWriteIndex = 0;
+    }
+
+    /**
+     * Adds an event to the end of the queue. Must only be called from the producer thread.
+     *
+     * @param keyCode The key that was interacted with.
+     * @param pressed True indicates it was pressed, false means it was released.
+     * @param timestamp When the event happened from System.nanoTime(). Must not be earlier than the previous event.
+     * @return True if the event was added, false if the queue was full.
+     */
+    public boolean offer(int keyCode, boolean pressed, long timestamp) {
+        long index = writeIndex.get();
+        if(index - cachedReadIndex > mask) {
+            cachedReadIndex = readIndex.get();
+            if(index - cachedReadIndex > mask) {
+                return false;
+            }
+        }
+        int slot = (int)index & mask;
+        timestamps[slot] = timestamp;
+        keyCodes[slot] = keyCode;
+        isPressed[slot] = pressed;
+        // Ordered store so the slot contents are visible before the new index
+        writeIndex.lazySet(index + 1);
+        return true;
+    }
+
+    /**
+     * Passes every event that happened before the specified time to the session in the
+     * order they were added. Later events are left in the queue. Must only be called
+     * from the consumer thread.
+     *
+     * @param time Events with a timestamp before this from System.nanoTime() are handled.
+     * @param session The session to pass input to with handleInput().
+     * @return The number of events handled.
+     */
+    public int drainUntil(long time, GameSession session) {
+        long index = readIndex.get();
+        int handled = 0;
+        while(true) {
+            if(index == cachedWriteIndex) {
+                cachedWriteIndex = writeIndex.get();
+                if(index == cachedWriteIndex) break;
+            }
+            int slot = (int)index & mask;
+            if(timestamps[slot] - time >= 0) break;
+            session.handleInput(keyCodes[slot], isPressed[slot]);
+            index++;
+            handled++;
+        }
+        // Ordered store so the slots are finished with before the producer can reuse them
+        readIndex.lazySet(index);
+        return handled;
+    }
+
+    /**
+     * Gets the number of events waiting. Only exact when neither thread is using the queue.
+     *
+     * @return The number of queued events.
+     */
+    public int size() {
+        return (int)(writeIndex.get() - readIndex.get());
+    }
+
+    /**
+     * Gets the maximum number of events that can wait at once.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+}
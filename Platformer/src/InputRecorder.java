@@ -0,0 +1,141 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * InputRecorder class:
+ * Writes every input handled by a GameSession to a file along with the tick it
+ * was handled before, so the session can be replayed exactly by an InputReplayer.
+ * Recording must start before the first tick of the session.
+ *
+ * File layout (all numbers big endian):
+ *   int magic, byte version, UTF map file name
+ *   events: varint ticks since the previous event, varint ((keyCode << 1) | pressed) + 1
+ *   end: varint ticks since the last event, varint 0, long final state hash
+ */
+public class InputRecorder {
+    /**
+     * Identifies a recording file ("PLIR").
+     */
+    public static final int MAGIC = 0x504C4952;
+    /**
+     * Version of the recording format written.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The session being recorded.
+     */
+    private final GameSession session;
+    /**
+     * Stream the events are written to, or null once closed or after a write fails.
+     */
+    private DataOutputStream output;
+    /**
+     * Tick of the last event written.
+     */
+    private long lastTick;
+    /**
+     * Number of events written.
+     */
+    private int eventCount;
+
+    /**
+     * Creates the file and starts recording the session.
+     *
+     * @param fileName File to write the recording to.
+     * @param session Session to record. It must not have been ticked yet.
+     * @throws IOException If the file could not be created.
+     */
+    public InputRecorder(String fileName, GameSession session) throws IOException {
+        if(session.getTickCount() != 0) {
+            throw new IllegalStateException("Recording must start before the first tick");
+        }
+        this.session = session;
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeUTF(session.getMapFileName());
+        lastTick = 0;
+        eventCount = 0;
+        session.setInputRecorder(this);
+    }
+
+    /**
+     * Writes an input event. Called by the GameSession for each input it handles.
+     *
+     * @param tick Number of ticks simulated before the input was handled.
+     * @param keyCode The key that was interacted with.
+     * @param isPressed True indicates it was pressed, false means it was released.
+     */
+    public void record(long tick, int keyCode, boolean isPressed) {
+        if(output == null) return;
+        try {
+            writeVarLong(tick - lastTick);
+            writeVarLong((((long)keyCode << 1) | (isPressed ? 1 : 0)) + 1);
+            lastTick = tick;
+            eventCount++;
+        } catch (IOException e) {
+            System.out.println("Failed to record input: " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Writes the current tick and state hash of the session to end the recording and closes the file.
+     */
+    public void close() {
+        if(output == null) return;
+        session.setInputRecorder(null);
+        try {
+            long finalTick = session.getTickCount();
+            writeVarLong(finalTick - lastTick);
+            writeVarLong(0);
+            output.writeLong(session.getStateHash());
+            output.close();
+            System.out.println("Recorded " + eventCount + " inputs over " + finalTick + " ticks");
+        } catch (IOException e) {
+            System.out.println("Failed to finish recording: " + e.getMessage());
+        }
+        output = null;
+    }
+
+    /**
+     * Gets the number of events written so far.
+     *
+     * @return The number of events.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Writes a non-negative value using 7 bits per byte, with the high bit set on every byte but the last.
+     *
+     * @param value The value to write.
+     * @throws IOException If the write failed.
+     */
+    private void writeVarLong(long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            output.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int)value);
+    }
+
+    /**
+     * Stops recording after a write has failed, leaving the incomplete file behind.
+     */
+    private void closeQuietly() {
+        session.setInputRecorder(null);
+        try {
+            output.close();
+        } catch (IOException ignored) {
+        }
+        output = null;
+    }
+}
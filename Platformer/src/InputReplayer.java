@@ -0,0 +1,230 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * InputReplayer class:
+ * Reads a recording written by an InputRecorder and feeds the inputs back to a
+ * GameSession on the same ticks they were originally handled. The whole session
+ * can be replayed headless as fast as possible and the final state compared with
+ * the recorded state hash, which makes real play sessions usable as repeatable
+ * performance tests. Chunked maps stream in on a background thread so they are
+ * not guaranteed to replay identically.
+ */
+public class InputReplayer implements InputSource {
+    /**
+     * File the recorded session loaded its map from.
+     */
+    private final String mapFileName;
+    /**
+     * Tick each event was handled before, in order.
+     */
+    private long[] eventTicks;
+    /**
+     * The key of each event.
+     */
+    private int[] eventKeyCodes;
+    /**
+     * True for each event that was a key press, false for a release.
+     */
+    private boolean[] eventIsPressed;
+    /**
+     * Number of events.
+     */
+    private int eventCount;
+    /**
+     * Tick the recording ended on.
+     */
+    private final long finalTick;
+    /**
+     * State hash of the session when the recording ended.
+     */
+    private final long expectedStateHash;
+    /**
+     * Index of the next event to apply.
+     */
+    private int nextEvent;
+
+    /**
+     * Loads a recording.
+     *
+     * @param fileName File written by an InputRecorder.
+     * @throws IOException If the file could not be read or is not a complete recording.
+     */
+    public InputReplayer(String fileName) throws IOException {
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            if(input.readInt() != InputRecorder.MAGIC) {
+                throw new IOException("Not an input recording: " + fileName);
+            }
+            int version = input.readUnsignedByte();
+            if(version != InputRecorder.VERSION) {
+                throw new IOException("Unsupported recording version " + version + " in " + fileName);
+            }
+            mapFileName = input.readUTF();
+            eventTicks = new long[64];
+            eventKeyCodes = new int[64];
+            eventIsPressed = new boolean[64];
+            eventCount = 0;
+            long tick = 0;
+            while(true) {
+                tick += readVarLong(input);
+                long event = readVarLong(input);
+                if(event == 0) break;
+                addEvent(tick, (int)((event - 1) >>> 1), ((event - 1) & 1) != 0);
+            }
+            finalTick = tick;
+            expectedStateHash = input.readLong();
+        }
+        nextEvent = 0;
+    }
+
+    /**
+     * Handles every recorded event for the tick.
+     *
+     * @param tick Number of ticks simulated so far.
+     * @param session The session to pass input to.
+     */
+    @Override
+    public void applyInput(long tick, GameSession session) {
+        while(nextEvent < eventCount && eventTicks[nextEvent] <= tick) {
+            session.handleInput(eventKeyCodes[nextEvent], eventIsPressed[nextEvent]);
+            nextEvent++;
+        }
+    }
+
+    /**
+     * Replays the whole recording on a new session as fast as possible.
+     *
+     * @return The session in the state the replay ended in.
+     */
+    public GameSession replay() {
+        nextEvent = 0;
+        GameSession session = new GameSession(mapFileName);
+        while(session.getTickCount() < finalTick) {
+            applyInput(session.getTickCount(), session);
+            session.tick(GamePanel.TIME_INTERVAL);
+        }
+        // Inputs handled after the last tick still change the state
+        applyInput(session.getTickCount(), session);
+        return session;
+    }
+
+    /**
+     * Tests if a session ended in the same state as the recording.
+     *
+     * @param session Session returned by replay().
+     * @return True if the state hashes match.
+     */
+    public boolean matchesRecording(GameSession session) {
+        return session.getStateHash() == expectedStateHash;
+    }
+
+    /**
+     * Gets the file the recorded session loaded its map from.
+     *
+     * @return The map file name.
+     */
+    public String getMapFileName() {
+        return mapFileName;
+    }
+
+    /**
+     * Gets the number of recorded events.
+     *
+     * @return The number of events.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Gets the tick the recording ended on.
+     *
+     * @return The number of ticks in the recording.
+     */
+    public long getFinalTick() {
+        return finalTick;
+    }
+
+    /**
+     * Gets the state hash of the session when the recording ended.
+     *
+     * @return The expected state hash.
+     */
+    public long getExpectedStateHash() {
+        return expectedStateHash;
+    }
+
+    /**
+     * Adds an event to the end of the arrays, growing them if needed.
+     *
+     * @param tick Tick the event was handled before.
+     * @param keyCode The key that was interacted with.
+     * @param isPressed True indicates it was pressed, false means it was released.
+     */
+    private void addEvent(long tick, int keyCode, boolean isPressed) {
+        if(eventCount == eventTicks.length) {
+            eventTicks = Arrays.copyOf(eventTicks, eventCount * 2);
+            eventKeyCodes = Arrays.copyOf(eventKeyCodes, eventCount * 2);
+            eventIsPressed = Arrays.copyOf(eventIsPressed, eventCount * 2);
+        }
+        eventTicks[eventCount] = tick;
+        eventKeyCodes[eventCount] = keyCode;
+        eventIsPressed[eventCount] = isPressed;
+        eventCount++;
+    }
+
+    /**
+     * Reads a value written with 7 bits per byte, with the high bit set on every byte but the last.
+     *
+     * @param input Stream to read from.
+     * @return The value.
+     * @throws IOException If the stream ended or the value is too long.
+     */
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in recording");
+    }
+
+    /**
+     * Replays a recording headless, reports how fast it ran and whether the final state matched.
+     * Exits with status 1 if the state did not match.
+     *
+     * @param args The recording file, and optionally the number of times to replay it.
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        if(args.length < 1) {
+            System.out.println("Usage: InputReplayer <recording> [repeats]");
+            return;
+        }
+        InputReplayer replayer = new InputReplayer(args[0]);
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        boolean allMatched = true;
+        for(int i = 0; i < repeats; i++) {
+            long startTime = System.nanoTime();
+            GameSession session = replayer.replay();
+            double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+            boolean matched = replayer.matchesRecording(session);
+            allMatched &= matched;
+            System.out.printf("Replayed %d inputs over %d ticks in %.3f s (%.0f ticks/s): %s%n",
+                    replayer.getEventCount(), replayer.getFinalTick(), seconds,
+                    replayer.getFinalTick() / seconds, matched ? "state matches" : "STATE MISMATCH");
+        }
+        if(!allMatched) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * InputSource interface:
+ * Supplies key input to a GameSession one tick at a time so the game can be
+ * played without a keyboard, such as by scripts during headless runs.
+ */
+public interface InputSource {
+    /**
+     * Called before each tick to pass any input for that tick on to the session.
+     *
+     * @param tick The number of the tick about to be simulated.
+     * @param session The session to pass input to with handleInput().
+     */
+    void applyInput(long tick, GameSession session);
+}
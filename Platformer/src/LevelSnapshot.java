@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * LevelSnapshot class:
+ * An immutable record of the mutable state of a freshly loaded level. The
+ * static geometry is shared with the level rather than copied, and only the
+ * player's starting position and the state of each Collectible are kept.
+ * Restoring puts that state back in place so a level can be restarted
+ * without reading the map file again or creating any new objects.
+ */
+public class LevelSnapshot {
+    /**
+     * The ObjectManager the snapshot was taken from.
+     */
+    private final ObjectManager objectManager;
+    /**
+     * The player the snapshot was taken from.
+     */
+    private final Player player;
+    /**
+     * Position of the player when the snapshot was taken.
+     */
+    private final int playerX, playerY;
+    /**
+     * All the collectibles in the level.
+     */
+    private final Collectible[] collectibles;
+    /**
+     * Whether each collectible had been collected when the snapshot was taken.
+     */
+    private final boolean[] collected;
+
+    /**
+     * Records the current state of the level.
+     *
+     * @param objectManager The ObjectManager containing the level. It must have a Player.
+     * @param objects All the objects in the level.
+     */
+    public LevelSnapshot(ObjectManager objectManager, List<GameObject> objects) {
+        this(objectManager, objects, objectManager.getPlayer().position.getX(), objectManager.getPlayer().position.getY(), true);
+    }
+
+    /**
+     * Records the level as it is when freshly loaded from a text map, with the player starting
+     * at the specified position and every collectible not yet collected. Used after the level
+     * has been changed in place so a restart starts the changed level.
+     *
+     * @param objectManager The ObjectManager containing the level. It must have a Player.
+     * @param objects All the objects in the level.
+     * @param playerX X coordinate the player starts at.
+     * @param playerY Y coordinate the player starts at.
+     */
+    public LevelSnapshot(ObjectManager objectManager, List<GameObject> objects, int playerX, int playerY) {
+        this(objectManager, objects, playerX, playerY, false);
+    }
+
+    /**
+     * Records the player's starting position and finds every collectible in the level.
+     *
+     * @param objectManager The ObjectManager containing the level. It must have a Player.
+     * @param objects All the objects in the level.
+     * @param playerX X coordinate the player starts at.
+     * @param playerY Y coordinate the player starts at.
+     * @param recordCollected When true the collectibles are restored to whether they are collected now,
+     *                        otherwise they are all restored to not collected.
+     */
+    private LevelSnapshot(ObjectManager objectManager, List<GameObject> objects, int playerX, int playerY,
+                          boolean recordCollected) {
+        this.objectManager = objectManager;
+        player = objectManager.getPlayer();
+        this.playerX = playerX;
+        this.playerY = playerY;
+
+        List<Collectible> collectibleList = new ArrayList<>();
+        for(GameObject object : objects) {
+            if(object instanceof Collectible) {
+                collectibleList.add((Collectible)object);
+            }
+        }
+        collectibles = collectibleList.toArray(new Collectible[0]);
+        collected = new boolean[collectibles.length];
+        if(recordCollected) {
+            for(int i = 0; i < collectibles.length; i++) {
+                collected[i] = collectibles[i].isCollected();
+            }
+        }
+    }
+
+    /**
+     * Tests whether the snapshot can still be restored, which is only true while the
+     * ObjectManager contains the same Player it was taken from.
+     *
+     * @return True if restore() can be used.
+     */
+    public boolean isValid() {
+        return objectManager.getPlayer() == player;
+    }
+
+    /**
+     * Gets the x coordinate the player is put back to.
+     *
+     * @return The player's starting x coordinate.
+     */
+    public int getPlayerX() {
+        return playerX;
+    }
+
+    /**
+     * Gets the y coordinate the player is put back to.
+     *
+     * @return The player's starting y coordinate.
+     */
+    public int getPlayerY() {
+        return playerY;
+    }
+
+    /**
+     * Puts the player and collectibles back to the state they were in when the snapshot was taken.
+     */
+    public void restore() {
+        player.reset(playerX, playerY);
+        for(int i = 0; i < collectibles.length; i++) {
+            collectibles[i].setCollected(collected[i]);
+        }
+        objectManager.getDirtyRegion().markAll();
+    }
+}
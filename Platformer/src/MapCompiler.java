@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * MapCompiler class:
+ * Command line tool that converts a text map into the binary map format.
+ * The text format remains the format maps are written in, and the compiled
+ * file can be loaded anywhere a map file name is accepted. Touching static
+ * geometry is merged before it is written. With -chunked the map is instead
+ * split into chunks with ChunkedMapFormat for streaming.
+ */
+public class MapCompiler {
+    /**
+     * Compiles a text map to a binary map.
+     *
+     * @param args Input text map, output binary map, and optionally the cell size
+     *             to prebuild the spatial index for (0 to leave the index out).
+     *             Alternatively -chunked, the chunk size, input text map and output chunked map.
+     */
+    public static void main(String[] args) {
+        boolean chunked = args.length > 0 && args[0].equals("-chunked");
+        if(args.length < (chunked ? 4 : 2)) {
+            System.out.println("Usage: MapCompiler <input text map> <output binary map> [cell size]");
+            System.out.println("       MapCompiler -chunked <chunk size> <input text map> <output chunked map>");
+            return;
+        }
+        String inputFileName = chunked ? args[2] : args[0];
+        String outputFileName = chunked ? args[3] : args[1];
+        int cellSize = !chunked && args.length > 2 ? Integer.parseInt(args[2]) : ObjectManager.DEFAULT_CELL_SIZE;
+
+        ObjectManager objectManager = new ObjectManager();
+        MapLoader mapLoader = new MapLoader(objectManager);
+        List<GameObject> objects = mapLoader.parseMap(inputFileName);
+        if(objects == null) return;
+        objects = mapLoader.mergeGeometry(objects);
+        System.out.println("Merged map geometry: " + mapLoader.getCountBeforeMerge() + " objects down to "
+                + mapLoader.getCountAfterMerge());
+        try {
+            if(chunked) {
+                ChunkedMapFormat.write(objects, outputFileName, Integer.parseInt(args[1]));
+            } else {
+                BinaryMapFormat.write(objects, outputFileName, cellSize);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to write file: " + outputFileName);
+            return;
+        }
+        System.out.println("Compiled " + objects.size() + " objects from " + inputFileName + " to " + outputFileName);
+    }
+}
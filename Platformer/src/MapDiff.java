@@ -0,0 +1,226 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * MapDiff class:
+ * The differences between the objects in an ObjectManager and a freshly parsed
+ * version of the map. Objects are matched by their type and bounds, so objects
+ * that haven't changed are kept as they are. Objects are added in the order they
+ * appear in the file, so the unchanged start and end of the map are matched in
+ * place and only the part in between is matched through a hash table. Of the rest, objects of the same
+ * type are paired up as moves so they keep their identity, and whatever is left
+ * over is added or removed. Applying the diff only touches the objects that changed,
+ * which is much faster than reloading a large map. The player is never changed.
+ */
+public class MapDiff {
+    /**
+     * Objects in the ObjectManager that are not in the new map.
+     */
+    private final List<GameObject> removed;
+    /**
+     * Objects from the new map that are not in the ObjectManager.
+     */
+    private final List<GameObject> added;
+    /**
+     * Objects in the ObjectManager to move to the bounds of the matching entries in movedTo.
+     */
+    private final List<GameObject> moved;
+    /**
+     * The objects from the new map with the bounds to move each entry in moved to.
+     */
+    private final List<GameObject> movedTo;
+    /**
+     * Position of the Player in the new map, or null if it has none.
+     */
+    private final Position playerStart;
+
+    /**
+     * Compares the objects in an ObjectManager with a parsed map.
+     *
+     * @param objectManager The ObjectManager containing the current objects.
+     * @param parsed Every object from the new map, as from MapLoader.parseMap().
+     */
+    public MapDiff(ObjectManager objectManager, List<GameObject> parsed) {
+        removed = new ArrayList<>();
+        added = new ArrayList<>();
+        moved = new ArrayList<>();
+        movedTo = new ArrayList<>();
+
+        Position newPlayerStart = null;
+        List<GameObject> parsedObjects = new ArrayList<>(parsed.size());
+        for(GameObject gameObject : parsed) {
+            if(gameObject instanceof Player) {
+                newPlayerStart = new Position(gameObject.position);
+            } else {
+                parsedObjects.add(gameObject);
+            }
+        }
+        playerStart = newPlayerStart;
+
+        // Skip over the start and end that are unchanged
+        List<GameObject> current = objectManager.getObjects();
+        int start = 0;
+        int currentEnd = current.size();
+        int parsedEnd = parsedObjects.size();
+        while(start < currentEnd && start < parsedEnd && isSame(current.get(start), parsedObjects.get(start))) {
+            start++;
+        }
+        while(currentEnd > start && parsedEnd > start
+                && isSame(current.get(currentEnd - 1), parsedObjects.get(parsedEnd - 1))) {
+            currentEnd--;
+            parsedEnd--;
+        }
+
+        // Open addressed table of indices into current, hashed by type and bounds
+        int count = currentEnd - start;
+        int[] table = new int[Math.max(2, Integer.highestOneBit(Math.max(1, count)) << 2)];
+        int mask = table.length - 1;
+        Arrays.fill(table, -1);
+        for(int i = start; i < currentEnd; i++) {
+            int slot = hash(current.get(i)) & mask;
+            while(table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i;
+        }
+        boolean[] matched = new boolean[count];
+        List<GameObject> unmatchedParsed = new ArrayList<>();
+        for(int i = start; i < parsedEnd; i++) {
+            GameObject gameObject = parsedObjects.get(i);
+            boolean found = false;
+            for(int slot = hash(gameObject) & mask; table[slot] != -1; slot = (slot + 1) & mask) {
+                int index = table[slot];
+                if(!matched[index - start] && isSame(current.get(index), gameObject)) {
+                    matched[index - start] = true;
+                    found = true;
+                    break;
+                }
+            }
+            if(!found) {
+                unmatchedParsed.add(gameObject);
+            }
+        }
+
+        // Leftover objects of the same type are paired up in order as moves
+        Map<Class<?>, ArrayDeque<GameObject>> leftoverByType = new LinkedHashMap<>();
+        for(int i = start; i < currentEnd; i++) {
+            if(!matched[i - start]) {
+                GameObject gameObject = current.get(i);
+                leftoverByType.computeIfAbsent(gameObject.getClass(), type -> new ArrayDeque<>()).add(gameObject);
+            }
+        }
+        for(GameObject gameObject : unmatchedParsed) {
+            ArrayDeque<GameObject> leftovers = leftoverByType.get(gameObject.getClass());
+            GameObject existing = leftovers != null ? leftovers.pollFirst() : null;
+            if(existing != null) {
+                moved.add(existing);
+                movedTo.add(gameObject);
+            } else {
+                added.add(gameObject);
+            }
+        }
+        for(ArrayDeque<GameObject> leftovers : leftoverByType.values()) {
+            removed.addAll(leftovers);
+        }
+    }
+
+    /**
+     * Combines the type and bounds of an object into a hash code.
+     *
+     * @param gameObject The object to hash.
+     * @return The hash code.
+     */
+    private static int hash(GameObject gameObject) {
+        int hash = gameObject.getClass().hashCode();
+        hash = 31 * hash + gameObject.position.getX();
+        hash = 31 * hash + gameObject.position.getY();
+        hash = 31 * hash + gameObject.getWidth();
+        hash = 31 * hash + gameObject.getHeight();
+        // Spread the bits so nearby positions don't fill runs of neighbouring slots
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Tests if two objects have the same type and bounds.
+     *
+     * @param gameObject The first object.
+     * @param other The second object.
+     * @return True if they match.
+     */
+    private static boolean isSame(GameObject gameObject, GameObject other) {
+        return gameObject.getClass() == other.getClass()
+                && gameObject.position.getX() == other.position.getX() && gameObject.position.getY() == other.position.getY()
+                && gameObject.getWidth() == other.getWidth() && gameObject.getHeight() == other.getHeight();
+    }
+
+    /**
+     * Applies the changes to the ObjectManager the diff was made from.
+     *
+     * @param objectManager The ObjectManager the diff was made from. It must not have changed since.
+     */
+    public void apply(ObjectManager objectManager) {
+        objectManager.removeObjects(removed);
+        for(int i = 0; i < moved.size(); i++) {
+            GameObject target = movedTo.get(i);
+            objectManager.moveObject(moved.get(i), target.position.getX(), target.position.getY(),
+                    target.getWidth(), target.getHeight());
+        }
+        for(GameObject gameObject : added) {
+            objectManager.addObject(gameObject);
+            objectManager.markDirty(gameObject);
+        }
+    }
+
+    /**
+     * Gets whether the new map is the same as the current objects.
+     *
+     * @return True if there is nothing to add, remove or move.
+     */
+    public boolean isEmpty() {
+        return removed.isEmpty() && added.isEmpty() && moved.isEmpty();
+    }
+
+    /**
+     * Gets the number of objects that will be removed.
+     *
+     * @return Number of removed objects.
+     */
+    public int getRemovedCount() {
+        return removed.size();
+    }
+
+    /**
+     * Gets the number of objects that will be added.
+     *
+     * @return Number of added objects.
+     */
+    public int getAddedCount() {
+        return added.size();
+    }
+
+    /**
+     * Gets the number of objects that will be moved or resized.
+     *
+     * @return Number of moved objects.
+     */
+    public int getMovedCount() {
+        return moved.size();
+    }
+
+    /**
+     * Gets the position of the Player in the new map.
+     *
+     * @return The player's starting position, or null if the new map has no Player.
+     */
+    public Position getPlayerStart() {
+        return playerStart;
+    }
+}
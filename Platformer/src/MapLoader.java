@@ -1,5 +1,7 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -7,13 +9,22 @@ import java.util.Scanner;
  * Author: Peter Mitchell (2021)
  *
  * MapLoader class:
- * Loads a map from a file into the ObjectManager.
+ * Loads a map from a file into the ObjectManager. Touching static geometry
+ * in text maps is merged with the GeometryMerger as it is loaded.
  */
 public class MapLoader {
     /**
      * Reference to the ObjectManager for adding/removing objects.
      */
     private ObjectManager objectManager;
+    /**
+     * When true touching static geometry of the same type is merged into fewer objects.
+     */
+    private boolean mergeGeometry;
+    /**
+     * Number of objects before and after merging the last time geometry was merged.
+     */
+    private int countBeforeMerge, countAfterMerge;
 
     /**
      * Initialises the MapLoader ready for loadMap().
@@ -22,32 +33,104 @@ public class MapLoader {
      */
     public MapLoader(ObjectManager objectManager) {
         this.objectManager = objectManager;
+        mergeGeometry = true;
     }
 
     /**
      * Tries to open the file and load the map. Any errors will
-     * be reported. Each line contains text indicating the type of
-     * GameObject to make and properties for the position and in some
-     * cases the width/height.
+     * be reported. Binary maps made by the MapCompiler are detected from
+     * their header and loaded with BinaryMapFormat. Otherwise each line
+     * contains text indicating the type of GameObject to make and
+     * properties for the position and in some cases the width/height.
+     * Binary maps are merged when they are compiled instead.
      *
      * @param fileName File to try and load.
      */
     public void loadMap(String fileName) {
+        if(BinaryMapFormat.isBinaryMap(fileName)) {
+            BinaryMapFormat.load(fileName, objectManager);
+            objectManager.invalidateStaticLayer();
+            return;
+        }
+
+        List<GameObject> objects = parseMap(fileName);
+        if(objects == null) return;
+        objects = mergeGeometry(objects);
+
+        objectManager.clearObjects();
+        for(GameObject obj : objects) {
+            objectManager.addObject(obj);
+        }
+        objectManager.invalidateStaticLayer();
+    }
+
+    /**
+     * Tries to open a text map and create all its objects without adding them
+     * to the ObjectManager. Any errors will be reported.
+     *
+     * @param fileName File to try and parse.
+     * @return The valid objects in the order they appear in the file, or null if the file couldn't be opened.
+     */
+    public List<GameObject> parseMap(String fileName) {
         Scanner scan;
         try {
             scan = new Scanner(new File(fileName));
         } catch (FileNotFoundException e) {
             System.out.println("Failed to open file: " + fileName);
-            return;
+            return null;
         }
 
-        objectManager.clearObjects();
+        List<GameObject> result = new ArrayList<>();
         while(scan.hasNextLine()) {
             GameObject obj = createGameObjectFactory(scan.nextLine());
             if(obj != null) {
-                objectManager.addObject(obj);
+                result.add(obj);
             }
         }
+        return result;
+    }
+
+    /**
+     * Merges touching static geometry in parsed objects if merging is enabled, and
+     * records the number of objects before and after.
+     *
+     * @param objects Every object in a map, as from parseMap().
+     * @return The merged objects, or the same objects if merging is disabled.
+     */
+    public List<GameObject> mergeGeometry(List<GameObject> objects) {
+        countBeforeMerge = objects.size();
+        if(mergeGeometry) {
+            objects = GeometryMerger.merge(objects);
+        }
+        countAfterMerge = objects.size();
+        return objects;
+    }
+
+    /**
+     * Enables or disables merging touching static geometry when maps are loaded.
+     *
+     * @param mergeGeometry When true geometry is merged.
+     */
+    public void setMergeGeometry(boolean mergeGeometry) {
+        this.mergeGeometry = mergeGeometry;
+    }
+
+    /**
+     * Gets the number of objects in the map the last time geometry was merged, before merging.
+     *
+     * @return Number of objects before merging.
+     */
+    public int getCountBeforeMerge() {
+        return countBeforeMerge;
+    }
+
+    /**
+     * Gets the number of objects in the map the last time geometry was merged, after merging.
+     *
+     * @return Number of objects after merging.
+     */
+    public int getCountAfterMerge() {
+        return countAfterMerge;
     }
 
     /**
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * MapWatcher class:
+ * Watches a text map file for changes with a WatchService on a background thread.
+ * Each time the file is saved it is parsed and merged on that thread, and the objects
+ * are kept until the game collects them with pollChanges() at the start of a tick.
+ * Only the most recent version is kept if the file is saved again before then.
+ */
+public class MapWatcher implements Runnable {
+    /**
+     * Time to wait after a change for any more writes before parsing, in ms.
+     * Editors often save a file in several steps.
+     */
+    private static final long SETTLE_MILLIS = 50;
+
+    /**
+     * The map file being watched.
+     */
+    private final Path mapFile;
+    /**
+     * Used to parse and merge the file each time it changes.
+     */
+    private final MapLoader mapLoader;
+    /**
+     * Objects parsed from the latest version of the file that haven't been collected yet, or null.
+     */
+    private final AtomicReference<List<GameObject>> pendingObjects;
+    /**
+     * Service notifying the thread of changes in the directory containing the map file.
+     */
+    private WatchService watchService;
+    /**
+     * The thread waiting for changes.
+     */
+    private Thread thread;
+
+    /**
+     * Creates a watcher for the map file ready to start.
+     *
+     * @param mapFileName The text map file to watch.
+     * @param mapLoader Used to parse and merge the file each time it changes.
+     */
+    public MapWatcher(String mapFileName, MapLoader mapLoader) {
+        mapFile = Paths.get(mapFileName).toAbsolutePath();
+        this.mapLoader = mapLoader;
+        pendingObjects = new AtomicReference<>();
+    }
+
+    /**
+     * Starts watching the map file.
+     *
+     * @throws IOException If the directory containing the map file can't be watched.
+     */
+    public void start() throws IOException {
+        if(thread != null) return;
+        watchService = FileSystems.getDefault().newWatchService();
+        mapFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this, "MapWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the map file.
+     */
+    public void close() {
+        if(watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Failed to stop watching " + mapFile + ": " + e.getMessage());
+        }
+        watchService = null;
+        thread = null;
+    }
+
+    /**
+     * Gets the objects parsed from the map file since the last call, if it has changed.
+     *
+     * @return Every object in the new version of the map, or null if it hasn't changed.
+     */
+    public List<GameObject> pollChanges() {
+        return pendingObjects.getAndSet(null);
+    }
+
+    /**
+     * Waits for the map file to change and parses each new version until closed.
+     */
+    @Override
+    public void run() {
+        WatchService service = watchService;
+        try {
+            while(true) {
+                if(!hasMapChanged(service.take())) continue;
+                // Let the write finish and fold any further events into this change
+                Thread.sleep(SETTLE_MILLIS);
+                WatchKey key;
+                while((key = service.poll()) != null) {
+                    hasMapChanged(key);
+                }
+                List<GameObject> objects = mapLoader.parseMap(mapFile.toString());
+                if(objects != null) {
+                    pendingObjects.set(mapLoader.mergeGeometry(objects));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed so stop watching
+        }
+    }
+
+    /**
+     * Checks the events of a key for the map file and then resets it to receive more events.
+     *
+     * @param key Key with events for the directory.
+     * @return True if any of the events were for the map file.
+     */
+    private boolean hasMapChanged(WatchKey key) {
+        boolean changed = false;
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || mapFile.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * MetricHistory class:
+ * Keeps the most recent samples of a single measurement in a ring so that
+ * percentiles over the last few seconds can be shown while the game runs.
+ * Percentiles are found by sorting a reusable copy of the samples, so reading
+ * them doesn't allocate.
+ */
+public class MetricHistory {
+    /**
+     * The most recent samples, oldest overwritten first.
+     */
+    private final long[] samples;
+    /**
+     * Reusable copy of the samples used to find percentiles.
+     */
+    private final long[] sorted;
+    /**
+     * Index the next sample will be written to.
+     */
+    private int nextIndex;
+    /**
+     * Number of samples held.
+     */
+    private int count;
+    /**
+     * True when sorted needs to be rebuilt before reading a percentile.
+     */
+    private boolean sortedIsStale;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity Number of samples to keep.
+     */
+    public MetricHistory(int capacity) {
+        samples = new long[capacity];
+        sorted = new long[capacity];
+        nextIndex = 0;
+        count = 0;
+        sortedIsStale = false;
+    }
+
+    /**
+     * Adds a sample, replacing the oldest if the history is full.
+     *
+     * @param value The measured value.
+     */
+    public void add(long value) {
+        samples[nextIndex] = value;
+        nextIndex = (nextIndex + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        sortedIsStale = true;
+    }
+
+    /**
+     * Gets the value that the specified fraction of samples are less than or equal to.
+     *
+     * @param percentile Fraction between 0 and 1, such as 0.99 for the 99th percentile.
+     * @return The value at the percentile, or 0 if there are no samples.
+     */
+    public long getPercentile(double percentile) {
+        if(count == 0) return 0;
+        if(sortedIsStale) {
+            System.arraycopy(samples, 0, sorted, 0, count);
+            Arrays.sort(sorted, 0, count);
+            sortedIsStale = false;
+        }
+        int index = (int)Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * Gets the largest sample held.
+     *
+     * @return The maximum value, or 0 if there are no samples.
+     */
+    public long getMax() {
+        return getPercentile(1);
+    }
+
+    /**
+     * Gets the most recent sample.
+     *
+     * @return The last value added, or 0 if there are no samples.
+     */
+    public long getLast() {
+        if(count == 0) return 0;
+        return samples[Math.floorMod(nextIndex - 1, samples.length)];
+    }
+
+    /**
+     * Gets a sample by age.
+     *
+     * @param age 0 for the most recent sample, 1 for the one before it, and so on.
+     * @return The sample, or 0 if there are not that many samples.
+     */
+    public long get(int age) {
+        if(age < 0 || age >= count) return 0;
+        return samples[Math.floorMod(nextIndex - 1 - age, samples.length)];
+    }
+
+    /**
+     * Gets the number of samples held.
+     *
+     * @return The number of samples.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Removes every sample.
+     */
+    public void clear() {
+        nextIndex = 0;
+        count = 0;
+        sortedIsStale = false;
+    }
+}
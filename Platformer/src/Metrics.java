@@ -0,0 +1,372 @@
+import jdk.jfr.EventType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * Metrics class:
+ * Measures where each tick and frame goes: time spent updating, in collision
+ * queries and painting, the number of queries and candidates looked at, the
+ * objects painted, and the bytes allocated while updating. Collision queries may
+ * be recorded from the worker threads of a parallel update, so their totals are
+ * kept in LongAdders. The allocated bytes are only read from the thread calling
+ * ObjectManager.update(), so allocation by worker threads during a parallel
+ * integrate phase is not included. Recent values are kept
+ * in MetricHistory rings for the on-screen overlay, and each tick and paint is also
+ * committed as a Flight Recorder event when a recording has them enabled.
+ * Nothing is measured unless the overlay or a recording needs it.
+ */
+public class Metrics {
+    /**
+     * Number of ticks and frames kept in each history.
+     */
+    public static final int HISTORY_SIZE = 256;
+    /**
+     * Flight Recorder type of the events committed each tick.
+     */
+    private static final EventType TICK_EVENT_TYPE = EventType.getEventType(TickMetricsEvent.class);
+    /**
+     * Flight Recorder type of the events committed each paint.
+     */
+    private static final EventType PAINT_EVENT_TYPE = EventType.getEventType(PaintMetricsEvent.class);
+    /**
+     * Used to read the bytes allocated by a thread, or null when the JVM doesn't support it.
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = getAllocationBean();
+
+    /**
+     * When true the histories are filled for the overlay.
+     */
+    private boolean enabled;
+    /**
+     * True between beginTick() and endTick() when the tick is being measured.
+     */
+    private boolean measuringTick;
+    /**
+     * True between beginPaint() and endPaint() when the paint is being measured.
+     */
+    private boolean measuringPaint;
+    /**
+     * Number of ticks started.
+     */
+    private long tickCount;
+    /**
+     * Time the current tick started in ns.
+     */
+    private long tickStartTime;
+    /**
+     * Bytes the thread calling ObjectManager.update() had allocated when the current tick started.
+     */
+    private long tickStartAllocated;
+    /**
+     * Time spent in collision queries so far this tick in ns, added to from any thread.
+     */
+    private final LongAdder tickQueryTime;
+    /**
+     * Number of collision queries so far this tick, added to from any thread.
+     */
+    private final LongAdder tickQueries;
+    /**
+     * Number of candidates looked at by collision queries so far this tick, added to from any thread.
+     */
+    private final LongAdder tickCandidates;
+    /**
+     * Event for the current tick, or null when Flight Recorder isn't recording it.
+     */
+    private TickMetricsEvent tickEvent;
+    /**
+     * Time the current paint started in ns.
+     */
+    private long paintStartTime;
+    /**
+     * Number of objects drawn so far in the current paint.
+     */
+    private int paintObjects;
+    /**
+     * Event for the current paint, or null when Flight Recorder isn't recording it.
+     */
+    private PaintMetricsEvent paintEvent;
+
+    /**
+     * Time of each tick spent in ObjectManager.update() in ns.
+     */
+    private final MetricHistory updateTimes;
+    /**
+     * Time of each tick spent in collision queries in ns.
+     */
+    private final MetricHistory queryTimes;
+    /**
+     * Number of collision queries each tick.
+     */
+    private final MetricHistory queryCounts;
+    /**
+     * Number of candidates looked at by collision queries each tick.
+     */
+    private final MetricHistory candidateCounts;
+    /**
+     * Bytes allocated each tick by the thread calling ObjectManager.update(), not counting worker threads.
+     */
+    private final MetricHistory allocatedBytes;
+    /**
+     * Time of each frame spent in ObjectManager.paint() in ns.
+     */
+    private final MetricHistory paintTimes;
+    /**
+     * Number of objects drawn each frame.
+     */
+    private final MetricHistory paintedCounts;
+
+    /**
+     * Creates metrics with the overlay histories disabled.
+     */
+    public Metrics() {
+        enabled = false;
+        measuringTick = false;
+        measuringPaint = false;
+        tickCount = 0;
+        tickQueryTime = new LongAdder();
+        tickQueries = new LongAdder();
+        tickCandidates = new LongAdder();
+        updateTimes = new MetricHistory(HISTORY_SIZE);
+        queryTimes = new MetricHistory(HISTORY_SIZE);
+        queryCounts = new MetricHistory(HISTORY_SIZE);
+        candidateCounts = new MetricHistory(HISTORY_SIZE);
+        allocatedBytes = new MetricHistory(HISTORY_SIZE);
+        paintTimes = new MetricHistory(HISTORY_SIZE);
+        paintedCounts = new MetricHistory(HISTORY_SIZE);
+    }
+
+    /**
+     * Sets whether the histories are filled. Flight Recorder events are committed whenever
+     * a recording has them enabled regardless of this setting.
+     *
+     * @param enabled True to measure every tick and frame for the overlay.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets whether the histories are being filled.
+     *
+     * @return True if every tick and frame is measured for the overlay.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Called by the ObjectManager before updating.
+     */
+    public void beginTick() {
+        tickCount++;
+        boolean recording = TICK_EVENT_TYPE.isEnabled();
+        measuringTick = enabled || recording;
+        if(!measuringTick) return;
+        tickQueryTime.reset();
+        tickQueries.reset();
+        tickCandidates.reset();
+        tickStartAllocated = readAllocatedBytes();
+        if(recording) {
+            tickEvent = new TickMetricsEvent();
+            tickEvent.begin();
+        }
+        tickStartTime = System.nanoTime();
+    }
+
+    /**
+     * Gets whether the current tick is being measured, so callers can skip reading the time otherwise.
+     *
+     * @return True between beginTick() and endTick() when measuring.
+     */
+    public boolean isMeasuringTick() {
+        return measuringTick;
+    }
+
+    /**
+     * Adds a collision query to the current tick. Safe to call from the worker threads of a parallel update.
+     *
+     * @param time Time the query took in ns.
+     * @param candidates Number of objects the query looked at.
+     */
+    public void recordQuery(long time, int candidates) {
+        tickQueryTime.add(time);
+        tickQueries.increment();
+        tickCandidates.add(candidates);
+    }
+
+    /**
+     * Called by the ObjectManager after updating.
+     */
+    public void endTick() {
+        if(!measuringTick) return;
+        measuringTick = false;
+        long updateTime = System.nanoTime() - tickStartTime;
+        long allocated = tickStartAllocated < 0 ? -1 : readAllocatedBytes() - tickStartAllocated;
+        long queryTime = tickQueryTime.sum();
+        long queries = tickQueries.sum();
+        long candidates = tickCandidates.sum();
+        if(enabled) {
+            updateTimes.add(updateTime);
+            queryTimes.add(queryTime);
+            queryCounts.add(queries);
+            candidateCounts.add(candidates);
+            allocatedBytes.add(Math.max(0, allocated));
+        }
+        if(tickEvent != null) {
+            tickEvent.end();
+            tickEvent.tick = tickCount;
+            tickEvent.queryTime = queryTime;
+            tickEvent.queries = (int)queries;
+            tickEvent.candidates = (int)candidates;
+            tickEvent.allocated = allocated;
+            tickEvent.commit();
+            tickEvent = null;
+        }
+    }
+
+    /**
+     * Called by the ObjectManager before painting.
+     */
+    public void beginPaint() {
+        boolean recording = PAINT_EVENT_TYPE.isEnabled();
+        measuringPaint = enabled || recording;
+        if(!measuringPaint) return;
+        paintObjects = 0;
+        if(recording) {
+            paintEvent = new PaintMetricsEvent();
+            paintEvent.begin();
+        }
+        paintStartTime = System.nanoTime();
+    }
+
+    /**
+     * Adds objects drawn to the current paint.
+     *
+     * @param objects Number of objects drawn.
+     */
+    public void countPainted(int objects) {
+        paintObjects += objects;
+    }
+
+    /**
+     * Called by the ObjectManager after painting.
+     */
+    public void endPaint() {
+        if(!measuringPaint) return;
+        measuringPaint = false;
+        if(enabled) {
+            paintTimes.add(System.nanoTime() - paintStartTime);
+            paintedCounts.add(paintObjects);
+        }
+        if(paintEvent != null) {
+            paintEvent.end();
+            paintEvent.objectsPainted = paintObjects;
+            paintEvent.commit();
+            paintEvent = null;
+        }
+    }
+
+    /**
+     * Gets the time of each tick spent in ObjectManager.update().
+     *
+     * @return History of update times in ns.
+     */
+    public MetricHistory getUpdateTimes() {
+        return updateTimes;
+    }
+
+    /**
+     * Gets the time of each tick spent in collision queries.
+     *
+     * @return History of query times in ns.
+     */
+    public MetricHistory getQueryTimes() {
+        return queryTimes;
+    }
+
+    /**
+     * Gets the number of collision queries made each tick.
+     *
+     * @return History of query counts.
+     */
+    public MetricHistory getQueryCounts() {
+        return queryCounts;
+    }
+
+    /**
+     * Gets the number of candidates looked at by collision queries each tick.
+     *
+     * @return History of candidate counts.
+     */
+    public MetricHistory getCandidateCounts() {
+        return candidateCounts;
+    }
+
+    /**
+     * Gets the bytes allocated each tick by the thread calling ObjectManager.update(). Allocation by
+     * worker threads during a parallel update is not included.
+     *
+     * @return History of allocated bytes.
+     */
+    public MetricHistory getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the time of each frame spent in ObjectManager.paint().
+     *
+     * @return History of paint times in ns.
+     */
+    public MetricHistory getPaintTimes() {
+        return paintTimes;
+    }
+
+    /**
+     * Gets the number of objects drawn each frame.
+     *
+     * @return History of painted object counts.
+     */
+    public MetricHistory getPaintedCounts() {
+        return paintedCounts;
+    }
+
+    /**
+     * Tests if the JVM can report the bytes allocated by each thread.
+     *
+     * @return True if allocation is measured.
+     */
+    public static boolean isAllocationSupported() {
+        return ALLOCATION_BEAN != null;
+    }
+
+    /**
+     * Reads the bytes allocated so far by the current thread.
+     *
+     * @return The allocated bytes, or -1 when not supported.
+     */
+    private static long readAllocatedBytes() {
+        if(ALLOCATION_BEAN == null) return -1;
+        return ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Finds the bean used to read thread allocation, turning allocation measurement on if needed.
+     *
+     * @return The bean, or null if the JVM doesn't support measuring allocation.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        if(!allocationBean.isThreadAllocatedMemorySupported()) return null;
+        if(!allocationBean.isThreadAllocatedMemoryEnabled()) {
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return allocationBean;
+    }
+}
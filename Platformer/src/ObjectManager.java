@@ -1,6 +1,13 @@
 import java.awt.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * Platformer
@@ -10,44 +17,655 @@ import java.util.List;
  * Manages a collection of GameObjects and a Player object.
  */
 public class ObjectManager {
+    /**
+     * Default width and height of the cells in the spatial hash.
+     */
+    public static final int DEFAULT_CELL_SIZE = 80;
+    /**
+     * Default width and height of the cells in the occupancy grid.
+     */
+    public static final int DEFAULT_OCCUPANCY_CELL_SIZE = 16;
+    /**
+     * Smallest number of active objects that are integrated in parallel. Below this
+     * the cost of handing work to other threads outweighs the time saved.
+     */
+    public static final int PARALLEL_UPDATE_THRESHOLD = 256;
+    /**
+     * Orders objects by the order they were added so query results match a linear scan.
+     */
+    private static final Comparator<GameObject> ID_ORDER = Comparator.comparingInt(GameObject::getId);
+    /**
+     * Starting value for state hashes built with mixHash().
+     */
+    static final long HASH_SEED = 0xCBF29CE484222325L;
+
     /**
      * All the game objects that make up a map.
      */
     private List<GameObject> gameObjectList;
+    /**
+     * The game objects that are not static geometry in the order they were added.
+     */
+    private List<GameObject> dynamicObjectList;
+    /**
+     * The game objects that need updating each tick in the order they were added.
+     * Objects put to sleep stay in the list until the end of the next update.
+     */
+    private List<GameObject> activeObjectList;
+    /**
+     * Objects that have been woken and need adding back to the activeObjectList.
+     */
+    private List<GameObject> wokenObjectList;
+    /**
+     * When true some objects in the activeObjectList have been put to sleep and need removing.
+     */
+    private boolean activeListHasSleepers;
+    /**
+     * When true the integrate phase of update() runs on the common ForkJoinPool.
+     */
+    private boolean useParallelUpdate;
     /**
      * The player object.
      */
     private Player player;
+    /**
+     * Image of the static geometry drawn once and reused every frame.
+     */
+    private StaticLayerCache staticLayerCache;
+    /**
+     * When true static geometry is drawn from the staticLayerCache, otherwise every object is drawn.
+     */
+    private boolean useStaticLayerCache;
+    /**
+     * The static geometry grouped into batches drawn a material at a time.
+     */
+    private RenderBatches renderBatches;
+    /**
+     * When true static geometry not drawn from the staticLayerCache is drawn with the renderBatches.
+     */
+    private boolean useRenderBatches;
+    /**
+     * Area that has visibly changed since it was last cleared.
+     */
+    private DirtyRegion dirtyRegion;
+    /**
+     * Reusable rectangle for reading the clip bounds while painting.
+     */
+    private java.awt.Rectangle clipBounds;
+    /**
+     * Reusable copy of the clip bounds used to query the spatial hash while painting.
+     */
+    private Rectangle visibleBounds;
+    /**
+     * Reusable buffer of the objects found to be visible while painting.
+     */
+    private List<GameObject> paintBuffer;
+    /**
+     * Size of the world covering every object added and at least the size of the panel.
+     */
+    private int worldWidth, worldHeight;
+    /**
+     * Bounds and flags of the objects in gameObjectList stored in parallel arrays.
+     */
+    private EntityStore entityStore;
+    /**
+     * Grid of the objects in gameObjectList used to speed up collision queries.
+     */
+    private SpatialHash spatialHash;
+    /**
+     * Rasterised static terrain used to quickly rule out touching anything solid or ground.
+     */
+    private OccupancyGrid occupancyGrid;
+    /**
+     * Number of objects that are solid or ground but not static geometry, so are not in the occupancyGrid.
+     */
+    private int dynamicTerrainCount;
+    /**
+     * Reusable buffer used to find the terrain to add back to the occupancyGrid.
+     */
+    private List<GameObject> occupancyBuffer;
+    /**
+     * When true collision queries use the spatialHash, otherwise every object is tested.
+     */
+    private boolean useSpatialHash;
+    /**
+     * Broad phase for collisions between the objects in gameObjectList that need updating.
+     */
+    private SweepAndPrune sweepAndPrune;
+    /**
+     * Sends collision events to the handlers registered for each pair of types.
+     */
+    private CollisionDispatcher collisionDispatcher;
+    /**
+     * Measures the time spent updating, querying collisions and painting.
+     */
+    private Metrics metrics;
+    /**
+     * The identifier that will be given to the next object added.
+     */
+    private int nextId;
+    /**
+     * Increased every time objects are added or removed, so saved states can tell if they still match.
+     */
+    private int structureVersion;
+    /**
+     * Reusable buffer used by forEachObjectCollidedWith().
+     */
+    private List<GameObject> visitBuffer;
+    /**
+     * For each object id the last mark value it was given by getNewObjectsCollidedWith().
+     */
+    private int[] contactMarks;
+    /**
+     * Mark value used for the current getNewObjectsCollidedWith() query.
+     */
+    private int currentMark;
+
+    /**
+     * Callback used to visit collision query results without building a new list.
+     */
+    public interface CollisionVisitor {
+        /**
+         * Called once for each object found by the query.
+         *
+         * @param gameObject An object that intersects the query object.
+         */
+        void visit(GameObject gameObject);
+    }
 
     /**
-     * Initialises an empty map.
+     * Initialises an empty map using the spatial hash for collision queries.
      */
     public ObjectManager() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Initialises an empty map using the spatial hash for collision queries.
+     *
+     * @param cellSize Width and height of the cells in the spatial hash.
+     */
+    public ObjectManager(int cellSize) {
+        this(cellSize, DEFAULT_OCCUPANCY_CELL_SIZE);
+    }
+
+    /**
+     * Initialises an empty map using the spatial hash for collision queries.
+     *
+     * @param cellSize Width and height of the cells in the spatial hash.
+     * @param occupancyCellSize Width and height of the cells in the occupancy grid. Must be a power of 2.
+     */
+    public ObjectManager(int cellSize, int occupancyCellSize) {
         gameObjectList = new ArrayList<>();
+        dynamicObjectList = new ArrayList<>();
+        activeObjectList = new ArrayList<>();
+        wokenObjectList = new ArrayList<>();
+        activeListHasSleepers = false;
+        useParallelUpdate = false;
+        staticLayerCache = new StaticLayerCache();
+        useStaticLayerCache = true;
+        renderBatches = new RenderBatches();
+        useRenderBatches = true;
+        dirtyRegion = new DirtyRegion();
+        clipBounds = new java.awt.Rectangle();
+        visibleBounds = new Rectangle(0, 0, 0, 0);
+        paintBuffer = new ArrayList<>();
+        worldWidth = GamePanel.PANEL_WIDTH;
+        worldHeight = GamePanel.PANEL_HEIGHT;
+        entityStore = new EntityStore(this::flagsChanged);
+        spatialHash = new SpatialHash(cellSize, entityStore);
+        sweepAndPrune = new SweepAndPrune(entityStore);
+        occupancyGrid = new OccupancyGrid(occupancyCellSize);
+        dynamicTerrainCount = 0;
+        occupancyBuffer = new ArrayList<>();
+        useSpatialHash = true;
+        collisionDispatcher = new CollisionDispatcher();
+        metrics = new Metrics();
+        registerDefaultCollisionHandlers();
+        nextId = 0;
+        structureVersion = 0;
+        visitBuffer = new ArrayList<>();
+        contactMarks = new int[64];
+        currentMark = 0;
     }
 
     /**
-     * Updates all the game objects and the player.
+     * Registers the handlers for the player touching each of the standard objects, and
+     * a handler that calls collideWith() on every tick for any other CollisionTrigger.
+     */
+    private void registerDefaultCollisionHandlers() {
+        collisionDispatcher.register(Player.class, Collectible.class, new CollisionDispatcher.CollisionHandler<>() {
+            @Override
+            public void onEnter(Player player, Collectible collectible) {
+                if(collectible.collect(player)) {
+                    markDirty(collectible);
+                }
+            }
+        });
+        collisionDispatcher.register(Player.class, Spikes.class, new CollisionDispatcher.CollisionHandler<>() {
+            @Override
+            public void onEnter(Player player, Spikes spikes) {
+                spikes.hurt(player);
+            }
+        });
+        collisionDispatcher.register(Player.class, VictoryFlag.class, new CollisionDispatcher.CollisionHandler<>() {
+            @Override
+            public void onEnter(Player player, VictoryFlag victoryFlag) {
+                victoryFlag.reach(player);
+            }
+        });
+        collisionDispatcher.setTriggerHandler(new CollisionDispatcher.CollisionHandler<>() {
+            @Override
+            public void onEnter(GameObject object, GameObject trigger) {
+                onStay(object, trigger);
+            }
+
+            @Override
+            public void onStay(GameObject object, GameObject trigger) {
+                ((CollisionTrigger)trigger).collideWith(object);
+                // Triggers may change how they look when collided with
+                markDirty(trigger);
+            }
+        });
+    }
+
+    /**
+     * Gets the dispatcher that sends collision events to the handlers registered for each pair of types.
+     *
+     * @return The collision dispatcher.
+     */
+    public CollisionDispatcher getCollisionDispatcher() {
+        return collisionDispatcher;
+    }
+
+    /**
+     * Updates the game objects that need updating and are awake, then the player.
+     * Objects that never change are not visited, so the cost depends on how many
+     * objects are active rather than the size of the map.
+     * Each tick has two phases. First every awake object is integrated, in parallel when
+     * enabled, while the world is only read. Then each object is resolved one at a time
+     * in the order they were added and any that moved into other cells are moved in the
+     * spatial hash. The integrate phase always sees the world as it was at the start
+     * of the tick so the result is the same whether or not it runs in parallel.
      *
      * @param deltaTime Time since last update.
      */
     public void update(int deltaTime) {
-        gameObjectList.forEach(obj -> obj.update(deltaTime));
+        metrics.beginTick();
+        addWokenObjects();
+        integrateActiveObjects(deltaTime);
+        for(int i = 0; i < activeObjectList.size(); i++) {
+            GameObject gameObject = activeObjectList.get(i);
+            if(!gameObject.isSleeping()) {
+                gameObject.resolve(deltaTime);
+                spatialHash.update(gameObject);
+            }
+        }
+        if(activeListHasSleepers) {
+            activeListHasSleepers = false;
+            activeObjectList.removeIf(ObjectManager::removeIfSleeping);
+        }
         if(player != null) {
             player.update(deltaTime);
+            player.addMovementBounds(dirtyRegion);
+        }
+        metrics.endTick();
+    }
+
+    /**
+     * Gets the metrics measuring the time spent updating, querying collisions and painting.
+     *
+     * @return The metrics for this ObjectManager.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Runs the integrate phase for every awake object in the activeObjectList.
+     *
+     * @param deltaTime Time since last update.
+     */
+    private void integrateActiveObjects(int deltaTime) {
+        int count = activeObjectList.size();
+        if(useParallelUpdate && count >= PARALLEL_UPDATE_THRESHOLD) {
+            IntStream.range(0, count).parallel().forEach(i -> {
+                GameObject gameObject = activeObjectList.get(i);
+                if(!gameObject.isSleeping()) {
+                    gameObject.integrate(deltaTime);
+                }
+            });
+        } else {
+            for(int i = 0; i < count; i++) {
+                GameObject gameObject = activeObjectList.get(i);
+                if(!gameObject.isSleeping()) {
+                    gameObject.integrate(deltaTime);
+                }
+            }
         }
     }
 
+    /**
+     * Selects whether the integrate phase of update() is spread across several threads.
+     * Both modes give identical results as long as objects follow the rules of GameObject.integrate().
+     *
+     * @param useParallelUpdate When true objects are integrated in parallel when there are enough of them.
+     */
+    public void setUseParallelUpdate(boolean useParallelUpdate) {
+        this.useParallelUpdate = useParallelUpdate;
+    }
+
+    /**
+     * Gets whether the integrate phase of update() is spread across several threads.
+     *
+     * @return True if objects are integrated in parallel.
+     */
+    public boolean isUsingParallelUpdate() {
+        return useParallelUpdate;
+    }
+
+    /**
+     * Puts an object to sleep so it is no longer updated, or wakes it so it is updated again.
+     * Safe to call during update(). Has no effect on objects that don't need updating.
+     *
+     * @param gameObject The object to change.
+     * @param sleeping True to put the object to sleep, false to wake it.
+     */
+    public void setSleeping(GameObject gameObject, boolean sleeping) {
+        if(gameObject.isSleeping() == sleeping) return;
+        gameObject.setSleeping(sleeping);
+        if(gameObject == player || gameObject.getId() < 0 || !gameObject.needsUpdate()) return;
+        if(sleeping) {
+            activeListHasSleepers = true;
+        } else if(!gameObject.isInActiveList()) {
+            wokenObjectList.add(gameObject);
+        }
+    }
+
+    /**
+     * Gets the number of objects in the list of objects to update.
+     *
+     * @return Number of active objects, not including the player.
+     */
+    public int getActiveObjectCount() {
+        return activeObjectList.size();
+    }
+
+    /**
+     * Adds any objects woken since the last update back into the activeObjectList keeping it in order of id.
+     */
+    private void addWokenObjects() {
+        if(wokenObjectList.isEmpty()) return;
+        for(int i = 0; i < wokenObjectList.size(); i++) {
+            GameObject gameObject = wokenObjectList.get(i);
+            if(gameObject.isSleeping() || gameObject.isInActiveList()) continue;
+            int index = Collections.binarySearch(activeObjectList, gameObject, ID_ORDER);
+            activeObjectList.add(-index - 1, gameObject);
+            gameObject.setInActiveList(true);
+        }
+        wokenObjectList.clear();
+    }
+
+    /**
+     * Used to remove sleeping objects from the activeObjectList.
+     *
+     * @param gameObject Object in the list.
+     * @return True if the object is sleeping and has been marked as removed from the list.
+     */
+    private static boolean removeIfSleeping(GameObject gameObject) {
+        if(!gameObject.isSleeping()) return false;
+        gameObject.setInActiveList(false);
+        return true;
+    }
+
     /**
      * Draws all the game objects and the player.
      *
      * @param g Reference to the Graphics object for rendering.
      */
     public void paint(Graphics g) {
-        gameObjectList.forEach(obj -> obj.paint(g));
+        paint(g, 1);
+    }
+
+    /**
+     * Draws all the game objects and the player with the player interpolated
+     * between its previous and current position. Objects outside the clip are skipped.
+     * When the static layer is not cached the visible objects are found with the spatial
+     * hash so the cost depends on what is on screen rather than the size of the world.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param alpha Fraction of a step between the previous position (0) and current position (1).
+     */
+    public void paint(Graphics g, double alpha) {
+        metrics.beginPaint();
+        boolean hasClip = g.getClip() != null;
+        if(hasClip) {
+            g.getClipBounds(clipBounds);
+        }
+        int painted;
+        if(useStaticLayerCache && staticLayerCache.paint(g, gameObjectList)) {
+            // The static geometry is all in the cached layer so only draw the rest
+            painted = paintObjects(g, dynamicObjectList, hasClip);
+        } else if(useRenderBatches) {
+            // The static geometry is drawn a material at a time and then the rest on top
+            painted = renderBatches.paint(g, gameObjectList, hasClip ? clipBounds : null)
+                    + paintObjects(g, dynamicObjectList, hasClip);
+        } else if(hasClip && useSpatialHash) {
+            visibleBounds.position.setPosition(clipBounds.x, clipBounds.y);
+            visibleBounds.setSize(clipBounds.width, clipBounds.height);
+            paintBuffer.clear();
+            spatialHash.query(visibleBounds, paintBuffer);
+            // Draw in the order objects were added so overlapping objects layer the same way
+            paintBuffer.sort(ID_ORDER);
+            painted = paintObjects(g, paintBuffer, false);
+            paintBuffer.clear();
+        } else if(hasClip) {
+            paintBuffer.clear();
+            findVisibleObjects(paintBuffer);
+            painted = paintObjects(g, paintBuffer, false);
+            paintBuffer.clear();
+        } else {
+            painted = paintObjects(g, gameObjectList, false);
+        }
         if(player != null) {
+            player.setRenderAlpha(alpha);
             player.paint(g);
+            painted++;
+        }
+        metrics.countPainted(painted);
+        metrics.endPaint();
+    }
+
+    /**
+     * Draws the objects that are at least partly inside the clip.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param objects Objects to draw in order.
+     * @param hasClip When false every object is drawn.
+     * @return The number of objects drawn.
+     */
+    private int paintObjects(Graphics g, List<GameObject> objects, boolean hasClip) {
+        int painted = 0;
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(!hasClip || isInsideClip(object)) {
+                object.paint(g);
+                painted++;
+            }
+        }
+        return painted;
+    }
+
+    /**
+     * Scans the bounds in the entity store for objects that are at least partly inside the clip.
+     *
+     * @param result List to fill with the visible objects in the order they were added.
+     */
+    private void findVisibleObjects(List<GameObject> result) {
+        int clipX = clipBounds.x;
+        int clipY = clipBounds.y;
+        int clipWidth = clipBounds.width;
+        int clipHeight = clipBounds.height;
+        GameObject[] objects = entityStore.objects;
+        for(int i = 0; i < entityStore.size(); i++) {
+            if(objects[i] != null && entityStore.isIntersecting(i, clipX, clipY, clipWidth, clipHeight)) {
+                result.add(objects[i]);
+            }
+        }
+        // Entity indices are reused so restore the order objects were added
+        result.sort(ID_ORDER);
+    }
+
+    /**
+     * Tests if any part of the object, including a right/bottom outline, is inside the clipBounds.
+     *
+     * @param object Object to test.
+     * @return True if the object needs to be drawn.
+     */
+    private boolean isInsideClip(GameObject object) {
+        return object.position.getX() <= clipBounds.x + clipBounds.width
+                && object.position.getY() <= clipBounds.y + clipBounds.height
+                && object.position.getX() + object.getWidth() >= clipBounds.x
+                && object.position.getY() + object.getHeight() >= clipBounds.y;
+    }
+
+    /**
+     * Gets the width of the world, which covers every object added and is at least the width of the panel.
+     *
+     * @return Width of the world.
+     */
+    public int getWorldWidth() {
+        return worldWidth;
+    }
+
+    /**
+     * Gets the height of the world, which covers every object added and is at least the height of the panel.
+     *
+     * @return Height of the world.
+     */
+    public int getWorldHeight() {
+        return worldHeight;
+    }
+
+    /**
+     * Gets the area that has visibly changed since the region was last cleared.
+     * Updates and map changes add to it and the caller clears it after repainting.
+     *
+     * @return The area that needs to be repainted.
+     */
+    public DirtyRegion getDirtyRegion() {
+        return dirtyRegion;
+    }
+
+    /**
+     * Marks the area covered by an object as needing to be repainted.
+     *
+     * @param rectangle The area that has changed.
+     */
+    public void markDirty(Rectangle rectangle) {
+        dirtyRegion.add(rectangle);
+    }
+
+    /**
+     * Records the current state of the player and collectibles so the level can be restarted in place.
+     *
+     * @return A snapshot of the level. Requires a Player.
+     */
+    public LevelSnapshot createLevelSnapshot() {
+        return new LevelSnapshot(this, gameObjectList);
+    }
+
+    /**
+     * Records the level as it would be freshly loaded from a text map, with the player starting
+     * at the specified position and every collectible not yet collected.
+     *
+     * @param playerX X coordinate the player starts at.
+     * @param playerY Y coordinate the player starts at.
+     * @return A snapshot of the level. Requires a Player.
+     */
+    public LevelSnapshot createLevelSnapshot(int playerX, int playerY) {
+        return new LevelSnapshot(this, gameObjectList, playerX, playerY);
+    }
+
+    /**
+     * Gets every object except the player in the order they were added.
+     *
+     * @return An unmodifiable view of the objects.
+     */
+    public List<GameObject> getObjects() {
+        return Collections.unmodifiableList(gameObjectList);
+    }
+
+    /**
+     * Writes the state of the player and every object that is not static geometry so it can
+     * be restored with readState(). Static geometry never changes so it is not written.
+     *
+     * @param buffer Buffer to write the state to.
+     * @throws java.nio.BufferOverflowException If the buffer is too small.
+     */
+    public void writeState(ByteBuffer buffer) {
+        buffer.putInt(structureVersion);
+        buffer.put((byte)(player != null ? 1 : 0));
+        if(player != null) {
+            player.writeState(buffer);
+        }
+        for(int i = 0; i < dynamicObjectList.size(); i++) {
+            dynamicObjectList.get(i).writeState(buffer);
+        }
+    }
+
+    /**
+     * Restores a state written by writeState(). The state can only be restored while the
+     * same objects are in the map, so it fails if any objects have been added or removed since.
+     *
+     * @param buffer Buffer to read the state from.
+     * @return True if the state was restored, false if the objects in the map have changed.
+     */
+    public boolean readState(ByteBuffer buffer) {
+        if(buffer.getInt() != structureVersion) return false;
+        if(buffer.get() != 0) {
+            player.readState(buffer);
+        }
+        for(int i = 0; i < dynamicObjectList.size(); i++) {
+            GameObject gameObject = dynamicObjectList.get(i);
+            gameObject.readState(buffer);
+            spatialHash.update(gameObject);
+        }
+        dirtyRegion.markAll();
+        return true;
+    }
+
+    /**
+     * Gets a hash of the position of every object, which collectibles have been collected,
+     * and the state of the player. Used to check that a replay ended in the same state.
+     *
+     * @return A hash of the state of the map.
+     */
+    public long getStateHash() {
+        long hash = HASH_SEED;
+        for(int i = 0; i < gameObjectList.size(); i++) {
+            GameObject gameObject = gameObjectList.get(i);
+            hash = mixHash(hash, gameObject.position.getX());
+            hash = mixHash(hash, gameObject.position.getY());
+            if(gameObject instanceof Collectible) {
+                hash = mixHash(hash, ((Collectible)gameObject).isCollected() ? 1 : 0);
+            }
+        }
+        if(player != null) {
+            hash = mixHash(hash, player.getStateHash());
         }
+        return hash;
+    }
+
+    /**
+     * Adds a value to a state hash.
+     *
+     * @param hash The hash so far, starting from HASH_SEED.
+     * @param value The value to add.
+     * @return The new hash.
+     */
+    static long mixHash(long hash, long value) {
+        return (hash ^ value) * 0x100000001B3L;
     }
 
     /**
@@ -67,12 +685,376 @@ public class ObjectManager {
      */
     public List<GameObject> getObjectsCollidedWith(GameObject objectToTest) {
         List<GameObject> result = new ArrayList<>();
-        for (GameObject gameObject : gameObjectList) {
-            if(objectToTest != gameObject && objectToTest.isIntersecting(gameObject)) {
-                result.add(gameObject);
+        getObjectsCollidedWith(objectToTest, result);
+        return result;
+    }
+
+    /**
+     * Fills a caller supplied list with the objects that have collided with a specific
+     * other object or area. Reusing the same list avoids allocating during each query.
+     * Only reads the world so it is safe to call from GameObject.integrate().
+     *
+     * @param objectToTest Object or area to test collisions against.
+     * @param result List that is cleared and then filled with all objects currently colliding with the specified object.
+     */
+    public void getObjectsCollidedWith(Rectangle objectToTest, List<GameObject> result) {
+        boolean measuring = metrics.isMeasuringTick();
+        long startTime = measuring ? System.nanoTime() : 0;
+        int candidates;
+        result.clear();
+        if(useSpatialHash) {
+            candidates = spatialHash.query(objectToTest, result);
+            // Keep the same order as the linear scan so behaviour doesn't depend on the mode
+            sortById(result);
+        } else {
+            int testX = objectToTest.position.getX();
+            int testY = objectToTest.position.getY();
+            int testWidth = objectToTest.getWidth();
+            int testHeight = objectToTest.getHeight();
+            GameObject[] objects = entityStore.objects;
+            candidates = entityStore.size();
+            for(int i = 0; i < candidates; i++) {
+                if(objects[i] != null && objects[i] != objectToTest
+                        && entityStore.isIntersecting(i, testX, testY, testWidth, testHeight)) {
+                    result.add(objects[i]);
+                }
             }
+            sortById(result);
         }
-        return result;
+        if(measuring) {
+            metrics.recordQuery(System.nanoTime() - startTime, candidates);
+        }
+    }
+
+    /**
+     * Sorts query results by id in place. List.sort() allocates a work array once there are
+     * 32 or more objects, so an insertion sort is used to keep queries allocation free.
+     * Results are small and the linear scan finds them nearly in order already.
+     *
+     * @param result The list to sort.
+     */
+    private static void sortById(List<GameObject> result) {
+        for(int i = 1; i < result.size(); i++) {
+            GameObject gameObject = result.get(i);
+            int id = gameObject.getId();
+            int j = i - 1;
+            while(j >= 0 && result.get(j).getId() > id) {
+                result.set(j + 1, result.get(j));
+                j--;
+            }
+            result.set(j + 1, gameObject);
+        }
+    }
+
+    /**
+     * Calls the visitor for each pair of intersecting objects among those that need updating,
+     * such as enemies and projectiles. Pairs are found with a sweep and prune along the x axis
+     * so the cost grows close to linearly with the number of moving objects. The player is not included.
+     *
+     * @param visitor Called once for each intersecting pair.
+     */
+    public void forEachDynamicPair(SweepAndPrune.PairVisitor visitor) {
+        sweepAndPrune.update();
+        sweepAndPrune.findPairs(visitor);
+    }
+
+    /**
+     * Calls the visitor for each object that has collided with a specific other object.
+     * The visitor must not start another forEachObjectCollidedWith() query.
+     *
+     * @param objectToTest Object to test collisions against.
+     * @param visitor Called once for each colliding object in the order they were added.
+     */
+    public void forEachObjectCollidedWith(GameObject objectToTest, CollisionVisitor visitor) {
+        getObjectsCollidedWith(objectToTest, visitBuffer);
+        for(int i = 0; i < visitBuffer.size(); i++) {
+            visitor.visit(visitBuffer.get(i));
+        }
+        visitBuffer.clear();
+    }
+
+    /**
+     * Finds the objects colliding with a specific other object that were not in the
+     * previous result. The previous objects are marked by id so this takes time
+     * proportional to the size of the two results rather than their product.
+     *
+     * @param objectToTest Object to test collisions against.
+     * @param previous Objects from an earlier query that should be ignored.
+     * @param result List that is cleared and then filled with the newly colliding objects.
+     */
+    public void getNewObjectsCollidedWith(GameObject objectToTest, List<GameObject> previous, List<GameObject> result) {
+        if(contactMarks.length < nextId) {
+            contactMarks = Arrays.copyOf(contactMarks, Math.max(nextId, contactMarks.length * 2));
+        }
+        // Start the marks again from scratch if the counter would overflow
+        if(currentMark == Integer.MAX_VALUE) {
+            Arrays.fill(contactMarks, 0);
+            currentMark = 0;
+        }
+        currentMark++;
+        for(int i = 0; i < previous.size(); i++) {
+            contactMarks[previous.get(i).getId()] = currentMark;
+        }
+        getObjectsCollidedWith(objectToTest, result);
+        int kept = 0;
+        for(int i = 0; i < result.size(); i++) {
+            GameObject gameObject = result.get(i);
+            if(contactMarks[gameObject.getId()] != currentMark) {
+                result.set(kept++, gameObject);
+            }
+        }
+        while(result.size() > kept) {
+            result.remove(result.size() - 1);
+        }
+    }
+
+    /**
+     * Selects how collision queries are answered. The spatial hash is kept up to
+     * date in both modes so it can be switched at any time.
+     *
+     * @param useSpatialHash When true queries use the spatial hash, when false every object is tested.
+     */
+    public void setUseSpatialHash(boolean useSpatialHash) {
+        this.useSpatialHash = useSpatialHash;
+    }
+
+    /**
+     * Gets whether collision queries are using the spatial hash.
+     *
+     * @return True if the spatial hash is used, false if every object is tested.
+     */
+    public boolean isUsingSpatialHash() {
+        return useSpatialHash;
+    }
+
+    /**
+     * Selects how static geometry is drawn.
+     *
+     * @param useStaticLayerCache When true static geometry is drawn once into a cached image, when false every object is drawn each frame.
+     */
+    public void setUseStaticLayerCache(boolean useStaticLayerCache) {
+        this.useStaticLayerCache = useStaticLayerCache;
+    }
+
+    /**
+     * Selects how static geometry is drawn when it isn't drawn from the cached image.
+     *
+     * @param useRenderBatches When true static geometry is drawn a material at a time, when false an object at a time.
+     */
+    public void setUseRenderBatches(boolean useRenderBatches) {
+        this.useRenderBatches = useRenderBatches;
+    }
+
+    /**
+     * Forces the cached image and batches of the static geometry to be rebuilt next time they are drawn.
+     */
+    public void invalidateStaticLayer() {
+        staticLayerCache.invalidate();
+        renderBatches.invalidate();
+    }
+
+    /**
+     * Adds an object to every cell of the spatial hash its bounds overlap. Used when a
+     * prebuilt index can't be trusted.
+     *
+     * @param gameObject Object already added with addObject() without the spatial hash.
+     */
+    public void addToSpatialHash(GameObject gameObject) {
+        spatialHash.insert(gameObject);
+    }
+
+    /**
+     * Removes the specified game objects. The Player can't be removed this way.
+     *
+     * @param gameObjects Game objects to remove.
+     */
+    public void removeObjects(List<GameObject> gameObjects) {
+        if(gameObjects.isEmpty()) return;
+        structureVersion++;
+        Set<GameObject> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<GameObject> removedTerrain = new ArrayList<>();
+        for(GameObject gameObject : gameObjects) {
+            if(gameObject == player) continue;
+            if(gameObject.getEntityIndex() < 0 || !toRemove.add(gameObject)) continue;
+            spatialHash.remove(gameObject);
+            if(gameObject.needsUpdate()) {
+                sweepAndPrune.remove(gameObject);
+            }
+            entityStore.remove(gameObject);
+            collisionDispatcher.removeObject(gameObject);
+            if(gameObject.isStaticGeometry()) {
+                staticLayerCache.invalidate(gameObject);
+                renderBatches.invalidate(gameObject);
+            }
+            if(isTerrain(gameObject)) {
+                if(gameObject.isStaticGeometry()) {
+                    removedTerrain.add(gameObject);
+                } else {
+                    dynamicTerrainCount--;
+                }
+            }
+            dirtyRegion.add(gameObject);
+        }
+        gameObjectList.removeIf(toRemove::contains);
+        dynamicObjectList.removeIf(toRemove::contains);
+        activeObjectList.removeIf(toRemove::contains);
+        wokenObjectList.removeIf(toRemove::contains);
+        for(int i = 0; i < removedTerrain.size(); i++) {
+            rebuildOccupancy(removedTerrain.get(i));
+        }
+    }
+
+    /**
+     * Moves and resizes an object already added, updating the spatial hash, the cached static
+     * layer and the render batches for only the area it covered before and after. The Player
+     * can't be moved this way.
+     *
+     * @param gameObject Object to move.
+     * @param x New x coordinate of the top left corner.
+     * @param y New y coordinate of the top left corner.
+     * @param width New width.
+     * @param height New height.
+     */
+    public void moveObject(GameObject gameObject, int x, int y, int width, int height) {
+        if(gameObject == player || gameObject.getEntityIndex() < 0) return;
+        // Saved states don't include static geometry so they can't be restored after it changes
+        structureVersion++;
+        dirtyRegion.add(gameObject);
+        if(gameObject.isStaticGeometry()) {
+            staticLayerCache.invalidate(gameObject);
+            renderBatches.invalidate(gameObject);
+        }
+        Rectangle oldBounds = new Rectangle(gameObject.position.getX(), gameObject.position.getY(),
+                gameObject.getWidth(), gameObject.getHeight());
+        gameObject.position.setPosition(x, y);
+        gameObject.setSize(width, height);
+        spatialHash.update(gameObject);
+        dirtyRegion.add(gameObject);
+        if(gameObject.isStaticGeometry()) {
+            staticLayerCache.invalidate(gameObject);
+            renderBatches.invalidate(gameObject);
+            if(isTerrain(gameObject)) {
+                rebuildOccupancy(oldBounds);
+                occupancyGrid.add(gameObject, !gameObject.canEnter(), gameObject.isGround());
+            }
+        }
+        worldWidth = Math.max(worldWidth, x + width);
+        worldHeight = Math.max(worldHeight, y + height);
+    }
+
+    /**
+     * Moves an object that has changed whether it is static geometry, solid or ground between
+     * the static layer and the dynamic objects, and updates the occupancy grid to match.
+     * Called by the EntityStore when an added object changes its flags.
+     *
+     * @param gameObject The object that changed.
+     * @param oldFlags The flags the object had before the change.
+     */
+    private void flagsChanged(GameObject gameObject, int oldFlags) {
+        boolean wasStatic = (oldFlags & EntityStore.FLAG_STATIC) != 0;
+        boolean wasTerrain = (oldFlags & (EntityStore.FLAG_SOLID | EntityStore.FLAG_GROUND)) != 0;
+        boolean isStatic = gameObject.isStaticGeometry();
+        boolean isTerrain = isTerrain(gameObject);
+        if(wasStatic != isStatic) {
+            // Saved states only include the dynamic objects so they can't be restored after this
+            structureVersion++;
+            dirtyRegion.add(gameObject);
+            staticLayerCache.invalidate(gameObject);
+            renderBatches.invalidate(gameObject);
+            if(isStatic) {
+                dynamicObjectList.remove(gameObject);
+            } else {
+                // Keep the dynamic objects in the order they were added so they layer the same way
+                int index = Collections.binarySearch(dynamicObjectList, gameObject, ID_ORDER);
+                dynamicObjectList.add(-index - 1, gameObject);
+            }
+        }
+
+        if(wasTerrain && !wasStatic) {
+            dynamicTerrainCount--;
+        }
+        if(isTerrain && !isStatic) {
+            dynamicTerrainCount++;
+        }
+        if(wasTerrain && wasStatic) {
+            // Clears the old solid and ground bits and adds the object back if it is still static terrain
+            rebuildOccupancy(gameObject);
+        } else if(isTerrain && isStatic) {
+            occupancyGrid.add(gameObject, !gameObject.canEnter(), gameObject.isGround());
+        }
+    }
+
+    /**
+     * Tests if the bounds are definitely not touching any object that can't be entered. This is a
+     * few bit tests of the occupancy grid rather than a collision query, but may report false when
+     * nothing is touched as the grid is not exact. Always false while any object that is solid or
+     * ground is not static geometry, as those are not in the grid.
+     *
+     * @param rectangle Bounds to test.
+     * @return True if nothing solid touches the bounds, false if something may.
+     */
+    public boolean isClearOfSolids(Rectangle rectangle) {
+        return dynamicTerrainCount == 0 && !occupancyGrid.maybeSolid(rectangle);
+    }
+
+    /**
+     * Tests if the bounds are definitely not touching any ground. Like isClearOfSolids() this
+     * may report false when nothing is touched.
+     *
+     * @param rectangle Bounds to test.
+     * @return True if no ground touches the bounds, false if some may.
+     */
+    public boolean isClearOfGround(Rectangle rectangle) {
+        return dynamicTerrainCount == 0 && !occupancyGrid.maybeGround(rectangle);
+    }
+
+    /**
+     * Tests if an object belongs in the occupancy grid or dynamicTerrainCount.
+     *
+     * @param gameObject Object to test.
+     * @return True if the object is solid or ground.
+     */
+    private static boolean isTerrain(GameObject gameObject) {
+        return !gameObject.canEnter() || gameObject.isGround();
+    }
+
+    /**
+     * Clears the cells of the occupancy grid under terrain that has gone and adds back
+     * any remaining static terrain touching those cells.
+     *
+     * @param bounds Bounds of the terrain that was removed or moved away.
+     */
+    private void rebuildOccupancy(Rectangle bounds) {
+        occupancyGrid.clearCells(bounds);
+        occupancyBuffer.clear();
+        spatialHash.query(occupancyGrid.getCellBounds(bounds), occupancyBuffer);
+        for(int i = 0; i < occupancyBuffer.size(); i++) {
+            GameObject gameObject = occupancyBuffer.get(i);
+            if(gameObject.isStaticGeometry() && isTerrain(gameObject)) {
+                occupancyGrid.add(gameObject, !gameObject.canEnter(), gameObject.isGround());
+            }
+        }
+    }
+
+    /**
+     * Adds an object to a single cell of the spatial hash. Used with a prebuilt index
+     * that lists every cell the object's bounds overlap.
+     *
+     * @param cellX Cell index along the x axis.
+     * @param cellY Cell index along the y axis.
+     * @param gameObject Object already added with addObject() to add to the cell.
+     */
+    public void addToSpatialHashCell(int cellX, int cellY, GameObject gameObject) {
+        spatialHash.insertIntoCell(cellX, cellY, gameObject);
+    }
+
+    /**
+     * Gets the width and height of the cells in the spatial hash.
+     *
+     * @return The cell size in pixels.
+     */
+    public int getCellSize() {
+        return spatialHash.getCellSize();
     }
 
     /**
@@ -80,7 +1062,24 @@ public class ObjectManager {
      */
     public void clearObjects() {
         gameObjectList.clear();
+        dynamicObjectList.clear();
+        activeObjectList.clear();
+        wokenObjectList.clear();
+        activeListHasSleepers = false;
+        staticLayerCache.invalidate();
+        renderBatches.invalidate();
+        dirtyRegion.markAll();
+        spatialHash.clear();
+        sweepAndPrune.clear();
+        occupancyGrid.clear();
+        dynamicTerrainCount = 0;
+        entityStore.clear();
+        collisionDispatcher.clearContacts();
         player = null;
+        nextId = 0;
+        structureVersion++;
+        worldWidth = GamePanel.PANEL_WIDTH;
+        worldHeight = GamePanel.PANEL_HEIGHT;
     }
 
     /**
@@ -89,10 +1088,49 @@ public class ObjectManager {
      * @param gameObject Game object to add.
      */
     public void addObject(GameObject gameObject) {
+        addObject(gameObject, true);
+    }
+
+    /**
+     * Adds the specified game object. If it is a player it will replace the current player.
+     * Objects not added to the spatial hash must be added to their cells with addToSpatialHashCell().
+     *
+     * @param gameObject Game object to add.
+     * @param addToSpatialHash When true the object is added to every cell its bounds overlap.
+     */
+    public void addObject(GameObject gameObject, boolean addToSpatialHash) {
+        gameObject.setId(nextId++);
+        structureVersion++;
+        worldWidth = Math.max(worldWidth, gameObject.position.getX() + gameObject.getWidth());
+        worldHeight = Math.max(worldHeight, gameObject.position.getY() + gameObject.getHeight());
         if(gameObject instanceof Player) {
             player = (Player)gameObject;
         } else {
             gameObjectList.add(gameObject);
+            entityStore.add(gameObject);
+            if(gameObject.needsUpdate()) {
+                sweepAndPrune.add(gameObject);
+                if(!gameObject.isSleeping()) {
+                    activeObjectList.add(gameObject);
+                    gameObject.setInActiveList(true);
+                }
+            }
+            if(addToSpatialHash) {
+                spatialHash.insert(gameObject);
+            }
+            if(gameObject.isStaticGeometry()) {
+                staticLayerCache.invalidate(gameObject);
+                renderBatches.invalidate(gameObject);
+            } else {
+                dynamicObjectList.add(gameObject);
+            }
+            if(isTerrain(gameObject)) {
+                if(gameObject.isStaticGeometry()) {
+                    occupancyGrid.add(gameObject, !gameObject.canEnter(), gameObject.isGround());
+                } else {
+                    dynamicTerrainCount++;
+                }
+            }
         }
     }
 }
@@ -0,0 +1,284 @@
+import java.util.Arrays;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * OccupancyGrid class:
+ * A rasterised copy of the static terrain stored as two packed bitsets, one for
+ * cells touched by something solid and one for cells touched by ground. Each bit
+ * is one square cell and each row of cells is a run of 64 bit words, so testing
+ * an area is a few masked word tests per row instead of a collision query. A set
+ * bit only means something may be there, but a clear bit means nothing is, so the
+ * grid is used as an early-out before the object-level queries. The grid covers
+ * the area from (0,0) and grows to fit the terrain added. If terrain is added
+ * where the grid can't cover it every area is reported as possibly occupied.
+ * The cell size is a power of 2 so cells are found with a shift rather than a division.
+ */
+public class OccupancyGrid {
+    /**
+     * Largest number of cells the grid may have before it gives up and reports everything as occupied.
+     */
+    private static final long MAX_CELLS = 1L << 26;
+
+    /**
+     * Width and height of each cell in pixels.
+     */
+    private final int cellSize;
+    /**
+     * Number of bits to shift a coordinate right by to get its cell.
+     */
+    private final int cellShift;
+    /**
+     * Number of columns and rows of cells covered.
+     */
+    private int columns, rows;
+    /**
+     * Number of 64 bit words in each row.
+     */
+    private int wordsPerRow;
+    /**
+     * Bit for each cell touched by an object that can't be entered.
+     */
+    private long[] solid;
+    /**
+     * Bit for each cell touched by an object that is ground.
+     */
+    private long[] ground;
+    /**
+     * When true some terrain could not be stored so every area is reported as possibly occupied.
+     */
+    private boolean overflowed;
+
+    /**
+     * Creates an empty grid.
+     *
+     * @param cellSize Width and height of each cell in pixels. Must be a power of 2.
+     */
+    public OccupancyGrid(int cellSize) {
+        if(cellSize <= 0 || Integer.bitCount(cellSize) != 1) {
+            throw new IllegalArgumentException("Cell size must be a positive power of 2: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        cellShift = Integer.numberOfTrailingZeros(cellSize);
+        clear();
+    }
+
+    /**
+     * Gets the width and height of each cell.
+     *
+     * @return The cell size in pixels.
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Removes all terrain.
+     */
+    public void clear() {
+        columns = 0;
+        rows = 0;
+        wordsPerRow = 0;
+        solid = new long[0];
+        ground = new long[0];
+        overflowed = false;
+    }
+
+    /**
+     * Marks every cell that the bounds touch, growing the grid if needed. Edges count as touching
+     * to match Rectangle.isIntersecting().
+     *
+     * @param rectangle Bounds of the terrain.
+     * @param isSolid True if the terrain can't be entered.
+     * @param isGround True if the terrain is ground.
+     */
+    public void add(Rectangle rectangle, boolean isSolid, boolean isGround) {
+        if(overflowed || (!isSolid && !isGround)) return;
+        if(rectangle.position.getX() < 0 || rectangle.position.getY() < 0) {
+            overflowed = true;
+            return;
+        }
+        int maxColumn = toCell(rectangle.position.getX() + rectangle.getWidth());
+        int maxRow = toCell(rectangle.position.getY() + rectangle.getHeight());
+        if(maxColumn >= columns || maxRow >= rows) {
+            grow(maxColumn + 1, maxRow + 1);
+            if(overflowed) return;
+        }
+        int minColumn = toCell(rectangle.position.getX());
+        int minRow = toCell(rectangle.position.getY());
+        if(isSolid) {
+            setCells(solid, minColumn, minRow, maxColumn, maxRow, true);
+        }
+        if(isGround) {
+            setCells(ground, minColumn, minRow, maxColumn, maxRow, true);
+        }
+    }
+
+    /**
+     * Clears every cell that the bounds touch. Any other terrain touching those cells must be
+     * added again, which is easiest with the bounds returned by getCellBounds().
+     *
+     * @param rectangle Bounds of terrain that has been removed.
+     */
+    public void clearCells(Rectangle rectangle) {
+        if(overflowed) return;
+        int minColumn = Math.max(0, toCell(rectangle.position.getX()));
+        int minRow = Math.max(0, toCell(rectangle.position.getY()));
+        int maxColumn = Math.min(columns - 1, toCell(rectangle.position.getX() + rectangle.getWidth()));
+        int maxRow = Math.min(rows - 1, toCell(rectangle.position.getY() + rectangle.getHeight()));
+        setCells(solid, minColumn, minRow, maxColumn, maxRow, false);
+        setCells(ground, minColumn, minRow, maxColumn, maxRow, false);
+    }
+
+    /**
+     * Gets the area covered by all the cells that the bounds touch, so anything touching those
+     * cells also touches the area.
+     *
+     * @param rectangle Bounds to expand.
+     * @return The bounds expanded out to the edges of the cells.
+     */
+    public Rectangle getCellBounds(Rectangle rectangle) {
+        int minColumn = toCell(rectangle.position.getX());
+        int minRow = toCell(rectangle.position.getY());
+        int maxColumn = toCell(rectangle.position.getX() + rectangle.getWidth());
+        int maxRow = toCell(rectangle.position.getY() + rectangle.getHeight());
+        return new Rectangle(minColumn * cellSize, minRow * cellSize,
+                (maxColumn - minColumn + 1) * cellSize - 1, (maxRow - minRow + 1) * cellSize - 1);
+    }
+
+    /**
+     * Tests if any solid terrain may touch the bounds.
+     *
+     * @param rectangle Bounds to test.
+     * @return False if no solid terrain touches the bounds, true if some may.
+     */
+    public boolean maybeSolid(Rectangle rectangle) {
+        return isAnySet(solid, rectangle);
+    }
+
+    /**
+     * Tests if any ground may touch the bounds.
+     *
+     * @param rectangle Bounds to test.
+     * @return False if no ground touches the bounds, true if some may.
+     */
+    public boolean maybeGround(Rectangle rectangle) {
+        return isAnySet(ground, rectangle);
+    }
+
+    /**
+     * Tests if any of the cells the bounds touch are set. Cells outside the grid have nothing in them.
+     *
+     * @param bits The bitset to test.
+     * @param rectangle Bounds to test.
+     * @return True if any cell is set, or the grid has overflowed.
+     */
+    private boolean isAnySet(long[] bits, Rectangle rectangle) {
+        if(overflowed) return true;
+        int minColumn = Math.max(0, toCell(rectangle.position.getX()));
+        int minRow = Math.max(0, toCell(rectangle.position.getY()));
+        int maxColumn = Math.min(columns - 1, toCell(rectangle.position.getX() + rectangle.getWidth()));
+        int maxRow = Math.min(rows - 1, toCell(rectangle.position.getY() + rectangle.getHeight()));
+        if(minColumn > maxColumn || minRow > maxRow) return false;
+        int firstWord = minColumn >>> 6;
+        int lastWord = maxColumn >>> 6;
+        long firstMask = -1L << minColumn;
+        long lastMask = -1L >>> (63 - (maxColumn & 63));
+        for(int row = minRow; row <= maxRow; row++) {
+            int rowStart = row * wordsPerRow;
+            if(firstWord == lastWord) {
+                if((bits[rowStart + firstWord] & firstMask & lastMask) != 0) return true;
+                continue;
+            }
+            if((bits[rowStart + firstWord] & firstMask) != 0) return true;
+            for(int word = firstWord + 1; word < lastWord; word++) {
+                if(bits[rowStart + word] != 0) return true;
+            }
+            if((bits[rowStart + lastWord] & lastMask) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets or clears a block of cells that are all inside the grid.
+     *
+     * @param bits The bitset to change.
+     * @param minColumn First column.
+     * @param minRow First row.
+     * @param maxColumn Last column.
+     * @param maxRow Last row.
+     * @param value True to set the cells, false to clear them.
+     */
+    private void setCells(long[] bits, int minColumn, int minRow, int maxColumn, int maxRow, boolean value) {
+        if(minColumn > maxColumn || minRow > maxRow) return;
+        int firstWord = minColumn >>> 6;
+        int lastWord = maxColumn >>> 6;
+        for(int row = minRow; row <= maxRow; row++) {
+            int rowStart = row * wordsPerRow;
+            for(int word = firstWord; word <= lastWord; word++) {
+                long mask = -1L;
+                if(word == firstWord) mask &= -1L << minColumn;
+                if(word == lastWord) mask &= -1L >>> (63 - (maxColumn & 63));
+                if(value) {
+                    bits[rowStart + word] |= mask;
+                } else {
+                    bits[rowStart + word] &= ~mask;
+                }
+            }
+        }
+    }
+
+    /**
+     * Grows the grid to cover at least the specified number of columns and rows, at least
+     * doubling in each direction that grows so adding a map a piece at a time stays fast.
+     *
+     * @param minColumns Number of columns needed.
+     * @param minRows Number of rows needed.
+     */
+    private void grow(int minColumns, int minRows) {
+        int newColumns = minColumns > columns ? Math.max(minColumns, columns * 2) : columns;
+        int newRows = minRows > rows ? Math.max(minRows, rows * 2) : rows;
+        int newWordsPerRow = (newColumns + 63) >>> 6;
+        if((long)newWordsPerRow * 64 * newRows > MAX_CELLS) {
+            overflowed = true;
+            solid = new long[0];
+            ground = new long[0];
+            return;
+        }
+        solid = copyRows(solid, newWordsPerRow, newRows);
+        ground = copyRows(ground, newWordsPerRow, newRows);
+        columns = newColumns;
+        rows = newRows;
+        wordsPerRow = newWordsPerRow;
+    }
+
+    /**
+     * Copies a bitset into a larger one with a different number of words per row.
+     *
+     * @param bits The bitset to copy.
+     * @param newWordsPerRow Number of words in each row of the new bitset.
+     * @param newRows Number of rows in the new bitset.
+     * @return The new bitset.
+     */
+    private long[] copyRows(long[] bits, int newWordsPerRow, int newRows) {
+        if(newWordsPerRow == wordsPerRow) {
+            return Arrays.copyOf(bits, newWordsPerRow * newRows);
+        }
+        long[] copy = new long[newWordsPerRow * newRows];
+        for(int row = 0; row < rows; row++) {
+            System.arraycopy(bits, row * wordsPerRow, copy, row * newWordsPerRow, wordsPerRow);
+        }
+        return copy;
+    }
+
+    /**
+     * Converts a coordinate to the index of the cell containing it.
+     *
+     * @param coordinate X or Y coordinate in pixels.
+     * @return The cell index along that axis.
+     */
+    private int toCell(int coordinate) {
+        return coordinate >> cellShift;
+    }
+}
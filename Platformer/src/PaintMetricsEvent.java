@@ -0,0 +1,24 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * PaintMetricsEvent class:
+ * Flight Recorder event committed by Metrics after the world is painted.
+ */
+@Name("platformer.Paint")
+@Label("Paint")
+@Category("Platformer")
+@Description("One paint of the ObjectManager")
+public class PaintMetricsEvent extends Event {
+    /**
+     * Number of objects drawn individually, not counting the cached static layer.
+     */
+    @Label("Objects Painted")
+    int objectsPainted;
+}
@@ -1,5 +1,7 @@
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -72,6 +74,26 @@ public class Player extends GameObject {
      * The player's current score that increases when interacting with Collectibles.
      */
     private int score;
+    /**
+     * Position at the start of the most recent update used to interpolate drawing.
+     */
+    private int previousX, previousY;
+    /**
+     * Fraction of a step between the previous and current position to draw at.
+     */
+    private double renderAlpha;
+    /**
+     * Reusable buffer of the objects collided with during update().
+     */
+    private List<GameObject> collidedWith;
+    /**
+     * Reusable buffer of the objects collided with before a move in moveWithinBounds().
+     */
+    private List<GameObject> collidedWithBeforeMove;
+    /**
+     * Reusable buffer of the objects newly collided with after a move in moveWithinBounds().
+     */
+    private List<GameObject> newlyCollidedWith;
 
     /**
      * Sets up the player ready to move.
@@ -88,6 +110,36 @@ public class Player extends GameObject {
         isGrounded = false;
         this.objectManager = objectManager;
         isDead = false;
+        collidedWith = new ArrayList<>();
+        collidedWithBeforeMove = new ArrayList<>();
+        newlyCollidedWith = new ArrayList<>();
+        previousX = position.getX();
+        previousY = position.getY();
+        renderAlpha = 1;
+    }
+
+    /**
+     * Puts the player back into the state it was created in at a new position
+     * so a level can be restarted without creating a new Player.
+     *
+     * @param x X coordinate to place the player at.
+     * @param y Y coordinate to place the player at.
+     */
+    public void reset(int x, int y) {
+        position.setPosition(x, y);
+        previousX = x;
+        previousY = y;
+        keyLeftIsPressed = false;
+        keyRightIsPressed = false;
+        jump = false;
+        doubleJumpUsed = false;
+        isGrounded = false;
+        dY = 0;
+        isDead = false;
+        reachedFlag = false;
+        score = 0;
+        // Anything touched at the new position is a new contact
+        objectManager.getCollisionDispatcher().clearContacts(this);
     }
 
     /**
@@ -98,6 +150,8 @@ public class Player extends GameObject {
      */
     @Override
     public void update(int deltaTime) {
+        previousX = position.getX();
+        previousY = position.getY();
         // Don't fall when grounded
         if(isGrounded) {
             dY = 0;
@@ -115,30 +169,29 @@ public class Player extends GameObject {
         }
         // Move left/right
         if(keyLeftIsPressed) {
-            moveWithinBounds(new Position(-moveRate,0), GamePanel.PANEL_WIDTH-width, GamePanel.PANEL_HEIGHT);
+            moveWithinBounds(-moveRate, 0, objectManager.getWorldWidth()-getWidth(), objectManager.getWorldHeight());
         }
         if(keyRightIsPressed) {
-            moveWithinBounds(new Position(moveRate,0), GamePanel.PANEL_WIDTH-width, GamePanel.PANEL_HEIGHT);
+            moveWithinBounds(moveRate, 0, objectManager.getWorldWidth()-getWidth(), objectManager.getWorldHeight());
         }
         // Update the y position relative to the falling velocity.
-        position.y += (dY * deltaTime / 1000.0);
+        position.setY((int)(position.getY() + dY * deltaTime / 1000.0));
 
         // Check for any collisions that have occurred as a result of moving
-        List<GameObject> collidedWith = objectManager.getObjectsCollidedWith(this);
+        objectManager.getObjectsCollidedWith(this, collidedWith);
         // Assume not grounded
         isGrounded = false;
-        for(GameObject object : collidedWith) {
-            // Apply any collision event with the collided object
-            if(object instanceof CollisionTrigger) {
-                ((CollisionTrigger)object).collideWith(this);
-            }
-            if(object.isGround() && object.position.y > position.y) {
+        // Send enter/stay/exit events to the handlers for each type of object touched
+        objectManager.getCollisionDispatcher().dispatch(this, collidedWith);
+        for(int i = 0; i < collidedWith.size(); i++) {
+            GameObject object = collidedWith.get(i);
+            if(object.isGround() && object.position.getY() > position.getY()) {
                 // Object is on the ground.
                 isGrounded = true;
             }
             // Bump the object out of the object if it should not be inside
-            if(!object.canEnter() && object.position.y > position.y) {
-                position.y = object.position.y - height;
+            if(!object.canEnter() && object.position.getY() > position.getY()) {
+                position.setY(object.position.getY() - getHeight());
             }
         }
     }
@@ -146,21 +199,63 @@ public class Player extends GameObject {
     /**
      * Draws the body and then offsets the eyes to either the middle,
      * or the right if the right key is held, or left if the right key is held.
+     * The player is drawn between its previous and current position based on the render alpha.
      *
      * @param g Reference to the Graphics object for rendering.
      */
     @Override
     public void paint(Graphics g) {
+        int x = getRenderX(renderAlpha);
+        int y = getRenderY(renderAlpha);
         g.setColor(new Color(13, 29, 78));
-        g.fillRect(position.x, position.y, width,height);
+        g.fillRect(x, y, getWidth(),getHeight());
         g.setColor(new Color(47, 78, 184));
-        g.fillRect(position.x+5, position.y+5, width-10,height-10);
+        g.fillRect(x+5, y+5, getWidth()-10,getHeight()-10);
         g.setColor(new Color(198, 155, 34));
-        int eyeOffset = width/2+1;
+        int eyeOffset = getWidth()/2+1;
         if(keyRightIsPressed) eyeOffset += 5;
         else if(keyLeftIsPressed) eyeOffset -= 5;
-        g.fillRect(position.x+eyeOffset-3-5, position.y+10, 5,5);
-        g.fillRect(position.x+eyeOffset+5-5, position.y+10, 5,5);
+        g.fillRect(x+eyeOffset-3-5, y+10, 5,5);
+        g.fillRect(x+eyeOffset+5-5, y+10, 5,5);
+    }
+
+    /**
+     * Adds the area the player may be drawn in between its previous and current position.
+     *
+     * @param dirtyRegion The region to add the area to.
+     */
+    public void addMovementBounds(DirtyRegion dirtyRegion) {
+        dirtyRegion.add(previousX, previousY, getWidth(), getHeight());
+        dirtyRegion.add(position.getX(), position.getY(), getWidth(), getHeight());
+    }
+
+    /**
+     * Gets the x coordinate the player is drawn at between its previous and current position.
+     *
+     * @param alpha Fraction of a step between the previous position (0) and current position (1).
+     * @return The interpolated x coordinate.
+     */
+    public int getRenderX(double alpha) {
+        return previousX + (int)Math.round((position.getX() - previousX) * alpha);
+    }
+
+    /**
+     * Gets the y coordinate the player is drawn at between its previous and current position.
+     *
+     * @param alpha Fraction of a step between the previous position (0) and current position (1).
+     * @return The interpolated y coordinate.
+     */
+    public int getRenderY(double alpha) {
+        return previousY + (int)Math.round((position.getY() - previousY) * alpha);
+    }
+
+    /**
+     * Sets how far between the previous and current position the player is drawn.
+     *
+     * @param renderAlpha Fraction of a step between the previous position (0) and current position (1).
+     */
+    public void setRenderAlpha(double renderAlpha) {
+        this.renderAlpha = renderAlpha;
     }
 
     /**
@@ -235,34 +330,121 @@ public class Player extends GameObject {
     }
 
     /**
-     * Moves based on the translationVector, but clamps the movement within the bounds of the play space.
+     * Writes the position, velocity, flags and score of the player.
+     *
+     * @param buffer Buffer to write the state to.
+     */
+    @Override
+    public void writeState(ByteBuffer buffer) {
+        buffer.putInt(position.getX());
+        buffer.putInt(position.getY());
+        buffer.putInt(previousX);
+        buffer.putInt(previousY);
+        buffer.putDouble(dY);
+        buffer.put((byte)((jump ? 1 : 0) | (doubleJumpUsed ? 2 : 0)
+                | (keyLeftIsPressed ? 4 : 0) | (keyRightIsPressed ? 8 : 0)
+                | (isGrounded ? 16 : 0) | (isDead ? 32 : 0) | (reachedFlag ? 64 : 0)));
+        buffer.putInt(score);
+    }
+
+    /**
+     * Restores the state written by writeState().
+     *
+     * @param buffer Buffer to read the state from.
+     */
+    @Override
+    public void readState(ByteBuffer buffer) {
+        position.setPosition(buffer.getInt(), buffer.getInt());
+        previousX = buffer.getInt();
+        previousY = buffer.getInt();
+        dY = buffer.getDouble();
+        int flags = buffer.get();
+        jump = (flags & 1) != 0;
+        doubleJumpUsed = (flags & 2) != 0;
+        keyLeftIsPressed = (flags & 4) != 0;
+        keyRightIsPressed = (flags & 8) != 0;
+        isGrounded = (flags & 16) != 0;
+        isDead = (flags & 32) != 0;
+        reachedFlag = (flags & 64) != 0;
+        score = buffer.getInt();
+        // Contacts from the current timeline don't apply to the restored one
+        objectManager.getCollisionDispatcher().clearContacts(this);
+    }
+
+    /**
+     * Gets a hash of everything that affects how the player behaves on the following ticks.
+     * Two players with the same hash will move the same way given the same input.
+     *
+     * @return A hash of the player's state.
+     */
+    public long getStateHash() {
+        long hash = ObjectManager.mixHash(ObjectManager.HASH_SEED, position.getX());
+        hash = ObjectManager.mixHash(hash, position.getY());
+        hash = ObjectManager.mixHash(hash, Double.doubleToLongBits(dY));
+        hash = ObjectManager.mixHash(hash, score);
+        hash = ObjectManager.mixHash(hash, (jump ? 1 : 0) | (doubleJumpUsed ? 2 : 0)
+                | (keyLeftIsPressed ? 4 : 0) | (keyRightIsPressed ? 8 : 0)
+                | (isGrounded ? 16 : 0) | (isDead ? 32 : 0) | (reachedFlag ? 64 : 0));
+        return hash;
+    }
+
+    /**
+     * Moves by the translation, but clamps the movement within the bounds of the play space.
      * Compares objects that were collided with before/after the movement. If any new objects that can't be
-     * entered have been entered as a result of the movement is cancelled and not applied.
+     * entered have been entered as a result of the movement is cancelled and not applied, unless they
+     * just continue the floor the player is standing on.
      *
-     * @param translationVector Added to position to calculate the new position.
+     * @param translateX Added to the x coordinate to calculate the new position.
+     * @param translateY Added to the y coordinate to calculate the new position.
+     * @param maxX Largest x coordinate the player can move to.
+     * @param maxY Largest y coordinate the player can move to.
      */
-    private void moveWithinBounds(Position translationVector, int maxX, int maxY) {
-        List<GameObject> collidedWith = objectManager.getObjectsCollidedWith(this);
-        Position originalPosition = new Position(position);
-        int newX = position.x+translationVector.x;
-        int newY = position.y+translationVector.y;
+    private void moveWithinBounds(int translateX, int translateY, int maxX, int maxY) {
+        int originalX = position.getX();
+        int originalY = position.getY();
+        int newX = position.getX()+translateX;
+        int newY = position.getY()+translateY;
         if(newX < 0) newX = 0;
         else if(newX > maxX) newX = maxX;
         if(newY < 0) newY = 0;
         else if(newY > maxY) newY = maxY;
         position.setPosition(newX, newY);
-        List<GameObject> collidedWithAfterMove = objectManager.getObjectsCollidedWith(this);
+        // Nothing solid at the new position means nothing can block the move
+        if(objectManager.isClearOfSolids(this)) return;
+
+        position.setPosition(originalX, originalY);
+        objectManager.getObjectsCollidedWith(this, collidedWithBeforeMove);
+        position.setPosition(newX, newY);
+        // Ignore all objects that were already collided with
+        objectManager.getNewObjectsCollidedWith(this, collidedWithBeforeMove, newlyCollidedWith);
 
-        // Remove all objects that were already collided with to ignore them
-        for(GameObject obj : collidedWith) {
-            collidedWithAfterMove.remove(obj);
-        }
         // If colliding with a new object that can't be entered cancel the movement.
-        for(GameObject obj : collidedWithAfterMove) {
-            if(!obj.canEnter()) {
-                position = originalPosition;
+        for(int i = 0; i < newlyCollidedWith.size(); i++) {
+            GameObject object = newlyCollidedWith.get(i);
+            if(!object.canEnter() && !continuesFloor(object)) {
+                position.setPosition(originalX, originalY);
                 return;
             }
         }
     }
+
+    /**
+     * Tests if a solid object touched by a move is more of the floor the player is standing on.
+     * It must be level with the player's feet and have its top lined up with a solid object the
+     * player was already touching. Walking from one tile to the next is then the same as
+     * walking along a single block, so the seams in a tiled floor don't stop the player.
+     *
+     * @param object Solid object that was not touched before the move.
+     * @return True if the object doesn't block the move.
+     */
+    private boolean continuesFloor(GameObject object) {
+        if(object.position.getY() < position.getY() + getHeight()) return false;
+        for(int i = 0; i < collidedWithBeforeMove.size(); i++) {
+            GameObject floor = collidedWithBeforeMove.get(i);
+            if(!floor.canEnter() && floor.position.getY() == object.position.getY()) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
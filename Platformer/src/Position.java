@@ -3,7 +3,9 @@
  * Author: Peter Mitchell (2021)
  *
  * Position class:
- * Used to represent a single position x,y.
+ * Used to represent a single position x,y. The position of a GameObject in an
+ * EntityStore is a view of the object's coordinates in the store's arrays, and
+ * only keeps its own coordinates while it is not in a store.
  */
 public class Position {
     /**
@@ -28,13 +30,21 @@ public class Position {
     public static final Position ZERO = new Position(0,0);
 
     /**
-     * X coordinate.
+     * X coordinate while not in an EntityStore.
      */
-    public int x;
+    private int x;
     /**
-     * Y coordinate.
+     * Y coordinate while not in an EntityStore.
      */
-    public int y;
+    private int y;
+    /**
+     * The store holding the coordinates, or null when they are held in x and y.
+     */
+    private EntityStore store;
+    /**
+     * Index of the coordinates in the store.
+     */
+    private int entityIndex;
 
     /**
      * Sets the value of Position.
@@ -53,8 +63,52 @@ public class Position {
      * @param positionToCopy Position to copy values from.
      */
     public Position(Position positionToCopy) {
-        this.x = positionToCopy.x;
-        this.y = positionToCopy.y;
+        this.x = positionToCopy.getX();
+        this.y = positionToCopy.getY();
+    }
+
+    /**
+     * Gets the x coordinate.
+     *
+     * @return X coordinate.
+     */
+    public int getX() {
+        return store != null ? store.x[entityIndex] : x;
+    }
+
+    /**
+     * Gets the y coordinate.
+     *
+     * @return Y coordinate.
+     */
+    public int getY() {
+        return store != null ? store.y[entityIndex] : y;
+    }
+
+    /**
+     * Sets the x coordinate.
+     *
+     * @param x X coordinate.
+     */
+    public void setX(int x) {
+        if(store != null) {
+            store.x[entityIndex] = x;
+        } else {
+            this.x = x;
+        }
+    }
+
+    /**
+     * Sets the y coordinate.
+     *
+     * @param y Y coordinate.
+     */
+    public void setY(int y) {
+        if(store != null) {
+            store.y[entityIndex] = y;
+        } else {
+            this.y = y;
+        }
     }
 
     /**
@@ -64,8 +118,8 @@ public class Position {
      * @param y Y coordinate.
      */
     public void setPosition(int x, int y) {
-        this.x = x;
-        this.y = y;
+        setX(x);
+        setY(y);
     }
 
     /**
@@ -74,8 +128,7 @@ public class Position {
      * @param otherPosition Other Position to add to this one.
      */
     public void add(Position otherPosition) {
-        this.x += otherPosition.x;
-        this.y += otherPosition.y;
+        setPosition(getX() + otherPosition.getX(), getY() + otherPosition.getY());
     }
 
     /**
@@ -85,7 +138,7 @@ public class Position {
      * @return Distance between this position and the other position.
      */
     public double distanceTo(Position otherPosition) {
-        return Math.sqrt(Math.pow(x-otherPosition.x,2)+Math.pow(y-otherPosition.y,2));
+        return Math.sqrt(Math.pow(getX()-otherPosition.getX(),2)+Math.pow(getY()-otherPosition.getY(),2));
     }
 
     /**
@@ -94,8 +147,7 @@ public class Position {
      * @param amount Amount to multiply vector by.
      */
     public void multiply(int amount) {
-        x *= amount;
-        y *= amount;
+        setPosition(getX() * amount, getY() * amount);
     }
 
     /**
@@ -104,17 +156,39 @@ public class Position {
      * @param otherPosition Other Position to add to this one.
      */
     public void subtract(Position otherPosition) {
-        this.x -= otherPosition.x;
-        this.y -= otherPosition.y;
+        setPosition(getX() - otherPosition.getX(), getY() - otherPosition.getY());
     }
 
     /**
      * Converts this Position to a unit vector.
      */
     public void toUnitVector() {
+        int x = getX();
+        int y = getY();
         double magnitude = Math.sqrt(x*x+y*y);
-        this.x /= magnitude;
-        this.y /= magnitude;
+        setPosition((int)(x / magnitude), (int)(y / magnitude));
+    }
+
+    /**
+     * Moves the coordinates into the store so this becomes a view of them. Called by the EntityStore.
+     *
+     * @param store The store to hold the coordinates.
+     * @param entityIndex Index of the coordinates in the store.
+     */
+    void attach(EntityStore store, int entityIndex) {
+        store.x[entityIndex] = x;
+        store.y[entityIndex] = y;
+        this.store = store;
+        this.entityIndex = entityIndex;
+    }
+
+    /**
+     * Copies the coordinates back out of the store. Called by the EntityStore when the entity is removed.
+     */
+    void detach() {
+        x = store.x[entityIndex];
+        y = store.y[entityIndex];
+        store = null;
     }
 
     /**
@@ -129,7 +203,7 @@ public class Position {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Position position = (Position) o;
-        return x == position.x && y == position.y;
+        return getX() == position.getX() && getY() == position.getY();
     }
 
     /**
@@ -139,6 +213,6 @@ public class Position {
      */
     @Override
     public String toString() {
-        return "(" + x + ", " + y + ")";
+        return "(" + getX() + ", " + getY() + ")";
     }
 }
@@ -14,11 +14,11 @@ public class Rectangle {
     /**
      * Width of the Rectangle.
      */
-    protected int width;
+    private int width;
     /**
      * Height of the Rectangle.
      */
-    protected int height;
+    private int height;
 
     /**
      * Creates the new Rectangle with provided properties.
@@ -61,6 +61,17 @@ public class Rectangle {
         return width;
     }
 
+    /**
+     * Changes the width and height of the Rectangle.
+     *
+     * @param width Width of the Rectangle.
+     * @param height Height of the Rectangle.
+     */
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
     /**
      * Gets the top left corner of the Rectangle.
      *
@@ -76,7 +87,7 @@ public class Rectangle {
      * @return Centre coordinates of the rectangle.
      */
     public Position getCentre() {
-        return new Position(position.x + width/2, position.y + height/2);
+        return new Position(position.getX() + getWidth()/2, position.getY() + getHeight()/2);
     }
 
     /**
@@ -86,8 +97,10 @@ public class Rectangle {
      * @return True if the targetPosition is inside this Rectangle.
      */
     public boolean isPositionInside(Position targetPosition) {
-        return targetPosition.x >= position.x && targetPosition.y >= position.y
-                && targetPosition.x < position.x + width && targetPosition.y < position.y + height;
+        int x = position.getX();
+        int y = position.getY();
+        return targetPosition.getX() >= x && targetPosition.getY() >= y
+                && targetPosition.getX() < x + getWidth() && targetPosition.getY() < y + getHeight();
     }
 
     /**
@@ -97,11 +110,15 @@ public class Rectangle {
      * @return True if this Rectangle is intersecting the otherRectangle.
      */
     public boolean isIntersecting(Rectangle otherRectangle) {
+        int x = position.getX();
+        int y = position.getY();
+        int otherX = otherRectangle.position.getX();
+        int otherY = otherRectangle.position.getY();
         // break if any of the following are true because it means they don't intersect
-        if(position.y + height < otherRectangle.position.y) return false;
-        if(position.y > otherRectangle.position.y + otherRectangle.height) return false;
-        if(position.x + width < otherRectangle.position.x) return false;
-        if(position.x > otherRectangle.position.x + otherRectangle.width) return false;
+        if(y + getHeight() < otherY) return false;
+        if(y > otherY + otherRectangle.getHeight()) return false;
+        if(x + getWidth() < otherX) return false;
+        if(x > otherX + otherRectangle.getWidth()) return false;
 
         // the bounding boxes do intersect
         return true;
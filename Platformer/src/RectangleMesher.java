@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * RectangleMesher class:
+ * Greedy meshing of the area covered by a set of rectangles into as few
+ * non-overlapping rectangles as it can find. The edges of the rectangles
+ * form a grid of cells, and from each covered cell the widest run along
+ * the row is taken and grown down while the rows below are covered too.
+ */
+public class RectangleMesher {
+    /**
+     * Largest number of grid cells used to mesh one set of rectangles. Sets with
+     * more irregular edges than this are not meshed.
+     */
+    private static final int MAX_CELLS = 1 << 22;
+
+    /**
+     * Meshes the area covered by rectangles.
+     *
+     * @param bounds The left, top, right and bottom edge of each rectangle one after another.
+     * @param count Number of rectangles in bounds.
+     * @param maxRectangles Most rectangles the result may have.
+     * @return The x, y, width and height of each rectangle in the mesh one after another, or null if
+     *         the area needs more than maxRectangles or the rectangles are too irregular to mesh.
+     */
+    public static int[] mesh(int[] bounds, int count, int maxRectangles) {
+        int[] xs = getEdges(bounds, count, 0);
+        int[] ys = getEdges(bounds, count, 1);
+        int columns = xs.length - 1;
+        int rows = ys.length - 1;
+        if((long)columns * rows > MAX_CELLS) return null;
+
+        boolean[] filled = new boolean[columns * rows];
+        for(int i = 0; i < count; i++) {
+            int firstColumn = Arrays.binarySearch(xs, bounds[i * 4]);
+            int firstRow = Arrays.binarySearch(ys, bounds[i * 4 + 1]);
+            int lastColumn = Arrays.binarySearch(xs, bounds[i * 4 + 2]);
+            int lastRow = Arrays.binarySearch(ys, bounds[i * 4 + 3]);
+            for(int row = firstRow; row < lastRow; row++) {
+                Arrays.fill(filled, row * columns + firstColumn, row * columns + lastColumn, true);
+            }
+        }
+
+        // Take the widest run from each unused cell, then grow it down while the rows below match
+        int[] result = new int[Math.min(maxRectangles, count) * 4];
+        int resultCount = 0;
+        for(int row = 0; row < rows; row++) {
+            for(int column = 0; column < columns; column++) {
+                if(!filled[row * columns + column]) continue;
+                if(resultCount == maxRectangles) return null;
+                int endColumn = column + 1;
+                while(endColumn < columns && filled[row * columns + endColumn]) {
+                    endColumn++;
+                }
+                int endRow = row + 1;
+                while(endRow < rows && isRowFilled(filled, endRow * columns, column, endColumn)) {
+                    endRow++;
+                }
+                for(int clearRow = row; clearRow < endRow; clearRow++) {
+                    Arrays.fill(filled, clearRow * columns + column, clearRow * columns + endColumn, false);
+                }
+                if(resultCount * 4 == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                result[resultCount * 4] = xs[column];
+                result[resultCount * 4 + 1] = ys[row];
+                result[resultCount * 4 + 2] = xs[endColumn] - xs[column];
+                result[resultCount * 4 + 3] = ys[endRow] - ys[row];
+                resultCount++;
+                column = endColumn - 1;
+            }
+        }
+        return Arrays.copyOf(result, resultCount * 4);
+    }
+
+    /**
+     * Gets the sorted distinct edges of the rectangles along one axis.
+     *
+     * @param bounds The left, top, right and bottom edge of each rectangle one after another.
+     * @param count Number of rectangles in bounds.
+     * @param axis 0 for the x coordinates, 1 for the y coordinates.
+     * @return The distinct edge coordinates in ascending order.
+     */
+    private static int[] getEdges(int[] bounds, int count, int axis) {
+        int[] edges = new int[count * 2];
+        for(int i = 0; i < count; i++) {
+            edges[i * 2] = bounds[i * 4 + axis];
+            edges[i * 2 + 1] = bounds[i * 4 + 2 + axis];
+        }
+        Arrays.sort(edges);
+        int distinct = 0;
+        for(int i = 0; i < edges.length; i++) {
+            if(i == 0 || edges[i] != edges[distinct - 1]) {
+                edges[distinct++] = edges[i];
+            }
+        }
+        return Arrays.copyOf(edges, distinct);
+    }
+
+    /**
+     * Tests if a run of cells in one row of the grid are all still filled.
+     *
+     * @param filled Cells covered by a rectangle that haven't been used yet.
+     * @param rowStart Index of the first cell in the row.
+     * @param column First column of the run.
+     * @param endColumn Column after the last column of the run.
+     * @return True if every cell in the run is filled.
+     */
+    private static boolean isRowFilled(boolean[] filled, int rowStart, int column, int endColumn) {
+        for(int i = rowStart + column; i < rowStart + endColumn; i++) {
+            if(!filled[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,694 @@
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * RenderBatches class:
+ * Draws the static geometry a material at a time instead of an object at a time.
+ * Each object adds the shapes it draws with a colour and whether they are filled
+ * or outlined, and shapes of the same material are joined into one Path2D so the
+ * whole batch is a single colour change and draw call. Batches of filled
+ * rectangles are meshed into the fewest rectangles covering the same area
+ * and drawn with fillRect() after the one colour change instead. A shape may only join an
+ * earlier batch of its material when nothing drawn after that batch overlaps it,
+ * so objects layer exactly as if they were drawn one at a time. This is tracked
+ * with a coarse grid recording the last batch to touch each cell. The world is
+ * split into squares that each have their own batches, built from every object
+ * touching the square and drawn clipped to it, so squares outside the clip are
+ * skipped. The batches are built on the first paint, and after that only the
+ * squares touched by a static object that was added, removed or moved are rebuilt.
+ * As with the partial redraws of the StaticLayerCache, clipping a diagonal edge
+ * where it crosses into the next square can move a pixel of it by one.
+ */
+public class RenderBatches {
+    /**
+     * Width and height of the squares of the world that each have their own batches.
+     */
+    private static final int BATCH_AREA_SIZE = 512;
+    /**
+     * Width and height of the cells tracking which batches overlap.
+     */
+    private static final int CELL_SIZE = 32;
+    /**
+     * Number of columns and rows of cells in each square.
+     */
+    private static final int CELLS_PER_SIDE = BATCH_AREA_SIZE / CELL_SIZE;
+
+    /**
+     * A run of shapes drawn with one material, or a single object that draws itself.
+     */
+    private static class Batch {
+        /**
+         * Colour the shapes are drawn with.
+         */
+        private final Color color;
+        /**
+         * True if the shapes are outlined, false if they are filled.
+         */
+        private final boolean outline;
+        /**
+         * The shapes in the batch, or null for an object that draws itself.
+         */
+        private final Path2D.Float path;
+        /**
+         * The shape drawn, which is the path or the area it covers, or null for an object that draws itself.
+         */
+        private Shape shape;
+        /**
+         * True while every shape in the batch is a filled rectangle.
+         */
+        private boolean rectanglesOnly;
+        /**
+         * While building, the left, top, right and bottom edge of each filled rectangle one after another.
+         */
+        private int[] rectangleBounds;
+        /**
+         * Number of rectangles in rectangleBounds.
+         */
+        private int rectangleCount;
+        /**
+         * The x, y, width and height of each rectangle drawn one after another, or null if the shape is drawn instead.
+         */
+        private int[] rectangles;
+        /**
+         * The object that draws itself, or null for a batch of shapes.
+         */
+        private final GameObject object;
+        /**
+         * Bounds of everything drawn by the batch inside its square, with the max edges exclusive.
+         */
+        private int minX, minY, maxX, maxY;
+        /**
+         * Number of objects whose first shape is in the batch, counting each object only in the
+         * square containing its top left corner.
+         */
+        private int objectCount;
+
+        /**
+         * Creates a batch of shapes or a batch for an object that draws itself.
+         *
+         * @param color Colour the shapes are drawn with.
+         * @param outline True if the shapes are outlined, false if they are filled.
+         * @param object The object that draws itself, or null for a batch of shapes.
+         */
+        private Batch(Color color, boolean outline, GameObject object) {
+            this.color = color;
+            this.outline = outline;
+            this.object = object;
+            path = object == null ? new Path2D.Float() : null;
+            shape = path;
+            rectanglesOnly = !outline;
+            rectangleBounds = rectanglesOnly ? new int[16] : null;
+            rectangleCount = 0;
+            rectangles = null;
+            minX = Integer.MAX_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            maxY = Integer.MIN_VALUE;
+            objectCount = 0;
+        }
+    }
+
+    /**
+     * Interface for adding a shape to the path of a batch.
+     */
+    private interface ShapeAppender {
+        /**
+         * Adds the shape to the end of a path.
+         *
+         * @param path The path of the batch the shape is drawn in.
+         */
+        void append(Path2D.Float path);
+    }
+
+    /**
+     * A square of the world with the batches drawing everything that touches it.
+     */
+    private static class Square {
+        /**
+         * World coordinates of the top left corner.
+         */
+        private final int x, y;
+        /**
+         * Batches in the order they are drawn.
+         */
+        private final List<Batch> batches;
+        /**
+         * While building, the index of the last batch of each material.
+         */
+        private Map<BatchKey, Integer> lastBatch;
+        /**
+         * While building, the index of the last batch drawn over each cell, or -1 if none.
+         */
+        private int[] lastBatchInCell;
+
+        /**
+         * Creates a square ready to have shapes added.
+         *
+         * @param areaX Column of the square.
+         * @param areaY Row of the square.
+         */
+        private Square(int areaX, int areaY) {
+            x = areaX * BATCH_AREA_SIZE;
+            y = areaY * BATCH_AREA_SIZE;
+            batches = new ArrayList<>();
+            lastBatch = new HashMap<>();
+            lastBatchInCell = new int[CELLS_PER_SIDE * CELLS_PER_SIDE];
+            Arrays.fill(lastBatchInCell, -1);
+        }
+    }
+
+    /**
+     * Every square with something drawn in it, keyed by toKey().
+     */
+    private final Map<Long, Square> squares;
+    /**
+     * Keys of the squares that must be rebuilt before they are drawn.
+     */
+    private final Set<Long> staleSquares;
+    /**
+     * Combined bounds of the stale squares.
+     */
+    private final DirtyRegion staleRegion;
+    /**
+     * When false every square must be rebuilt before the batches are drawn.
+     */
+    private boolean valid;
+    /**
+     * The square shapes are being added to, or null when shapes can't be added.
+     */
+    private Square building;
+    /**
+     * True until the first shape of the object being added has been added,
+     * if the object is counted in the square being built.
+     */
+    private boolean firstShapeOfObject;
+
+    /**
+     * Key identifying the batches of one material.
+     */
+    private static class BatchKey {
+        /**
+         * Colour the shapes are drawn with.
+         */
+        private final Color color;
+        /**
+         * True if the shapes are outlined, false if they are filled.
+         */
+        private final boolean outline;
+
+        /**
+         * Creates a key for the batches of a material.
+         *
+         * @param color Colour the shapes are drawn with.
+         * @param outline True if the shapes are outlined, false if they are filled.
+         */
+        private BatchKey(Color color, boolean outline) {
+            this.color = color;
+            this.outline = outline;
+        }
+
+        /**
+         * Tests if another key is for the same material.
+         *
+         * @param other The object to compare with.
+         * @return True if they are the same.
+         */
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof BatchKey)) return false;
+            BatchKey key = (BatchKey)other;
+            return color == key.color && outline == key.outline;
+        }
+
+        /**
+         * Combines the material into a hash code.
+         *
+         * @return The hash code.
+         */
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(color) + (outline ? 1 : 0);
+        }
+    }
+
+    /**
+     * Creates empty batches that will be built when first drawn.
+     */
+    public RenderBatches() {
+        squares = new HashMap<>();
+        staleSquares = new HashSet<>();
+        staleRegion = new DirtyRegion();
+        valid = false;
+        building = null;
+    }
+
+    /**
+     * Marks every square as needing to be rebuilt, such as after a new map has been loaded.
+     */
+    public void invalidate() {
+        valid = false;
+        staleSquares.clear();
+        staleRegion.clear();
+    }
+
+    /**
+     * Marks the squares touched by a static object that has been added, removed or moved
+     * as needing to be rebuilt.
+     *
+     * @param rectangle Bounds of the object that changed.
+     */
+    public void invalidate(Rectangle rectangle) {
+        if(!valid) return;
+        // Include the right/bottom edge pixel that outlines are drawn on
+        int minAreaX = Math.floorDiv(rectangle.position.getX(), BATCH_AREA_SIZE);
+        int minAreaY = Math.floorDiv(rectangle.position.getY(), BATCH_AREA_SIZE);
+        int maxAreaX = Math.floorDiv(rectangle.position.getX() + rectangle.getWidth(), BATCH_AREA_SIZE);
+        int maxAreaY = Math.floorDiv(rectangle.position.getY() + rectangle.getHeight(), BATCH_AREA_SIZE);
+        for(int areaY = minAreaY; areaY <= maxAreaY; areaY++) {
+            for(int areaX = minAreaX; areaX <= maxAreaX; areaX++) {
+                staleSquares.add(toKey(areaX, areaY));
+            }
+        }
+        staleRegion.add(minAreaX * BATCH_AREA_SIZE, minAreaY * BATCH_AREA_SIZE,
+                (maxAreaX - minAreaX + 1) * BATCH_AREA_SIZE, (maxAreaY - minAreaY + 1) * BATCH_AREA_SIZE);
+    }
+
+    /**
+     * Gets whether the batches are up to date.
+     *
+     * @return True if the batches can be drawn without rebuilding any of them.
+     */
+    public boolean isValid() {
+        return valid && staleSquares.isEmpty();
+    }
+
+    /**
+     * Gets the number of batches, which is the number of draw calls when everything is visible.
+     *
+     * @return Number of batches.
+     */
+    public int getBatchCount() {
+        int count = 0;
+        for(Square square : squares.values()) {
+            count += square.batches.size();
+        }
+        return count;
+    }
+
+    /**
+     * Draws the squares that are at least partly inside the clip, rebuilding any that are out of date first.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param objects Objects to take the static geometry from if any squares need to be rebuilt.
+     * @param clipBounds Bounds of the clip, or null if there is no clip.
+     * @return The number of static objects drawn.
+     */
+    public int paint(Graphics g, List<GameObject> objects, java.awt.Rectangle clipBounds) {
+        if(!valid) {
+            rebuild(objects);
+        } else if(!staleSquares.isEmpty()) {
+            rebuildStaleSquares(objects);
+        }
+        boolean hasClip = clipBounds != null;
+        Graphics2D g2 = (Graphics2D)g;
+        Shape clip = g2.getClip();
+        int painted = 0;
+        for(Square square : squares.values()) {
+            if(hasClip && (square.x + BATCH_AREA_SIZE <= clipBounds.x || square.y + BATCH_AREA_SIZE <= clipBounds.y
+                    || square.x >= clipBounds.x + clipBounds.width || square.y >= clipBounds.y + clipBounds.height)) {
+                continue;
+            }
+            // Objects touching more than one square are in the batches of each, so only draw inside this one
+            g2.clipRect(square.x, square.y, BATCH_AREA_SIZE, BATCH_AREA_SIZE);
+            painted += paintSquare(g2, square, clipBounds);
+            g2.setClip(clip);
+        }
+        return painted;
+    }
+
+    /**
+     * Draws the batches of a square that are at least partly inside the clip.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param square The square to draw.
+     * @param clipBounds Bounds of the clip, or null if there is no clip.
+     * @return The number of static objects drawn that are counted in the square.
+     */
+    private int paintSquare(Graphics2D g, Square square, java.awt.Rectangle clipBounds) {
+        boolean hasClip = clipBounds != null;
+        int painted = 0;
+        for(int i = 0; i < square.batches.size(); i++) {
+            Batch batch = square.batches.get(i);
+            if(hasClip && (batch.maxX <= clipBounds.x || batch.maxY <= clipBounds.y
+                    || batch.minX > clipBounds.x + clipBounds.width || batch.minY > clipBounds.y + clipBounds.height)) {
+                continue;
+            }
+            painted += batch.objectCount;
+            if(batch.object != null) {
+                batch.object.paint(g);
+                continue;
+            }
+            g.setColor(batch.color);
+            if(batch.rectangles != null) {
+                paintRectangles(g, batch.rectangles, clipBounds);
+            } else if(batch.outline) {
+                g.draw(batch.shape);
+            } else {
+                g.fill(batch.shape);
+            }
+        }
+        return painted;
+    }
+
+    /**
+     * Fills rectangles that are at least partly inside the clip with the current colour.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param rectangles The x, y, width and height of each rectangle one after another.
+     * @param clipBounds Bounds of the clip, or null if there is no clip.
+     */
+    private void paintRectangles(Graphics g, int[] rectangles, java.awt.Rectangle clipBounds) {
+        for(int i = 0; i < rectangles.length; i += 4) {
+            int x = rectangles[i], y = rectangles[i + 1], width = rectangles[i + 2], height = rectangles[i + 3];
+            if(clipBounds != null && (x + width <= clipBounds.x || y + height <= clipBounds.y
+                    || x >= clipBounds.x + clipBounds.width || y >= clipBounds.y + clipBounds.height)) {
+                continue;
+            }
+            g.fillRect(x, y, width, height);
+        }
+    }
+
+    /**
+     * Adds a filled rectangle for the object currently being added.
+     *
+     * @param color Colour to fill with. Should be a constant so batches can be matched by reference.
+     * @param x X coordinate of the top left corner.
+     * @param y Y coordinate of the top left corner.
+     * @param width Width of the rectangle.
+     * @param height Height of the rectangle.
+     */
+    public void fillRect(Color color, int x, int y, int width, int height) {
+        if(width <= 0 || height <= 0) return;
+        add(x, y, x + width, y + height, color, false, true, null, path -> {
+            path.moveTo(x, y);
+            path.lineTo(x + width, y);
+            path.lineTo(x + width, y + height);
+            path.lineTo(x, y + height);
+            path.closePath();
+        });
+    }
+
+    /**
+     * Adds a filled polygon for the object currently being added.
+     *
+     * @param color Colour to fill with. Should be a constant so batches can be matched by reference.
+     * @param xPoints X coordinates of the points.
+     * @param yPoints Y coordinates of the points.
+     */
+    public void fillPolygon(Color color, int[] xPoints, int[] yPoints) {
+        addPolygon(color, false, xPoints, yPoints);
+    }
+
+    /**
+     * Adds a polygon outline for the object currently being added.
+     *
+     * @param color Colour to draw with. Should be a constant so batches can be matched by reference.
+     * @param xPoints X coordinates of the points.
+     * @param yPoints Y coordinates of the points.
+     */
+    public void drawPolygon(Color color, int[] xPoints, int[] yPoints) {
+        addPolygon(color, true, xPoints, yPoints);
+    }
+
+    /**
+     * Adds a filled or outlined polygon for the object currently being added.
+     *
+     * @param color Colour to draw with.
+     * @param outline True to outline the polygon, false to fill it.
+     * @param xPoints X coordinates of the points.
+     * @param yPoints Y coordinates of the points.
+     */
+    private void addPolygon(Color color, boolean outline, int[] xPoints, int[] yPoints) {
+        if(xPoints.length == 0) return;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for(int i = 0; i < xPoints.length; i++) {
+            minX = Math.min(minX, xPoints[i]);
+            minY = Math.min(minY, yPoints[i]);
+            maxX = Math.max(maxX, xPoints[i]);
+            maxY = Math.max(maxY, yPoints[i]);
+        }
+        // Outlines cover the pixel to the right and below each point
+        add(minX, minY, maxX + 1, maxY + 1, color, outline, false, null, path -> {
+            path.moveTo(xPoints[0], yPoints[0]);
+            for(int i = 1; i < xPoints.length; i++) {
+                path.lineTo(xPoints[i], yPoints[i]);
+            }
+            path.closePath();
+        });
+    }
+
+    /**
+     * Builds the batches of every square for every static object in the order they are drawn.
+     *
+     * @param objects Objects to take the static geometry from.
+     */
+    private void rebuild(List<GameObject> objects) {
+        valid = true;
+        squares.clear();
+        staleSquares.clear();
+        staleRegion.clear();
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(!object.isStaticGeometry()) continue;
+            int minAreaX = Math.floorDiv(object.position.getX(), BATCH_AREA_SIZE);
+            int minAreaY = Math.floorDiv(object.position.getY(), BATCH_AREA_SIZE);
+            int maxAreaX = Math.floorDiv(object.position.getX() + object.getWidth(), BATCH_AREA_SIZE);
+            int maxAreaY = Math.floorDiv(object.position.getY() + object.getHeight(), BATCH_AREA_SIZE);
+            for(int areaY = minAreaY; areaY <= maxAreaY; areaY++) {
+                for(int areaX = minAreaX; areaX <= maxAreaX; areaX++) {
+                    Square square = squares.computeIfAbsent(toKey(areaX, areaY),
+                            key -> new Square(getAreaX(key), getAreaY(key)));
+                    addObject(square, object, areaX == minAreaX && areaY == minAreaY);
+                }
+            }
+        }
+        for(Square square : squares.values()) {
+            finishSquare(square);
+        }
+    }
+
+    /**
+     * Builds the batches of the stale squares again from the static objects touching them, in the
+     * order they are drawn. The objects outside the stale squares are skipped with a bounds test.
+     *
+     * @param objects Objects to take the static geometry from.
+     */
+    private void rebuildStaleSquares(List<GameObject> objects) {
+        int staleMinX = staleRegion.getX(), staleMinY = staleRegion.getY();
+        int staleMaxX = staleMinX + staleRegion.getWidth(), staleMaxY = staleMinY + staleRegion.getHeight();
+        for(long key : staleSquares) {
+            squares.put(key, new Square(getAreaX(key), getAreaY(key)));
+        }
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(!object.isStaticGeometry() || object.position.getX() + object.getWidth() < staleMinX
+                    || object.position.getY() + object.getHeight() < staleMinY
+                    || object.position.getX() >= staleMaxX || object.position.getY() >= staleMaxY) {
+                continue;
+            }
+            int minAreaX = Math.floorDiv(object.position.getX(), BATCH_AREA_SIZE);
+            int minAreaY = Math.floorDiv(object.position.getY(), BATCH_AREA_SIZE);
+            int maxAreaX = Math.floorDiv(object.position.getX() + object.getWidth(), BATCH_AREA_SIZE);
+            int maxAreaY = Math.floorDiv(object.position.getY() + object.getHeight(), BATCH_AREA_SIZE);
+            for(int areaY = minAreaY; areaY <= maxAreaY; areaY++) {
+                for(int areaX = minAreaX; areaX <= maxAreaX; areaX++) {
+                    long key = toKey(areaX, areaY);
+                    if(staleSquares.contains(key)) {
+                        addObject(squares.get(key), object, areaX == minAreaX && areaY == minAreaY);
+                    }
+                }
+            }
+        }
+        for(long key : staleSquares) {
+            Square square = squares.get(key);
+            finishSquare(square);
+            if(square.batches.isEmpty()) {
+                squares.remove(key);
+            }
+        }
+        staleSquares.clear();
+        staleRegion.clear();
+    }
+
+    /**
+     * Adds the shapes an object draws to the batches of a square. Objects that don't add
+     * themselves with addToBatches() are drawn by themselves between the batches.
+     *
+     * @param square The square being built.
+     * @param object The static object touching the square.
+     * @param counted True if the object's top left corner is in the square so it is counted as drawn there.
+     */
+    private void addObject(Square square, GameObject object, boolean counted) {
+        building = square;
+        firstShapeOfObject = counted;
+        if(!object.addToBatches(this)) {
+            add(object.position.getX(), object.position.getY(), object.position.getX() + object.getWidth() + 1,
+                    object.position.getY() + object.getHeight() + 1, null, false, false, object, null);
+        }
+        building = null;
+    }
+
+    /**
+     * Releases the state used while building a square and meshes its batches of rectangles.
+     *
+     * @param square The square that has had all its objects added.
+     */
+    private void finishSquare(Square square) {
+        square.lastBatch = null;
+        square.lastBatchInCell = null;
+
+        // Filling a path is much slower than fillRect() without hardware acceleration, so batches of
+        // rectangles are meshed into as few rectangles as cover the same area. If they can't be,
+        // touching rectangles are replaced by the outline of the area they cover instead
+        for(int i = 0; i < square.batches.size(); i++) {
+            Batch batch = square.batches.get(i);
+            if(batch.path != null && batch.rectanglesOnly) {
+                batch.rectangles = RectangleMesher.mesh(batch.rectangleBounds, batch.rectangleCount, batch.rectangleCount);
+                if(batch.rectangles == null) {
+                    batch.shape = new Path2D.Float(new Area(batch.path));
+                }
+            }
+            batch.rectangleBounds = null;
+        }
+    }
+
+    /**
+     * Combines the column and row of a square into a single key.
+     *
+     * @param areaX Column of the square.
+     * @param areaY Row of the square.
+     * @return A key unique to the square.
+     */
+    private static long toKey(int areaX, int areaY) {
+        return ((long)areaX << 32) | (areaY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the column of a square from a key.
+     *
+     * @param key Key made by toKey().
+     * @return Column of the square.
+     */
+    private static int getAreaX(long key) {
+        return (int)(key >> 32);
+    }
+
+    /**
+     * Gets the row of a square from a key.
+     *
+     * @param key Key made by toKey().
+     * @return Row of the square.
+     */
+    private static int getAreaY(long key) {
+        return (int)key;
+    }
+
+    /**
+     * Adds a shape to the last batch of its material in the square being built, or to a new
+     * batch if that batch can't be used without changing the layering. The parts of the shape
+     * outside the square are left out of its bounds as they are clipped when drawn.
+     *
+     * @param minX Left edge of the area drawn.
+     * @param minY Top edge of the area drawn.
+     * @param maxX Right edge of the area drawn, exclusive.
+     * @param maxY Bottom edge of the area drawn, exclusive.
+     * @param color Colour the shape is drawn with.
+     * @param outline True if the shape is outlined, false if it is filled.
+     * @param rectangle True if the shape is a rectangle.
+     * @param object An object that draws itself instead of a shape, or null.
+     * @param appender Adds the shape to the path of a batch, or null for an object that draws itself.
+     */
+    private void add(int minX, int minY, int maxX, int maxY, Color color, boolean outline,
+                     boolean rectangle, GameObject object, ShapeAppender appender) {
+        if(building == null) return;
+        Square square = building;
+        minX = Math.max(minX, square.x);
+        minY = Math.max(minY, square.y);
+        maxX = Math.min(maxX, square.x + BATCH_AREA_SIZE);
+        maxY = Math.min(maxY, square.y + BATCH_AREA_SIZE);
+        if(minX >= maxX || minY >= maxY) return;
+        int firstCellX = (minX - square.x) / CELL_SIZE;
+        int firstCellY = (minY - square.y) / CELL_SIZE;
+        int lastCellX = (maxX - 1 - square.x) / CELL_SIZE;
+        int lastCellY = (maxY - 1 - square.y) / CELL_SIZE;
+        int lastOverlapping = -1;
+        for(int cellY = firstCellY; cellY <= lastCellY; cellY++) {
+            for(int cellX = firstCellX; cellX <= lastCellX; cellX++) {
+                lastOverlapping = Math.max(lastOverlapping, square.lastBatchInCell[cellY * CELLS_PER_SIDE + cellX]);
+            }
+        }
+
+        // Use the last batch of the material if nothing drawn after it overlaps the shape
+        Batch batch = null;
+        int batchIndex = -1;
+        BatchKey key = null;
+        if(object == null) {
+            key = new BatchKey(color, outline);
+            Integer index = square.lastBatch.get(key);
+            if(index != null && index >= lastOverlapping) {
+                batchIndex = index;
+                batch = square.batches.get(batchIndex);
+            }
+        }
+        if(batch == null) {
+            batchIndex = square.batches.size();
+            batch = new Batch(color, outline, object);
+            square.batches.add(batch);
+            if(key != null) {
+                square.lastBatch.put(key, batchIndex);
+            }
+        }
+        if(appender != null) {
+            appender.append(batch.path);
+            batch.rectanglesOnly &= rectangle;
+            if(batch.rectanglesOnly) {
+                if(batch.rectangleCount * 4 == batch.rectangleBounds.length) {
+                    batch.rectangleBounds = Arrays.copyOf(batch.rectangleBounds, batch.rectangleBounds.length * 2);
+                }
+                int start = batch.rectangleCount++ * 4;
+                batch.rectangleBounds[start] = minX;
+                batch.rectangleBounds[start + 1] = minY;
+                batch.rectangleBounds[start + 2] = maxX;
+                batch.rectangleBounds[start + 3] = maxY;
+            } else {
+                batch.rectangleBounds = null;
+            }
+        }
+        batch.minX = Math.min(batch.minX, minX);
+        batch.minY = Math.min(batch.minY, minY);
+        batch.maxX = Math.max(batch.maxX, maxX);
+        batch.maxY = Math.max(batch.maxY, maxY);
+        if(firstShapeOfObject) {
+            batch.objectCount++;
+            firstShapeOfObject = false;
+        }
+        for(int cellY = firstCellY; cellY <= lastCellY; cellY++) {
+            for(int cellX = firstCellX; cellX <= lastCellX; cellX++) {
+                int cell = cellY * CELLS_PER_SIDE + cellX;
+                square.lastBatchInCell[cell] = Math.max(square.lastBatchInCell[cell], batchIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * ScriptedInput class:
+ * An InputSource that presses and releases keys at predefined ticks. The script
+ * can optionally loop so that it repeats for as long as the game is run.
+ */
+public class ScriptedInput implements InputSource {
+    /**
+     * Number of events the arrays can hold before they first need to grow.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Tick each event occurs on relative to the start of the script.
+     */
+    private long[] eventTicks;
+    /**
+     * Key for each event.
+     */
+    private int[] eventKeyCodes;
+    /**
+     * True for each event that is a key press, false for a release.
+     */
+    private boolean[] eventIsPressed;
+    /**
+     * Number of events.
+     */
+    private int eventCount;
+    /**
+     * Number of ticks before the script repeats, or 0 if it only plays once.
+     */
+    private long loopLength;
+    /**
+     * Index of the next event to apply.
+     */
+    private int nextEvent;
+
+    /**
+     * Creates an empty script that plays once.
+     */
+    public ScriptedInput() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty script.
+     *
+     * @param loopLength Number of ticks before the script repeats, or 0 to only play once.
+     */
+    public ScriptedInput(long loopLength) {
+        eventTicks = new long[INITIAL_CAPACITY];
+        eventKeyCodes = new int[INITIAL_CAPACITY];
+        eventIsPressed = new boolean[INITIAL_CAPACITY];
+        eventCount = 0;
+        this.loopLength = loopLength;
+        nextEvent = 0;
+    }
+
+    /**
+     * Adds a key press. Events must be added in order of tick.
+     *
+     * @param tick Tick to press the key on.
+     * @param keyCode The key to press.
+     * @return This script so calls can be chained.
+     */
+    public ScriptedInput press(long tick, int keyCode) {
+        return addEvent(tick, keyCode, true);
+    }
+
+    /**
+     * Adds a key release. Events must be added in order of tick.
+     *
+     * @param tick Tick to release the key on.
+     * @param keyCode The key to release.
+     * @return This script so calls can be chained.
+     */
+    public ScriptedInput release(long tick, int keyCode) {
+        return addEvent(tick, keyCode, false);
+    }
+
+    /**
+     * Adds a key event. Events must be added in order of tick.
+     *
+     * @param tick Tick the event occurs on.
+     * @param keyCode The key that was interacted with.
+     * @param isPressed True indicates it was pressed, false means it was released.
+     * @return This script so calls can be chained.
+     */
+    public ScriptedInput addEvent(long tick, int keyCode, boolean isPressed) {
+        if(eventCount > 0 && tick < eventTicks[eventCount-1]) {
+            throw new IllegalArgumentException("Events must be added in order of tick: " + tick);
+        }
+        if(loopLength > 0 && tick >= loopLength) {
+            throw new IllegalArgumentException("Event tick " + tick + " is outside the loop length " + loopLength);
+        }
+        if(eventCount == eventTicks.length) {
+            eventTicks = Arrays.copyOf(eventTicks, eventCount * 2);
+            eventKeyCodes = Arrays.copyOf(eventKeyCodes, eventCount * 2);
+            eventIsPressed = Arrays.copyOf(eventIsPressed, eventCount * 2);
+        }
+        eventTicks[eventCount] = tick;
+        eventKeyCodes[eventCount] = keyCode;
+        eventIsPressed[eventCount] = isPressed;
+        eventCount++;
+        return this;
+    }
+
+    /**
+     * Passes on every event scheduled for the tick.
+     *
+     * @param tick The number of the tick about to be simulated.
+     * @param session The session to pass input to with handleInput().
+     */
+    @Override
+    public void applyInput(long tick, GameSession session) {
+        long scriptTick = tick;
+        if(loopLength > 0) {
+            scriptTick = tick % loopLength;
+            if(scriptTick == 0) {
+                nextEvent = 0;
+            }
+        }
+        while(nextEvent < eventCount && eventTicks[nextEvent] <= scriptTick) {
+            session.handleInput(eventKeyCodes[nextEvent], eventIsPressed[nextEvent]);
+            nextEvent++;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * SimulationThread class:
+ * Runs the GameSession with a fixed time step on its own thread instead of the EDT,
+ * so a slow paint can't delay the simulation. Tick n covers the real time from
+ * n to n + 1 steps after the thread started and is simulated once that time has
+ * passed. Before each tick the InputQueue is drained up to the end of the tick's
+ * time, so every key event is applied on the tick it happened during. When the
+ * thread falls behind and simulates several ticks at once the events are still
+ * spread over the ticks they belong to, which keeps input latency consistent.
+ * The session must only be accessed while holding the lock.
+ */
+public class SimulationThread implements Runnable {
+    /**
+     * Maximum number of ticks simulated at once. Any more time than this is
+     * dropped so a long stall doesn't leave the game permanently behind.
+     */
+    private static final int MAX_TICKS_BEHIND = 10;
+
+    /**
+     * The session to simulate.
+     */
+    private final GameSession session;
+    /**
+     * Key events waiting to be applied to the session.
+     */
+    private final InputQueue inputQueue;
+    /**
+     * Length of a single tick in ms.
+     */
+    private final int stepMillis;
+    /**
+     * Length of a single tick in ns.
+     */
+    private final long stepNanos;
+    /**
+     * Called while holding the lock after each group of ticks, such as to request a repaint.
+     */
+    private final Runnable afterTicks;
+    /**
+     * Held while the session is being simulated, and must be held by anything else using the session.
+     */
+    private final ReentrantLock lock;
+    /**
+     * The thread running the simulation.
+     */
+    private Thread thread;
+    /**
+     * When false the thread will stop after the current tick.
+     */
+    private volatile boolean running;
+
+    /**
+     * Creates the simulation ready to start.
+     *
+     * @param session The session to simulate.
+     * @param inputQueue Key events to apply to the session.
+     * @param stepMillis Length of a single tick in ms.
+     * @param afterTicks Called while holding the lock after each group of ticks.
+     */
+    public SimulationThread(GameSession session, InputQueue inputQueue, int stepMillis, Runnable afterTicks) {
+        this.session = session;
+        this.inputQueue = inputQueue;
+        this.stepMillis = stepMillis;
+        stepNanos = stepMillis * 1_000_000L;
+        this.afterTicks = afterTicks;
+        lock = new ReentrantLock();
+    }
+
+    /**
+     * Starts the thread running the simulation.
+     */
+    public void start() {
+        if(running) return;
+        running = true;
+        thread = new Thread(this, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the simulation after the current tick.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Gets the lock that must be held while using the session, such as when painting it.
+     *
+     * @return The lock guarding the session.
+     */
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Simulates each tick once its time has passed and then sleeps until the next is due.
+     */
+    @Override
+    public void run() {
+        long tickEndTime = System.nanoTime() + stepNanos;
+        while(running) {
+            long now = System.nanoTime();
+            if(now - tickEndTime >= MAX_TICKS_BEHIND * stepNanos) {
+                // Too far behind so drop the missed time
+                tickEndTime = now - (MAX_TICKS_BEHIND - 1) * stepNanos;
+            }
+            if(now - tickEndTime >= 0) {
+                lock.lock();
+                try {
+                    while(now - tickEndTime >= 0) {
+                        inputQueue.drainUntil(tickEndTime, session);
+                        session.tick(stepMillis);
+                        tickEndTime += stepNanos;
+                    }
+                    afterTicks.run();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            long sleepNanos = tickEndTime - System.nanoTime();
+            if(sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int)(sleepNanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
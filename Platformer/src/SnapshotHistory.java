@@ -0,0 +1,113 @@
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * SnapshotHistory class:
+ * Keeps a ring of WorldSnapshots of the most recent ticks of a GameSession so
+ * the game can be rewound or rolled back. The snapshots are created once and
+ * reused as the ring wraps around, so capturing every tick doesn't allocate.
+ */
+public class SnapshotHistory {
+    /**
+     * The session being captured.
+     */
+    private final GameSession session;
+    /**
+     * Ring of snapshots, oldest overwritten first.
+     */
+    private final WorldSnapshot[] snapshots;
+    /**
+     * Index the next snapshot will be captured into.
+     */
+    private int nextIndex;
+    /**
+     * Number of snapshots holding a state.
+     */
+    private int count;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param session The session to capture.
+     * @param capacity Number of snapshots to keep.
+     */
+    public SnapshotHistory(GameSession session, int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.session = session;
+        snapshots = new WorldSnapshot[capacity];
+        for(int i = 0; i < capacity; i++) {
+            snapshots[i] = new WorldSnapshot();
+        }
+        nextIndex = 0;
+        count = 0;
+    }
+
+    /**
+     * Captures the current state of the session, replacing the oldest snapshot if the ring is full.
+     */
+    public void capture() {
+        snapshots[nextIndex].capture(session);
+        nextIndex = (nextIndex + 1) % snapshots.length;
+        count = Math.min(count + 1, snapshots.length);
+    }
+
+    /**
+     * Gets a snapshot without restoring it, for example to branch a copy of the simulation.
+     *
+     * @param ticksAgo 0 for the most recent snapshot, 1 for the one before it, and so on.
+     * @return The snapshot, or null if that many ticks are not kept.
+     */
+    public WorldSnapshot get(int ticksAgo) {
+        if(ticksAgo < 0 || ticksAgo >= count) return null;
+        return snapshots[Math.floorMod(nextIndex - 1 - ticksAgo, snapshots.length)];
+    }
+
+    /**
+     * Restores the session to an earlier snapshot and forgets every snapshot newer than it,
+     * so capturing continues from the restored tick.
+     *
+     * @param ticksAgo 0 for the most recent snapshot, 1 for the one before it, and so on.
+     * @return True if the state was restored, false if it is not kept or the map has changed since.
+     */
+    public boolean rewind(int ticksAgo) {
+        WorldSnapshot snapshot = get(ticksAgo);
+        if(snapshot == null || !snapshot.restore(session)) return false;
+        for(int i = 0; i < ticksAgo; i++) {
+            nextIndex = Math.floorMod(nextIndex - 1, snapshots.length);
+            snapshots[nextIndex].clear();
+        }
+        count -= ticksAgo;
+        return true;
+    }
+
+    /**
+     * Gets the number of snapshots currently held.
+     *
+     * @return The number of ticks that can be rewound through.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the largest number of snapshots that can be held.
+     *
+     * @return The capacity of the ring.
+     */
+    public int getCapacity() {
+        return snapshots.length;
+    }
+
+    /**
+     * Forgets every snapshot. The buffers are kept for reuse.
+     */
+    public void clear() {
+        for(WorldSnapshot snapshot : snapshots) {
+            snapshot.clear();
+        }
+        nextIndex = 0;
+        count = 0;
+    }
+}
@@ -0,0 +1,359 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * SpatialHash class:
+ * A uniform grid of square cells that buckets GameObjects by the cells their
+ * bounds overlap. Queries only need to look at the objects in the cells that
+ * the query bounds overlap instead of every object in the map. Buckets hold
+ * entity indices and bounds are read from the EntityStore. The range of cells
+ * each entity was added to is kept so it can be moved when its bounds change.
+ */
+public class SpatialHash {
+    /**
+     * Marks an unused slot in the cell table.
+     */
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    /**
+     * Initial number of slots in the cell table (must be a power of 2).
+     */
+    private static final int INITIAL_CAPACITY = 256;
+    /**
+     * Initial number of entries in each bucket.
+     */
+    private static final int INITIAL_BUCKET_SIZE = 4;
+
+    /**
+     * Width and height of each cell in pixels.
+     */
+    private final int cellSize;
+    /**
+     * Bounds and objects for every entity index in the grid.
+     */
+    private final EntityStore entityStore;
+    /**
+     * Open addressed table of cell keys. Slots with EMPTY_KEY are unused.
+     */
+    private long[] cellKeys;
+    /**
+     * For each slot in cellKeys the index into buckets for that cell.
+     */
+    private int[] cellBuckets;
+    /**
+     * Number of used slots in the cell table.
+     */
+    private int cellCount;
+    /**
+     * The entity indices in each cell. Buckets are reused after clear().
+     */
+    private int[][] buckets;
+    /**
+     * Number of entity indices in each bucket.
+     */
+    private int[] bucketSizes;
+    /**
+     * Number of buckets currently in use.
+     */
+    private int bucketCount;
+    /**
+     * For each entity index the range of cells the entity was added to.
+     */
+    private int[] entityMinCellX, entityMinCellY, entityMaxCellX, entityMaxCellY;
+
+    /**
+     * Creates an empty grid with the specified cell size.
+     *
+     * @param cellSize Width and height of each cell in pixels.
+     * @param entityStore Store that every object added to the grid is already in.
+     */
+    public SpatialHash(int cellSize, EntityStore entityStore) {
+        if(cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        this.entityStore = entityStore;
+        cellKeys = new long[INITIAL_CAPACITY];
+        cellBuckets = new int[INITIAL_CAPACITY];
+        buckets = new int[INITIAL_CAPACITY][];
+        bucketSizes = new int[INITIAL_CAPACITY];
+        entityMinCellX = new int[INITIAL_CAPACITY];
+        entityMinCellY = new int[INITIAL_CAPACITY];
+        entityMaxCellX = new int[INITIAL_CAPACITY];
+        entityMaxCellY = new int[INITIAL_CAPACITY];
+        clear();
+    }
+
+    /**
+     * Gets the width and height of each cell.
+     *
+     * @return The cell size in pixels.
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Removes all objects from the grid.
+     */
+    public void clear() {
+        Arrays.fill(cellKeys, EMPTY_KEY);
+        Arrays.fill(bucketSizes, 0, bucketCount, 0);
+        cellCount = 0;
+        bucketCount = 0;
+    }
+
+    /**
+     * Adds the object to every cell that its stored bounds overlap.
+     *
+     * @param gameObject Object to add.
+     */
+    public void insert(GameObject gameObject) {
+        int index = gameObject.getEntityIndex();
+        recordCells(index);
+        for(int cellY = entityMinCellY[index]; cellY <= entityMaxCellY[index]; cellY++) {
+            for(int cellX = entityMinCellX[index]; cellX <= entityMaxCellX[index]; cellX++) {
+                addToBucket(getOrCreateBucket(cellX, cellY), index);
+            }
+        }
+    }
+
+    /**
+     * Adds the object to a single cell. The object must also be added to every other
+     * cell its bounds overlap for queries to find it.
+     *
+     * @param cellX Cell index along the x axis.
+     * @param cellY Cell index along the y axis.
+     * @param gameObject Object to add.
+     */
+    public void insertIntoCell(int cellX, int cellY, GameObject gameObject) {
+        int index = gameObject.getEntityIndex();
+        recordCells(index);
+        addToBucket(getOrCreateBucket(cellX, cellY), index);
+    }
+
+    /**
+     * Moves the object to the cells its stored bounds overlap now, if they are not
+     * the cells it was added to. Call this after the object has moved or changed size.
+     *
+     * @param gameObject Object that may have moved.
+     */
+    public void update(GameObject gameObject) {
+        int index = gameObject.getEntityIndex();
+        int x = entityStore.x[index];
+        int y = entityStore.y[index];
+        if(toCell(x) == entityMinCellX[index] && toCell(y) == entityMinCellY[index]
+                && toCell(x + entityStore.width[index]) == entityMaxCellX[index]
+                && toCell(y + entityStore.height[index]) == entityMaxCellY[index]) return;
+        remove(gameObject);
+        insert(gameObject);
+    }
+
+    /**
+     * Removes the object from every cell that it was added to.
+     *
+     * @param gameObject Object to remove.
+     */
+    public void remove(GameObject gameObject) {
+        int index = gameObject.getEntityIndex();
+        for(int cellY = entityMinCellY[index]; cellY <= entityMaxCellY[index]; cellY++) {
+            for(int cellX = entityMinCellX[index]; cellX <= entityMaxCellX[index]; cellX++) {
+                int bucket = getBucket(cellX, cellY);
+                if(bucket == -1) continue;
+                int[] entries = buckets[bucket];
+                int count = bucketSizes[bucket];
+                for(int i = 0; i < count; i++) {
+                    if(entries[i] == index) {
+                        entries[i] = entries[count - 1];
+                        bucketSizes[bucket] = count - 1;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the range of cells an entity's stored bounds overlap as the cells it is added to.
+     *
+     * @param index Entity index being added.
+     */
+    private void recordCells(int index) {
+        if(index >= entityMinCellX.length) {
+            int capacity = Math.max(entityMinCellX.length * 2, index + 1);
+            entityMinCellX = Arrays.copyOf(entityMinCellX, capacity);
+            entityMinCellY = Arrays.copyOf(entityMinCellY, capacity);
+            entityMaxCellX = Arrays.copyOf(entityMaxCellX, capacity);
+            entityMaxCellY = Arrays.copyOf(entityMaxCellY, capacity);
+        }
+        entityMinCellX[index] = toCell(entityStore.x[index]);
+        entityMinCellY[index] = toCell(entityStore.y[index]);
+        entityMaxCellX[index] = toCell(entityStore.x[index] + entityStore.width[index]);
+        entityMaxCellY[index] = toCell(entityStore.y[index] + entityStore.height[index]);
+    }
+
+    /**
+     * Finds all objects that intersect the specified bounds and adds them to result.
+     * Each object is reported once even if it shares several cells with the query.
+     * The results are in no particular order.
+     *
+     * @param objectToTest Bounds to test collisions against. If it is an object in the grid it is never included in the result.
+     * @param result List to append the intersecting objects to.
+     * @return The number of entries looked at in the overlapped cells.
+     */
+    public int query(Rectangle objectToTest, List<GameObject> result) {
+        int queryX = objectToTest.position.getX();
+        int queryY = objectToTest.position.getY();
+        int queryWidth = objectToTest.getWidth();
+        int queryHeight = objectToTest.getHeight();
+        int minCellX = toCell(queryX);
+        int minCellY = toCell(queryY);
+        int maxCellX = toCell(queryX + queryWidth);
+        int maxCellY = toCell(queryY + queryHeight);
+        GameObject[] objects = entityStore.objects;
+        int candidates = 0;
+        for(int cellY = minCellY; cellY <= maxCellY; cellY++) {
+            for(int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                int bucket = getBucket(cellX, cellY);
+                if(bucket == -1) continue;
+                int[] entries = buckets[bucket];
+                int count = bucketSizes[bucket];
+                candidates += count;
+                for(int i = 0; i < count; i++) {
+                    int index = entries[i];
+                    // Only report an object from the first cell it shares with the query
+                    if(cellX != Math.max(minCellX, entityMinCellX[index])
+                            || cellY != Math.max(minCellY, entityMinCellY[index])) continue;
+                    if(objects[index] != objectToTest
+                            && entityStore.isIntersecting(index, queryX, queryY, queryWidth, queryHeight)) {
+                        result.add(objects[index]);
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Converts a coordinate to the index of the cell containing it.
+     *
+     * @param coordinate X or Y coordinate in pixels.
+     * @return The cell index along that axis.
+     */
+    private int toCell(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    /**
+     * Combines the two cell indices into a single key.
+     *
+     * @param cellX Cell index along the x axis.
+     * @param cellY Cell index along the y axis.
+     * @return A key unique to the cell.
+     */
+    private static long toKey(int cellX, int cellY) {
+        return ((long)cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Spreads the bits of the key to find the starting slot in the table.
+     *
+     * @param key Key for the cell.
+     * @return The first slot to probe.
+     */
+    private int slotFor(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & (cellKeys.length - 1);
+    }
+
+    /**
+     * Appends an entity index to a bucket, growing the bucket if it is full.
+     *
+     * @param bucket Index of the bucket.
+     * @param index Entity index to add.
+     */
+    private void addToBucket(int bucket, int index) {
+        int count = bucketSizes[bucket];
+        if(count == buckets[bucket].length) {
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], count * 2);
+        }
+        buckets[bucket][count] = index;
+        bucketSizes[bucket] = count + 1;
+    }
+
+    /**
+     * Gets the bucket for the specified cell.
+     *
+     * @param cellX Cell index along the x axis.
+     * @param cellY Cell index along the y axis.
+     * @return The index of the cell's bucket, or -1 if the cell has never been used.
+     */
+    private int getBucket(int cellX, int cellY) {
+        long key = toKey(cellX, cellY);
+        int slot = slotFor(key);
+        while(cellKeys[slot] != EMPTY_KEY) {
+            if(cellKeys[slot] == key) {
+                return cellBuckets[slot];
+            }
+            slot = (slot + 1) & (cellKeys.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the bucket for the specified cell creating it if necessary.
+     *
+     * @param cellX Cell index along the x axis.
+     * @param cellY Cell index along the y axis.
+     * @return The index of the cell's bucket.
+     */
+    private int getOrCreateBucket(int cellX, int cellY) {
+        long key = toKey(cellX, cellY);
+        int slot = slotFor(key);
+        while(cellKeys[slot] != EMPTY_KEY) {
+            if(cellKeys[slot] == key) {
+                return cellBuckets[slot];
+            }
+            slot = (slot + 1) & (cellKeys.length - 1);
+        }
+        if(bucketCount == buckets.length) {
+            buckets = Arrays.copyOf(buckets, bucketCount * 2);
+            bucketSizes = Arrays.copyOf(bucketSizes, bucketCount * 2);
+        }
+        if(buckets[bucketCount] == null) {
+            buckets[bucketCount] = new int[INITIAL_BUCKET_SIZE];
+        }
+        int bucketIndex = bucketCount;
+        cellKeys[slot] = key;
+        cellBuckets[slot] = bucketIndex;
+        cellCount++;
+        bucketCount++;
+        // Keep the table at most half full so probes stay short
+        if(cellCount * 2 > cellKeys.length) {
+            grow();
+        }
+        return bucketIndex;
+    }
+
+    /**
+     * Doubles the size of the cell table and re-inserts the existing cells.
+     */
+    private void grow() {
+        long[] oldKeys = cellKeys;
+        int[] oldBuckets = cellBuckets;
+        cellKeys = new long[oldKeys.length * 2];
+        cellBuckets = new int[oldKeys.length * 2];
+        Arrays.fill(cellKeys, EMPTY_KEY);
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] == EMPTY_KEY) continue;
+            int slot = slotFor(oldKeys[i]);
+            while(cellKeys[slot] != EMPTY_KEY) {
+                slot = (slot + 1) & (cellKeys.length - 1);
+            }
+            cellKeys[slot] = oldKeys[i];
+            cellBuckets[slot] = oldBuckets[i];
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import java.awt.*;
+import java.awt.geom.Path2D;
 
 /**
  * Platformer
@@ -7,7 +8,16 @@ import java.awt.*;
  * Spikes class:
  * Represents triangular spikes that cause lethal damage to the player.
  */
-public class Spikes extends GameObject implements CollisionTrigger {
+public class Spikes extends GameObject {
+    /**
+     * Colour the spikes are filled with.
+     */
+    private static final Color FILL_COLOR = new Color(160, 160, 160);
+    /**
+     * Colour of the outline around the spikes.
+     */
+    private static final Color OUTLINE_COLOR = new Color(139, 12, 12);
+
     /**
      * X coordinates to draw the spikes.
      */
@@ -16,6 +26,14 @@ public class Spikes extends GameObject implements CollisionTrigger {
      * Y coordinates to draw the spikes.
      */
     private int[] polyYCoords;
+    /**
+     * The polygon as a shape, so drawing the spikes alone rasterises the same as drawing them in a batch.
+     */
+    private Path2D.Float polygon;
+    /**
+     * Bounds the polygon was calculated for, so it can be recalculated after the spikes are moved.
+     */
+    private int polyX, polyY, polyWidth, polyHeight;
 
     /**
      * Creates a group of spikes that has 1 spike every 20 pixels.
@@ -27,20 +45,41 @@ public class Spikes extends GameObject implements CollisionTrigger {
     public Spikes(Position position, int width, int height) {
         super(position, width, height);
 
-        int spikeCount = width/20;
-        canEnter = true;
-        isGround = false;
+        setCanEnter(true);
+        setGround(false);
+        setStaticGeometry(true);
+        updatePolygon();
+    }
+
+    /**
+     * Calculates the coordinates of the polygon if the bounds have changed since it was last calculated.
+     */
+    private void updatePolygon() {
+        if(polyXCoords != null && polyX == position.getX() && polyY == position.getY()
+                && polyWidth == getWidth() && polyHeight == getHeight()) return;
+        polyX = position.getX();
+        polyY = position.getY();
+        polyWidth = getWidth();
+        polyHeight = getHeight();
+        int spikeCount = getWidth()/20;
 
         // Calculate the coordinates for the resulting polygon.
         polyXCoords = new int[spikeCount*2+1];
         for(int i = 0; i < polyXCoords.length; i++) {
-            polyXCoords[i] = position.x + i * 10;
+            polyXCoords[i] = position.getX() + i * 10;
         }
 
         polyYCoords = new int[spikeCount*2+1];
         for(int i = 0; i < polyYCoords.length; i++) {
-            polyYCoords[i] = position.y + ((i % 2 == 0) ? height : 0);
+            polyYCoords[i] = position.getY() + ((i % 2 == 0) ? getHeight() : 0);
         }
+
+        polygon = new Path2D.Float();
+        polygon.moveTo(polyXCoords[0], polyYCoords[0]);
+        for(int i = 1; i < polyXCoords.length; i++) {
+            polygon.lineTo(polyXCoords[i], polyYCoords[i]);
+        }
+        polygon.closePath();
     }
 
     /**
@@ -50,21 +89,34 @@ public class Spikes extends GameObject implements CollisionTrigger {
      */
     @Override
     public void paint(Graphics g) {
-        g.setColor(new Color(160, 160, 160));
-        g.fillPolygon(polyXCoords, polyYCoords, polyXCoords.length);
-        g.setColor(new Color(139, 12, 12));
-        g.drawPolygon(polyXCoords, polyYCoords, polyXCoords.length);
+        updatePolygon();
+        Graphics2D g2 = (Graphics2D)g;
+        g2.setColor(FILL_COLOR);
+        g2.fill(polygon);
+        g2.setColor(OUTLINE_COLOR);
+        g2.draw(polygon);
     }
 
     /**
-     * When the player collides with the spikes it will cause lethal damage.
+     * Adds the filled triangles and then their outline to the render batches.
      *
-     * @param object The object that collided with this object.
+     * @param batches The batches to add the shapes drawn to.
+     * @return True as the spikes are drawn entirely by the batches.
      */
     @Override
-    public void collideWith(GameObject object) {
-        if(object instanceof Player) {
-            ((Player) object).damagePlayer(1);
-        }
+    public boolean addToBatches(RenderBatches batches) {
+        updatePolygon();
+        batches.fillPolygon(FILL_COLOR, polyXCoords, polyYCoords);
+        batches.drawPolygon(OUTLINE_COLOR, polyXCoords, polyYCoords);
+        return true;
+    }
+
+    /**
+     * When the player touches the spikes it will cause lethal damage.
+     *
+     * @param player The player that touched the spikes.
+     */
+    public void hurt(Player player) {
+        player.damagePlayer(1);
     }
 }
@@ -0,0 +1,167 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * StaticLayerCache class:
+ * Holds an image with all the static geometry drawn into it once so that each
+ * frame the static objects can be drawn with a single drawImage call. The
+ * image is created to be compatible with the screen so it can be accelerated.
+ * When a few static objects change only the area they cover is redrawn.
+ */
+public class StaticLayerCache {
+    /**
+     * Largest number of pixels the cached image may have. Larger layers are not cached.
+     */
+    private static final long MAX_PIXELS = 16_000_000;
+
+    /**
+     * The rendered static objects, or null if nothing has been rendered.
+     */
+    private BufferedImage image;
+    /**
+     * World coordinates of the top left corner of the image.
+     */
+    private int originX, originY;
+    /**
+     * When false the image must be rebuilt before it is drawn.
+     */
+    private boolean valid;
+    /**
+     * Area of the image that needs redrawing before it is next drawn, in world coordinates.
+     */
+    private DirtyRegion staleRegion;
+
+    /**
+     * Creates an empty cache that will be built when first drawn.
+     */
+    public StaticLayerCache() {
+        valid = false;
+        staleRegion = new DirtyRegion();
+    }
+
+    /**
+     * Marks the cache as needing to be rebuilt, such as after a new map has been loaded.
+     */
+    public void invalidate() {
+        valid = false;
+        staleRegion.clear();
+    }
+
+    /**
+     * Marks the area covered by a static object that has been added, removed or moved as needing
+     * to be redrawn. The whole cache is rebuilt instead if the area is outside the current image.
+     *
+     * @param rectangle Bounds of the object that changed.
+     */
+    public void invalidate(Rectangle rectangle) {
+        if(!valid) return;
+        // Include the right/bottom edge pixel that outlines are drawn on
+        if(image == null || rectangle.position.getX() < originX || rectangle.position.getY() < originY
+                || rectangle.position.getX() + rectangle.getWidth() + 1 > originX + image.getWidth()
+                || rectangle.position.getY() + rectangle.getHeight() + 1 > originY + image.getHeight()) {
+            invalidate();
+            return;
+        }
+        staleRegion.add(rectangle);
+    }
+
+    /**
+     * Gets whether the cache is up to date.
+     *
+     * @return True if the cached image can be drawn without rebuilding it.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Draws the cached layer rebuilding it first if it is out of date.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param objects Objects to take the static geometry from if the layer needs to be rebuilt.
+     * @return True if the layer was drawn, or false if it is too large to cache and the objects must be drawn directly.
+     */
+    public boolean paint(Graphics g, List<GameObject> objects) {
+        if(!valid) {
+            GraphicsConfiguration configuration = ((Graphics2D)g).getDeviceConfiguration();
+            rebuild(objects, configuration);
+        } else if(!staleRegion.isEmpty()) {
+            redrawStaleRegion(objects);
+        }
+        if(image == null) return false;
+        g.drawImage(image, originX, originY, null);
+        return true;
+    }
+
+    /**
+     * Draws all the static objects into a new image covering their combined bounds.
+     * The image is left as null if the bounds are too large.
+     *
+     * @param objects Objects to take the static geometry from.
+     * @param configuration The configuration of the device the image will be drawn to.
+     */
+    private void rebuild(List<GameObject> objects, GraphicsConfiguration configuration) {
+        valid = true;
+        staleRegion.clear();
+        image = null;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(!object.isStaticGeometry()) continue;
+            minX = Math.min(minX, object.position.getX());
+            minY = Math.min(minY, object.position.getY());
+            // Include an extra pixel for outlines drawn on the right/bottom edge
+            maxX = Math.max(maxX, object.position.getX() + object.getWidth() + 1);
+            maxY = Math.max(maxY, object.position.getY() + object.getHeight() + 1);
+        }
+        if(minX > maxX) return;
+        long width = (long)maxX - minX;
+        long height = (long)maxY - minY;
+        if(width * height > MAX_PIXELS) return;
+
+        image = configuration.createCompatibleImage((int)width, (int)height, Transparency.BITMASK);
+        originX = minX;
+        originY = minY;
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.translate(-originX, -originY);
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(object.isStaticGeometry()) {
+                object.paint(imageGraphics);
+            }
+        }
+        imageGraphics.dispose();
+    }
+
+    /**
+     * Clears the stale region of the image and draws the static objects that overlap it again
+     * in their original order, so overlapping objects layer the same as after a full rebuild.
+     *
+     * @param objects Objects to take the static geometry from.
+     */
+    private void redrawStaleRegion(List<GameObject> objects) {
+        int x = staleRegion.getX(), y = staleRegion.getY();
+        int width = staleRegion.getWidth(), height = staleRegion.getHeight();
+        staleRegion.clear();
+        if(image == null) return;
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.translate(-originX, -originY);
+        imageGraphics.clipRect(x, y, width, height);
+        imageGraphics.setComposite(AlphaComposite.Clear);
+        imageGraphics.fillRect(x, y, width, height);
+        imageGraphics.setComposite(AlphaComposite.SrcOver);
+        for(int i = 0; i < objects.size(); i++) {
+            GameObject object = objects.get(i);
+            if(object.isStaticGeometry() && object.position.getX() <= x + width && object.position.getX() + object.getWidth() + 1 >= x
+                    && object.position.getY() <= y + height && object.position.getY() + object.getHeight() + 1 >= y) {
+                object.paint(imageGraphics);
+            }
+        }
+        imageGraphics.dispose();
+    }
+}
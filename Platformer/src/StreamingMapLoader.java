@@ -0,0 +1,598 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * StreamingMapLoader class:
+ * Streams a map written by ChunkedMapFormat into the ObjectManager around the
+ * player. Chunks within the preload radius of the player's chunk are parsed on
+ * a background thread and handed to the ObjectManager when update() is called
+ * at a tick boundary. Chunks that are far away, or that push the estimated
+ * memory use over budget, are removed again. An object listed in several
+ * chunks is added once and only removed when none of its chunks are loaded.
+ * Which collectibles have been collected is remembered when they are removed.
+ */
+public class StreamingMapLoader {
+    /**
+     * Default number of chunks around the player's chunk to keep loaded.
+     */
+    public static final int DEFAULT_PRELOAD_RADIUS = 2;
+    /**
+     * Default estimated memory the loaded objects may use in bytes.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    /**
+     * Rough number of bytes used by each loaded object including its Position and index entries.
+     */
+    private static final int ESTIMATED_OBJECT_BYTES = 160;
+
+    /**
+     * A chunk listed in the chunk table.
+     */
+    private static class Chunk {
+        /**
+         * Location of the chunk in chunks.
+         */
+        final int chunkX, chunkY;
+        /**
+         * Number of objects in the chunk.
+         */
+        final int objectCount;
+        /**
+         * Position of the chunk's records in the file.
+         */
+        final long offset;
+        /**
+         * Index in the map of each object in the chunk while loaded, or null when not loaded.
+         */
+        int[] objects;
+        /**
+         * True while the chunk is being parsed in the background.
+         */
+        boolean pending;
+        /**
+         * Time the chunk was requested in ns.
+         */
+        long requestTime;
+
+        /**
+         * Creates the chunk from its entry in the chunk table.
+         *
+         * @param chunkX Chunk index along the x axis.
+         * @param chunkY Chunk index along the y axis.
+         * @param objectCount Number of objects in the chunk.
+         * @param offset Position of the chunk's records in the file.
+         */
+        Chunk(int chunkX, int chunkY, int objectCount, long offset) {
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
+            this.objectCount = objectCount;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A chunk that has been parsed in the background and is waiting to be added.
+     */
+    private static class ParsedChunk {
+        /**
+         * The chunk that was parsed.
+         */
+        final Chunk chunk;
+        /**
+         * Index in the map of each object that was parsed.
+         */
+        final int[] mapIndices;
+        /**
+         * The objects that were parsed, or null if the chunk was corrupt.
+         */
+        final List<GameObject> objects;
+        /**
+         * Value of generation when the chunk was requested.
+         */
+        final int generation;
+
+        /**
+         * Creates the result of parsing a chunk.
+         *
+         * @param chunk The chunk that was parsed.
+         * @param generation Value of generation when the chunk was requested.
+         */
+        ParsedChunk(Chunk chunk, int generation) {
+            this(chunk, generation, new ArrayList<>(chunk.objectCount));
+        }
+
+        /**
+         * Creates the result of parsing a chunk with a list to fill.
+         *
+         * @param chunk The chunk that was parsed.
+         * @param generation Value of generation when the chunk was requested.
+         * @param objects List to fill with the parsed objects, or null if the chunk was corrupt.
+         */
+        ParsedChunk(Chunk chunk, int generation, List<GameObject> objects) {
+            this.chunk = chunk;
+            this.mapIndices = new int[chunk.objectCount];
+            this.objects = objects;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * An object added to the ObjectManager from one or more chunks.
+     */
+    private static class LoadedObject {
+        /**
+         * The object that was added.
+         */
+        final GameObject object;
+        /**
+         * Number of loaded chunks that list the object.
+         */
+        int chunkCount;
+
+        /**
+         * Creates the entry for an object that has just been added.
+         *
+         * @param object The object that was added.
+         */
+        LoadedObject(GameObject object) {
+            this.object = object;
+            this.chunkCount = 0;
+        }
+    }
+
+    /**
+     * Reference to the ObjectManager for adding/removing objects.
+     */
+    private ObjectManager objectManager;
+    /**
+     * Number of chunks around the player's chunk to keep loaded.
+     */
+    private int preloadRadius;
+    /**
+     * Estimated memory the loaded objects may use in bytes.
+     */
+    private long memoryBudget;
+    /**
+     * The mapped file. Only duplicates are read from so each thread has its own position.
+     */
+    private ByteBuffer buffer;
+    /**
+     * Width and height of each chunk in pixels.
+     */
+    private int chunkSize;
+    /**
+     * Every chunk in the file by key.
+     */
+    private Map<Long, Chunk> chunks;
+    /**
+     * The chunks currently added to the ObjectManager.
+     */
+    private List<Chunk> loadedChunks;
+    /**
+     * Objects currently added from chunks by their index in the map.
+     */
+    private Map<Integer, LoadedObject> loadedObjects;
+    /**
+     * Index in the map of every Collectible that was collected when it was removed.
+     */
+    private BitSet collected;
+    /**
+     * Thread that parses chunks.
+     */
+    private ExecutorService executor;
+    /**
+     * Chunks parsed by the executor waiting for the next update().
+     */
+    private ConcurrentLinkedQueue<ParsedChunk> parsedChunks;
+    /**
+     * Increased every time a map is closed. Chunks parsed for an earlier generation are from a
+     * map that is no longer open, because shutting down the executor doesn't stop a parse that
+     * has already started, and are dropped.
+     */
+    private int generation;
+    /**
+     * Where the player starts in the map.
+     */
+    private int playerStartX, playerStartY;
+
+    /**
+     * Number of chunks that have been added.
+     */
+    private long loadCount;
+    /**
+     * Number of chunks that have been removed.
+     */
+    private long evictionCount;
+    /**
+     * Total and maximum time from requesting a chunk to it being added in ns.
+     */
+    private long totalLoadLatency, maxLoadLatency;
+
+    /**
+     * Creates a loader using the default preload radius and memory budget.
+     *
+     * @param objectManager Reference to the ObjectManager for adding/removing objects.
+     */
+    public StreamingMapLoader(ObjectManager objectManager) {
+        this(objectManager, DEFAULT_PRELOAD_RADIUS, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a loader ready for open().
+     *
+     * @param objectManager Reference to the ObjectManager for adding/removing objects.
+     * @param preloadRadius Number of chunks around the player's chunk to keep loaded.
+     * @param memoryBudget Estimated memory the loaded objects may use in bytes.
+     */
+    public StreamingMapLoader(ObjectManager objectManager, int preloadRadius, long memoryBudget) {
+        this.objectManager = objectManager;
+        this.preloadRadius = preloadRadius;
+        this.memoryBudget = memoryBudget;
+        chunks = new HashMap<>();
+        loadedChunks = new ArrayList<>();
+        loadedObjects = new HashMap<>();
+        collected = new BitSet();
+        parsedChunks = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Opens the chunked map, clears the ObjectManager, adds the Player and then
+     * loads the chunks around the player before returning. Any errors will be reported.
+     *
+     * @param fileName File to open.
+     * @return True if the map was opened.
+     */
+    public boolean open(String fileName) {
+        close();
+        try(RandomAccessFile file = new RandomAccessFile(fileName, "r");
+            FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            System.out.println("Failed to open file: " + fileName);
+            return false;
+        }
+
+        ByteBuffer header = buffer.duplicate();
+        List<GameObject> globals = new ArrayList<>();
+        try {
+            if(header.getInt() != ChunkedMapFormat.MAGIC || header.getInt() != ChunkedMapFormat.VERSION) {
+                System.out.println("ERROR not a supported chunked map: " + fileName);
+                return false;
+            }
+            chunkSize = header.getInt();
+            int globalCount = header.getInt();
+            int chunkCount = header.getInt();
+            for(int i = 0; i < chunkCount; i++) {
+                int chunkX = header.getInt();
+                int chunkY = header.getInt();
+                int objectCount = header.getInt();
+                long offset = header.getLong();
+                int length = header.getInt();
+                if(objectCount < 0 || length < 0 || offset < 0 || offset + length > buffer.limit()) {
+                    System.out.println("ERROR chunk " + chunkX + "," + chunkY + " is outside the chunked map: " + fileName);
+                    return false;
+                }
+                chunks.put(ChunkedMapFormat.toKey(chunkX, chunkY), new Chunk(chunkX, chunkY, objectCount, offset));
+            }
+            for(int i = 0; i < globalCount; i++) {
+                GameObject object = BinaryMapFormat.readObject(header, objectManager);
+                if(object == null) {
+                    System.out.println("ERROR invalid object type in chunked map: " + fileName);
+                    return false;
+                }
+                globals.add(object);
+            }
+        } catch (BufferUnderflowException e) {
+            System.out.println("ERROR chunked map is truncated or corrupt: " + fileName);
+            return false;
+        }
+
+        objectManager.clearObjects();
+        for(GameObject object : globals) {
+            objectManager.addObject(object);
+        }
+        Player player = objectManager.getPlayer();
+        if(player == null) {
+            System.out.println("ERROR chunked map has no Player: " + fileName);
+            return false;
+        }
+        playerStartX = player.position.getX();
+        playerStartY = player.position.getY();
+
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChunkLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadAroundPlayerNow();
+        return true;
+    }
+
+    /**
+     * Called at each tick boundary. Adds any chunks that have finished parsing,
+     * removes chunks that are no longer needed, and requests chunks that have
+     * come within the preload radius of the player.
+     */
+    public void update() {
+        Player player = objectManager.getPlayer();
+        if(player == null || executor == null) return;
+        int playerChunkX = Math.floorDiv(player.position.getX(), chunkSize);
+        int playerChunkY = Math.floorDiv(player.position.getY(), chunkSize);
+
+        ParsedChunk parsed;
+        while((parsed = parsedChunks.poll()) != null) {
+            if(parsed.generation != generation) continue;
+            Chunk chunk = parsed.chunk;
+            chunk.pending = false;
+            // Drop chunks that were loaded directly or have moved out of range while parsing
+            if(chunk.objects != null || parsed.objects == null
+                    || distance(chunk, playerChunkX, playerChunkY) > preloadRadius + 1) continue;
+            addChunk(parsed);
+        }
+
+        evictChunks(playerChunkX, playerChunkY);
+
+        for(int chunkY = playerChunkY - preloadRadius; chunkY <= playerChunkY + preloadRadius; chunkY++) {
+            for(int chunkX = playerChunkX - preloadRadius; chunkX <= playerChunkX + preloadRadius; chunkX++) {
+                Chunk chunk = chunks.get(ChunkedMapFormat.toKey(chunkX, chunkY));
+                if(chunk == null || chunk.objects != null || chunk.pending) continue;
+                chunk.pending = true;
+                chunk.requestTime = System.nanoTime();
+                ByteBuffer mapBuffer = buffer;
+                int requestGeneration = generation;
+                executor.execute(() -> parsedChunks.add(parseChunk(mapBuffer, chunk, requestGeneration)));
+            }
+        }
+    }
+
+    /**
+     * Puts the player back at the start, forgets which collectibles were collected,
+     * and loads the chunks around the start before returning.
+     */
+    public void restart() {
+        Player player = objectManager.getPlayer();
+        if(player == null) return;
+        player.reset(playerStartX, playerStartY);
+        collected.clear();
+        for(LoadedObject loaded : loadedObjects.values()) {
+            if(loaded.object instanceof Collectible) {
+                ((Collectible)loaded.object).setCollected(false);
+            }
+        }
+        objectManager.getDirtyRegion().markAll();
+        loadAroundPlayerNow();
+    }
+
+    /**
+     * Stops the background thread. Objects already added are left in the ObjectManager.
+     * Anything still being parsed is dropped when it finishes.
+     */
+    public void close() {
+        generation++;
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        chunks.clear();
+        loadedChunks.clear();
+        loadedObjects.clear();
+        collected.clear();
+        parsedChunks.clear();
+    }
+
+    /**
+     * Gets the number of chunks currently added to the ObjectManager.
+     *
+     * @return Number of loaded chunks.
+     */
+    public int getLoadedChunkCount() {
+        return loadedChunks.size();
+    }
+
+    /**
+     * Gets the estimated memory used by the loaded objects.
+     *
+     * @return Estimated bytes used.
+     */
+    public long getEstimatedMemoryUse() {
+        return (long)loadedObjects.size() * ESTIMATED_OBJECT_BYTES;
+    }
+
+    /**
+     * Gets the number of chunks that have been added since the map was opened.
+     *
+     * @return Number of chunk loads.
+     */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Gets the number of chunks that have been removed since the map was opened.
+     *
+     * @return Number of chunk evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the average time from a chunk being requested to it being added.
+     *
+     * @return Average latency in ms, or 0 if nothing has been loaded.
+     */
+    public double getAverageLoadLatencyMillis() {
+        return loadCount == 0 ? 0 : totalLoadLatency / 1_000_000.0 / loadCount;
+    }
+
+    /**
+     * Gets the longest time from a chunk being requested to it being added.
+     *
+     * @return Maximum latency in ms.
+     */
+    public double getMaxLoadLatencyMillis() {
+        return maxLoadLatency / 1_000_000.0;
+    }
+
+    /**
+     * Parses and adds every chunk within the preload radius of the player that is not loaded yet.
+     */
+    private void loadAroundPlayerNow() {
+        Player player = objectManager.getPlayer();
+        int playerChunkX = Math.floorDiv(player.position.getX(), chunkSize);
+        int playerChunkY = Math.floorDiv(player.position.getY(), chunkSize);
+        evictChunks(playerChunkX, playerChunkY);
+        for(int chunkY = playerChunkY - preloadRadius; chunkY <= playerChunkY + preloadRadius; chunkY++) {
+            for(int chunkX = playerChunkX - preloadRadius; chunkX <= playerChunkX + preloadRadius; chunkX++) {
+                Chunk chunk = chunks.get(ChunkedMapFormat.toKey(chunkX, chunkY));
+                if(chunk == null || chunk.objects != null) continue;
+                chunk.requestTime = System.nanoTime();
+                ParsedChunk parsed = parseChunk(buffer, chunk, generation);
+                if(parsed.objects != null) {
+                    addChunk(parsed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the objects stored in a chunk. Objects already added from another chunk are
+     * created again and then dropped by addChunk(). Safe to call from the background thread.
+     *
+     * @param mapBuffer The mapped file the chunk is in, which may no longer be open by the time it is parsed.
+     * @param chunk The chunk to parse.
+     * @param requestGeneration Value of generation when the chunk was requested.
+     * @return The parsed chunk, with null objects if the chunk is corrupt.
+     */
+    private ParsedChunk parseChunk(ByteBuffer mapBuffer, Chunk chunk, int requestGeneration) {
+        ByteBuffer chunkBuffer = mapBuffer.duplicate();
+        ParsedChunk parsed = new ParsedChunk(chunk, requestGeneration);
+        try {
+            // open() checked the chunk is inside the mapped file
+            chunkBuffer.position((int)chunk.offset);
+            for(int i = 0; i < chunk.objectCount; i++) {
+                parsed.mapIndices[i] = chunkBuffer.getInt();
+                GameObject object = BinaryMapFormat.readObject(chunkBuffer, objectManager);
+                if(object == null || parsed.mapIndices[i] < 0) {
+                    System.out.println("ERROR invalid object in chunk " + chunk.chunkX + "," + chunk.chunkY);
+                    return new ParsedChunk(chunk, requestGeneration, null);
+                }
+                parsed.objects.add(object);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.out.println("ERROR chunk " + chunk.chunkX + "," + chunk.chunkY + " is truncated or corrupt");
+            return new ParsedChunk(chunk, requestGeneration, null);
+        }
+        return parsed;
+    }
+
+    /**
+     * Adds the objects from a chunk to the ObjectManager, restoring any remembered collectible
+     * state. Objects that are already loaded from another chunk are shared instead of added again.
+     *
+     * @param parsed The parsed chunk to add.
+     */
+    private void addChunk(ParsedChunk parsed) {
+        Chunk chunk = parsed.chunk;
+        for(int i = 0; i < parsed.mapIndices.length; i++) {
+            int mapIndex = parsed.mapIndices[i];
+            LoadedObject loaded = loadedObjects.get(mapIndex);
+            if(loaded == null) {
+                GameObject object = parsed.objects.get(i);
+                if(object instanceof Collectible && collected.get(mapIndex)) {
+                    ((Collectible)object).setCollected(true);
+                }
+                objectManager.addObject(object);
+                loaded = new LoadedObject(object);
+                loadedObjects.put(mapIndex, loaded);
+            }
+            loaded.chunkCount++;
+        }
+        chunk.objects = parsed.mapIndices;
+        loadedChunks.add(chunk);
+        objectManager.getDirtyRegion().markAll();
+
+        long latency = System.nanoTime() - chunk.requestTime;
+        totalLoadLatency += latency;
+        maxLoadLatency = Math.max(maxLoadLatency, latency);
+        loadCount++;
+    }
+
+    /**
+     * Removes chunks that are more than one chunk outside the preload radius, then
+     * removes the furthest chunks outside the preload radius while over the memory budget.
+     *
+     * @param playerChunkX Chunk index of the player along the x axis.
+     * @param playerChunkY Chunk index of the player along the y axis.
+     */
+    private void evictChunks(int playerChunkX, int playerChunkY) {
+        for(int i = loadedChunks.size() - 1; i >= 0; i--) {
+            if(distance(loadedChunks.get(i), playerChunkX, playerChunkY) > preloadRadius + 1) {
+                removeChunk(i);
+            }
+        }
+        while(getEstimatedMemoryUse() > memoryBudget) {
+            int furthest = -1;
+            int furthestDistance = preloadRadius;
+            for(int i = 0; i < loadedChunks.size(); i++) {
+                int distance = distance(loadedChunks.get(i), playerChunkX, playerChunkY);
+                if(distance > furthestDistance) {
+                    furthest = i;
+                    furthestDistance = distance;
+                }
+            }
+            // Everything left is needed around the player
+            if(furthest == -1) break;
+            removeChunk(furthest);
+        }
+    }
+
+    /**
+     * Removes a loaded chunk, removing the objects that no other loaded chunk lists from the
+     * ObjectManager and remembering which of them were collected collectibles.
+     *
+     * @param index Index of the chunk in loadedChunks.
+     */
+    private void removeChunk(int index) {
+        Chunk chunk = loadedChunks.remove(index);
+        List<GameObject> removed = new ArrayList<>();
+        for(int mapIndex : chunk.objects) {
+            LoadedObject loaded = loadedObjects.get(mapIndex);
+            if(--loaded.chunkCount > 0) continue;
+            if(loaded.object instanceof Collectible) {
+                collected.set(mapIndex, ((Collectible)loaded.object).isCollected());
+            }
+            loadedObjects.remove(mapIndex);
+            removed.add(loaded.object);
+        }
+        objectManager.removeObjects(removed);
+        chunk.objects = null;
+        evictionCount++;
+    }
+
+    /**
+     * Gets the number of chunks between a chunk and the player's chunk along the furthest axis.
+     *
+     * @param chunk The chunk to measure to.
+     * @param playerChunkX Chunk index of the player along the x axis.
+     * @param playerChunkY Chunk index of the player along the y axis.
+     * @return The distance in chunks.
+     */
+    private static int distance(Chunk chunk, int playerChunkX, int playerChunkY) {
+        return Math.max(Math.abs(chunk.chunkX - playerChunkX), Math.abs(chunk.chunkY - playerChunkY));
+    }
+}
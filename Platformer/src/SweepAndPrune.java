@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * SweepAndPrune class:
+ * Broad phase for collisions between moving objects. The bodies are kept sorted
+ * by the left edge of their bounds in the EntityStore, so only bodies whose x
+ * intervals overlap need testing against each other. Objects only move a little
+ * each tick, so the order is repaired with an insertion sort that runs in close
+ * to linear time when little has changed.
+ */
+public class SweepAndPrune {
+    /**
+     * Initial number of bodies that can be added before the array grows.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Receives each pair of bodies found to be intersecting.
+     */
+    public interface PairVisitor {
+        /**
+         * Called once for each intersecting pair.
+         *
+         * @param first The body of the pair that was added first.
+         * @param second The body of the pair that was added second.
+         */
+        void visit(GameObject first, GameObject second);
+    }
+
+    /**
+     * Bounds and objects for every entity index.
+     */
+    private final EntityStore entityStore;
+    /**
+     * Entity indices of the bodies sorted by x and then by id.
+     */
+    private int[] bodies;
+    /**
+     * Number of bodies.
+     */
+    private int bodyCount;
+
+    /**
+     * Creates an empty broad phase.
+     *
+     * @param entityStore Store that every body added is already in.
+     */
+    public SweepAndPrune(EntityStore entityStore) {
+        this.entityStore = entityStore;
+        bodies = new int[INITIAL_CAPACITY];
+        bodyCount = 0;
+    }
+
+    /**
+     * Adds a body. It is sorted into place on the next update().
+     *
+     * @param gameObject Object to add.
+     */
+    public void add(GameObject gameObject) {
+        if(bodyCount == bodies.length) {
+            bodies = Arrays.copyOf(bodies, bodyCount * 2);
+        }
+        bodies[bodyCount++] = gameObject.getEntityIndex();
+    }
+
+    /**
+     * Removes a body. Call this before the object is removed from the EntityStore.
+     *
+     * @param gameObject Object to remove.
+     */
+    public void remove(GameObject gameObject) {
+        int index = gameObject.getEntityIndex();
+        for(int i = 0; i < bodyCount; i++) {
+            if(bodies[i] == index) {
+                System.arraycopy(bodies, i + 1, bodies, i, bodyCount - i - 1);
+                bodyCount--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes every body.
+     */
+    public void clear() {
+        bodyCount = 0;
+    }
+
+    /**
+     * Gets the number of bodies.
+     *
+     * @return The number of bodies.
+     */
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    /**
+     * Restores the sort order after bodies have moved.
+     */
+    public void update() {
+        for(int i = 1; i < bodyCount; i++) {
+            int body = bodies[i];
+            int j = i - 1;
+            while(j >= 0 && isAfter(bodies[j], body)) {
+                bodies[j + 1] = bodies[j];
+                j--;
+            }
+            bodies[j + 1] = body;
+        }
+    }
+
+    /**
+     * Sweeps along the x axis and tests each pair of bodies whose x intervals overlap with
+     * Rectangle.isIntersecting(). update() must be called first if any bodies have moved.
+     * Pairs are found in the same order every time for the same positions.
+     *
+     * @param visitor Called once for each intersecting pair.
+     */
+    public void findPairs(PairVisitor visitor) {
+        int[] x = entityStore.x;
+        int[] width = entityStore.width;
+        GameObject[] objects = entityStore.objects;
+        for(int i = 0; i < bodyCount; i++) {
+            int body = bodies[i];
+            int maxX = x[body] + width[body];
+            GameObject gameObject = objects[body];
+            for(int j = i + 1; j < bodyCount && x[bodies[j]] <= maxX; j++) {
+                GameObject other = objects[bodies[j]];
+                if(gameObject.isIntersecting(other)) {
+                    if(gameObject.getId() < other.getId()) {
+                        visitor.visit(gameObject, other);
+                    } else {
+                        visitor.visit(other, gameObject);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests if one body belongs after another in the sort order.
+     *
+     * @param body Entity index of the first body.
+     * @param other Entity index of the second body.
+     * @return True if the first body has a larger x, or the same x and a larger id.
+     */
+    private boolean isAfter(int body, int other) {
+        int bodyX = entityStore.x[body];
+        int otherX = entityStore.x[other];
+        return bodyX > otherX || (bodyX == otherX
+                && entityStore.objects[body].getId() > entityStore.objects[other].getId());
+    }
+}
@@ -0,0 +1,50 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * TickMetricsEvent class:
+ * Flight Recorder event committed by Metrics at the end of every tick so a
+ * recording of a session shows where each tick went.
+ */
+@Name("platformer.Tick")
+@Label("Tick")
+@Category("Platformer")
+@Description("One update of the ObjectManager")
+public class TickMetricsEvent extends Event {
+    /**
+     * Number of ticks simulated before this one.
+     */
+    @Label("Tick Number")
+    long tick;
+    /**
+     * Time spent in collision queries during the tick.
+     */
+    @Label("Collision Query Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long queryTime;
+    /**
+     * Number of collision queries made during the tick.
+     */
+    @Label("Collision Queries")
+    int queries;
+    /**
+     * Number of objects looked at by the collision queries.
+     */
+    @Label("Collision Candidates")
+    int candidates;
+    /**
+     * Bytes allocated during the tick by the thread calling ObjectManager.update(), not counting
+     * worker threads of a parallel update, or -1 if not supported.
+     */
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
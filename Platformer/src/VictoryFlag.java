@@ -7,7 +7,7 @@ import java.awt.*;
  * VictoryFlag class:
  * Defines a flag that can be collided with by the player to win the level.
  */
-public class VictoryFlag extends GameObject implements CollisionTrigger {
+public class VictoryFlag extends GameObject {
     /**
      * Width of the flag.
      */
@@ -24,7 +24,7 @@ public class VictoryFlag extends GameObject implements CollisionTrigger {
      */
     public VictoryFlag(Position position) {
         super(position, FLAG_WIDTH, FLAG_HEIGHT);
-        canEnter = true;
+        setCanEnter(true);
     }
 
     /**
@@ -35,24 +35,21 @@ public class VictoryFlag extends GameObject implements CollisionTrigger {
     @Override
     public void paint(Graphics g) {
         g.setColor(Color.BLACK);
-        g.fillRect(position.x, position.y, 5, height);
-        g.fillRect(position.x, position.y, width, 20);
+        g.fillRect(position.getX(), position.getY(), 5, getHeight());
+        g.fillRect(position.getX(), position.getY(), getWidth(), 20);
         g.setColor(Color.WHITE);
-        g.fillRect(position.x+3, position.y+3, width-6, 20-6);
+        g.fillRect(position.getX()+3, position.getY()+3, getWidth()-6, 20-6);
         g.setColor(Color.BLACK);
         g.setFont(new Font("Arial", Font.BOLD, 10));
-        g.drawString("Win Here!", position.x+4, position.y+4+10);
+        g.drawString("Win Here!", position.getX()+4, position.getY()+4+10);
     }
 
     /**
-     * When collided with by the player it will activate the flag on the player.
+     * When touched by the player it will activate the flag on the player.
      *
-     * @param object The object that collided with this object.
+     * @param player The player that touched the flag.
      */
-    @Override
-    public void collideWith(GameObject object) {
-        if(object instanceof Player) {
-            ((Player)object).activateFlag();
-        }
+    public void reach(Player player) {
+        player.activateFlag();
     }
 }
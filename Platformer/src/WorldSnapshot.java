@@ -0,0 +1,93 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Platformer
+ * Author: Peter Mitchell (2021)
+ *
+ * WorldSnapshot class:
+ * A reusable buffer holding the mutable state of a GameSession written by
+ * GameSession.writeState(). Capturing into an existing snapshot reuses its
+ * buffer, so snapshots can be taken every tick without allocating once the
+ * buffer has grown to fit the world.
+ */
+public class WorldSnapshot {
+    /**
+     * Initial size of the buffer in bytes.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The saved state between position 0 and the limit.
+     */
+    private ByteBuffer buffer;
+    /**
+     * Tick the state was captured on, or -1 if nothing has been captured.
+     */
+    private long tick;
+
+    /**
+     * Creates an empty snapshot.
+     */
+    public WorldSnapshot() {
+        buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        tick = -1;
+    }
+
+    /**
+     * Saves the state of the session, replacing anything saved before.
+     *
+     * @param session The session to save.
+     */
+    public void capture(GameSession session) {
+        while(true) {
+            buffer.clear();
+            try {
+                session.writeState(buffer);
+                break;
+            } catch (BufferOverflowException e) {
+                // Only happens until the buffer has grown to fit the world
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        buffer.flip();
+        tick = session.getTickCount();
+    }
+
+    /**
+     * Puts the session back into the saved state.
+     *
+     * @param session The session the state was captured from.
+     * @return True if the state was restored, false if nothing was saved or the objects in the map have changed.
+     */
+    public boolean restore(GameSession session) {
+        if(tick < 0) return false;
+        buffer.rewind();
+        return session.readState(buffer);
+    }
+
+    /**
+     * Gets the tick the state was captured on.
+     *
+     * @return The tick number, or -1 if nothing has been captured.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Gets the number of bytes used by the saved state.
+     *
+     * @return The size of the state in bytes.
+     */
+    public int getSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * Marks the snapshot as empty. The buffer is kept for reuse.
+     */
+    public void clear() {
+        tick = -1;
+    }
+}